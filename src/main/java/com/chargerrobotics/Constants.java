@@ -87,6 +87,10 @@ public final class Constants {
   public static final String dataStoragePath = "/home/lvuser";
   public static final String configFileName = "config.yml";
 
+  // Serial capture, see SerialCapture
+  public static final int serialCaptureSize = 16 * 1024 * 1024; // bytes per port
+  public static final int serialCapturesKept = 4; // files per port, oldest deleted first
+
   // Limelight distance calculation constants
 
   // Placeholder X and Y coords of markers on field in inches, given initiation line is marked south
@@ -10,6 +10,8 @@ package com.chargerrobotics;
 import com.chargerrobotics.subsystems.LEDSubsystem.LEDMode;
 import com.chargerrobotics.subsystems.LimelightSubsystem;
 import com.chargerrobotics.utils.ArduinoSerialReceiver;
+import com.chargerrobotics.utils.MappingUpdates;
+import com.chargerrobotics.utils.WriteBehindStore;
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.RobotBase;
 import edu.wpi.first.wpilibj.TimedRobot;
@@ -50,9 +52,14 @@ public class Robot extends TimedRobot {
    */
   @Override
   public void robotInit() {
+    long start = System.nanoTime();
     robotContainer = getContainerInstance();
     SmartDashboard.putData(CommandScheduler.getInstance());
+    // Arduino links stay open in every mode so sensor data is fresh when the robot is enabled
+    ArduinoSerialReceiver.setEnabled(false);
+    ArduinoSerialReceiver.start();
     isInitialized = true;
+    System.out.println("robotInit took " + (System.nanoTime() - start) / 1000000 + "ms");
   }
 
   /**
@@ -73,6 +80,8 @@ public class Robot extends TimedRobot {
    */
   @Override
   public void robotPeriodic() {
+    // Applies dashboard tuning received since the last loop, before any command reads it
+    MappingUpdates.apply();
     // Runs the Scheduler. This is responsible for polling buttons, adding
     // newly-scheduled
     // commands, running already-scheduled commands, removing finished or
@@ -87,7 +96,8 @@ public class Robot extends TimedRobot {
   @Override
   public void teleopInit() {
     robotContainer.setTeleop();
-    ArduinoSerialReceiver.start();
+    ArduinoSerialReceiver.setEnabled(true);
+    WriteBehindStore.requestFlushAll();
     if (RobotBase.isReal()) {
       robotContainer.leds.setMode(LEDMode.TELEOP);
     }
@@ -102,7 +112,8 @@ public class Robot extends TimedRobot {
   @Override
   public void disabledInit() {
     robotContainer.setDisabled();
-    ArduinoSerialReceiver.close();
+    ArduinoSerialReceiver.setEnabled(false);
+    WriteBehindStore.requestFlushAll();
     if (RobotBase.isReal()) {
       robotContainer.leds.setMode(LEDMode.DISABLED);
     }
@@ -116,7 +127,8 @@ public class Robot extends TimedRobot {
   @Override
   public void autonomousInit() {
     robotContainer.setAutonomous();
-    ArduinoSerialReceiver.start();
+    ArduinoSerialReceiver.setEnabled(true);
+    WriteBehindStore.requestFlushAll();
     robotContainer.leds.setMode(LEDMode.AUTONOMOUS);
     LimelightSubsystem.getInstance().setLEDStatus(false);
   }
@@ -129,7 +141,8 @@ public class Robot extends TimedRobot {
   @Override
   public void testInit() {
     CommandScheduler.getInstance().cancelAll();
-    ArduinoSerialReceiver.close();
+    ArduinoSerialReceiver.setEnabled(false);
+    WriteBehindStore.requestFlushAll();
     robotContainer.leds.setMode(LEDMode.DISABLED);
   }
 
@@ -139,9 +152,7 @@ public class Robot extends TimedRobot {
 
   /** This function is called once each time the robot enters simulation mode. */
   @Override
-  public void simulationInit() {
-    ArduinoSerialReceiver.close();
-  }
+  public void simulationInit() {}
 
   /** This function is called periodically during simulation mode. */
   @Override
@@ -11,7 +11,8 @@ import java.util.function.DoubleSupplier;
 
 import com.chargerrobotics.subsystems.DriveSubsystem;
 import com.chargerrobotics.subsystems.LimelightSubsystem;
-import com.chargerrobotics.utils.NetworkMapping;
+import com.chargerrobotics.utils.DoubleMapping;
+import com.chargerrobotics.utils.MappingGroup;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,13 +31,13 @@ public class VisionTurn extends PIDCommand {
   private static PIDController pid;
   private long startTime;
   private static final long delay = 250; // wait 250 ms for limelight to lock on
-  public final NetworkMapping<Double> kP = new NetworkMapping<Double>("vision_p", 0.015, val -> {
+  public final DoubleMapping kP = new DoubleMapping("vision_p", 0.015, val -> {
     setPIDP(val);
   });
-  public final NetworkMapping<Double> kI = new NetworkMapping<Double>("vision_i", 0.0, val -> {
+  public final DoubleMapping kI = new DoubleMapping("vision_i", 0.0, val -> {
     setPIDI(val);
   });
-  public final NetworkMapping<Double> kD = new NetworkMapping<Double>("vision_d", 0.0001, val -> {
+  public final DoubleMapping kD = new DoubleMapping("vision_d", 0.0001, val -> {
     setPIDD(val);
   });
 
@@ -62,6 +63,7 @@ public class VisionTurn extends PIDCommand {
     // Use addRequirements() here to declare subsystem dependencies.
     // Configure additional PID options by calling `getController` here.
     limelight = limelightSubsystem;
+    new MappingGroup().add(kP, kI, kD);
     setPIDP(kP.getValue());
     setPIDI(kI.getValue());
     setPIDD(kD.getValue());
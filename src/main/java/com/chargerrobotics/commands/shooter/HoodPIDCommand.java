@@ -9,7 +9,8 @@ package com.chargerrobotics.commands.shooter;
 
 import com.chargerrobotics.Constants;
 import com.chargerrobotics.subsystems.ShooterHoodSubsystem;
-import com.chargerrobotics.utils.NetworkMapping;
+import com.chargerrobotics.utils.DoubleMapping;
+import com.chargerrobotics.utils.MappingGroup;
 
 import edu.wpi.first.wpilibj.controller.PIDController;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
@@ -23,19 +24,23 @@ public class HoodPIDCommand extends PIDCommand {
   private static PIDController pid;
   private static double setPoint;
 
-  public static final NetworkMapping<Double> kP = new NetworkMapping<Double>("hood_p", Constants.hoodP, val -> { //so far:0.00065
+  public static final DoubleMapping kP = new DoubleMapping("hood_p", Constants.hoodP, val -> { //so far:0.00065
     setPIDP(val);
   });
 
-  public static final NetworkMapping<Double> kI = new NetworkMapping<Double>("hood_i", Constants.hoodI, val -> { //so far: 0.00038
+  public static final DoubleMapping kI = new DoubleMapping("hood_i", Constants.hoodI, val -> { //so far: 0.00038
     setPIDI(val);
   });
 
-  public static final NetworkMapping<Double> kD = new NetworkMapping<Double>("hood_d", Constants.hoodD, val -> {
+  public static final DoubleMapping kD = new DoubleMapping("hood_d", Constants.hoodD, val -> {
     setPIDD(val);
   });
 
-  public static final NetworkMapping<Double> hood_setPoint = new NetworkMapping<Double>("hood_SetPointDegrees", 28.0, val -> {
+  static {
+    new MappingGroup().add(kP, kI, kD);
+  }
+
+  public static final DoubleMapping hood_setPoint = new DoubleMapping("hood_SetPointDegrees", 28.0, val -> {
     setPoint = val;
   });
 
@@ -1,33 +1,35 @@
 package com.chargerrobotics.sensors;
 
-import java.nio.ByteBuffer;
-
 import com.chargerrobotics.Robot.ColorWheelColor;
 import com.chargerrobotics.utils.ArduinoSerial;
 import com.chargerrobotics.utils.ArduinoSerialReceiver;
-import com.chargerrobotics.utils.ArduinoSerialReceiver.ArduinoListener;
+import com.chargerrobotics.utils.LayoutListener;
+import com.chargerrobotics.utils.MessageLayout;
+import com.chargerrobotics.utils.MessageLayout.Type;
+
+public class ColorSensorSerial extends LayoutListener {
+
+  private static final MessageLayout LAYOUT = MessageLayout.of(Type.UINT8);
 
-public class ColorSensorSerial extends ArduinoListener {
+  private volatile ColorWheelColor color = null;
 
-	private volatile ColorWheelColor color = null;
-	
-	public ColorSensorSerial() {
-		ArduinoSerialReceiver.registerListener(this, (short)0x802D);
-	}
+  public ColorSensorSerial() {
+    super(LAYOUT, 250, Priority.LOW);
+    ArduinoSerialReceiver.registerListener(this, (short) 0x802D);
+  }
 
-	public void receiveData(ArduinoSerial serial, ByteBuffer buffer) {
-		if (buffer.hasRemaining())
-			color = ColorWheelColor.valueOf((char) buffer.get());
-		System.out.println(isExpired() ? "Expired" : getColor());
-	}
-	
-	/**
-	 * Get the current wheel sensor color or {@code null} if data is expired
-	 * 
-	 * @return Color sensor color
-	 */
-	public ColorWheelColor getColor() {
-		return isExpired() ? null : color;
-	}
+  @Override
+  protected void onMessage(ArduinoSerial serial) {
+    color = ColorWheelColor.valueOf((char) getSnapshot().getLong(0));
+    System.out.println(isExpired() ? "Expired" : getColor());
+  }
 
+  /**
+   * Get the current wheel sensor color or {@code null} if data is expired
+   *
+   * @return Color sensor color
+   */
+  public ColorWheelColor getColor() {
+    return isExpired() ? null : color;
+  }
 }
@@ -1,65 +1,155 @@
 package com.chargerrobotics.sensors;
 
-import java.nio.ByteBuffer;
-
 import com.chargerrobotics.utils.ArduinoSerial;
 import com.chargerrobotics.utils.ArduinoSerialReceiver;
-import com.chargerrobotics.utils.ArduinoSerialReceiver.ArduinoListener;
-
-public class GyroscopeSerial extends ArduinoListener {
-
-	private volatile float x = 0;
-	private volatile float y = 0;
-	private volatile float z = 0;
-	
-	public GyroscopeSerial() {
-		ArduinoSerialReceiver.registerListener(this, (short)0xA02D);
-	}
-
-	public void receiveData(ArduinoSerial serial, ByteBuffer buffer) {
-		if (buffer.remaining() >= 12) {
-			x = buffer.getFloat();
-			y = buffer.getFloat();
-			z = buffer.getFloat();
-		}
-	}
-	
-	/**
-	 * Gets the robot heading in degrees or {@code -1} if data is expired
-	 * 
-	 * Equivalent to {@link #getYaw()}
-	 * 
-	 * @return Robot heading
-	 */
-	public float getHeading() {
-		return getYaw();
-	}
-	
-	/**
-	 * Gets the robot yaw in degrees or {@code -1} if data is expired
-	 * 
-	 * @return Robot yaw
-	 */
-	public float getYaw() {
-		return isExpired() ? -1 : x;
-	}
-	
-	/**
-	 * Gets the robot pitch in degrees or {@code -1} if data is expired
-	 * 
-	 * @return Robot pitch
-	 */
-	public float getPitch() {
-		return isExpired() ? -1 : y;
-	}
-	
-	/**
-	 * Gets the robot roll in degrees or {@code -1} if data is expired
-	 * 
-	 * @return Robot roll
-	 */
-	public float getRoll() {
-		return isExpired() ? -1 : z;
-	}
+import com.chargerrobotics.utils.LayoutListener;
+import com.chargerrobotics.utils.MessageLayout;
+import com.chargerrobotics.utils.MessageLayout.Type;
+import com.chargerrobotics.utils.SensorSnapshot;
+
+public class GyroscopeSerial extends LayoutListener {
+
+  private static final int HISTORY_SIZE = 128;
+  private static final int HISTORY_MASK = HISTORY_SIZE - 1;
+
+  /** Field of the yaw in degrees, see {@link #readOrientation(SensorSnapshot.Reading)} */
+  public static final int YAW = 0;
+  /** Field of the pitch in degrees */
+  public static final int PITCH = 1;
+  /** Field of the roll in degrees */
+  public static final int ROLL = 2;
+
+  private static final MessageLayout LAYOUT = MessageLayout.of(Type.FLOAT, Type.FLOAT, Type.FLOAT);
+
+  private final long[] sampleTimes = new long[HISTORY_SIZE];
+  private final float[] sampleYaws = new float[HISTORY_SIZE];
+  private int nextSample = 0;
+  private int sampleCount = 0;
+
+  public GyroscopeSerial() {
+    super(LAYOUT, 50, Priority.HIGH);
+    ArduinoSerialReceiver.registerListener(this, (short) 0xA02D);
+  }
+
+  @Override
+  protected void onMessage(ArduinoSerial serial) {
+    addSample(getLastTimestamp(), getSnapshot().getFloat(YAW));
+  }
+
+  /**
+   * Internal method to record a yaw sample in the history
+   *
+   * @param timestamp FPGA time in microseconds at which the sample was measured
+   * @param yaw Yaw in degrees
+   */
+  private synchronized void addSample(long timestamp, float yaw) {
+    sampleTimes[nextSample] = timestamp;
+    sampleYaws[nextSample] = yaw;
+    nextSample = (nextSample + 1) & HISTORY_MASK;
+    if (sampleCount < HISTORY_SIZE) sampleCount++;
+  }
+
+  /**
+   * Copies the yaw, pitch and roll of the last message, all from the same message
+   *
+   * <p>Read the fields with {@link #YAW}, {@link #PITCH} and {@link #ROLL}. The reading's timestamp
+   * is the time the orientation was measured at
+   *
+   * @param reading Reading to copy into, reused between calls
+   * @return <code>true</code> if the orientation has not expired
+   */
+  public boolean readOrientation(SensorSnapshot.Reading reading) {
+    return read(reading);
+  }
+
+  /**
+   * Gets the robot heading in degrees or {@code -1} if data is expired
+   *
+   * <p>Equivalent to {@link #getYaw()}
+   *
+   * @return Robot heading
+   */
+  public float getHeading() {
+    return getYaw();
+  }
+
+  /**
+   * Gets the robot yaw in degrees or {@code -1} if data is expired
+   *
+   * @return Robot yaw
+   */
+  public float getYaw() {
+    return getFloat(YAW, -1);
+  }
+
+  /**
+   * Gets the robot yaw in degrees at the given time or {@code -1} if data is expired
+   *
+   * <p>Interpolates between the recent samples measured before and after the time, taking the wrap
+   * from 360 to 0 degrees into account. Times before the oldest sample kept give the oldest sample,
+   * times after the latest sample give the latest sample
+   *
+   * <p>Lets readings taken at another time, such as encoder positions, be lined up with the heading
+   *
+   * @param timestamp FPGA time in microseconds, see {@link ArduinoSerialReceiver#getTime()}
+   * @return Robot yaw
+   */
+  public synchronized float getYawAt(long timestamp) {
+    if (isExpired() || sampleCount == 0) return -1;
+    int newer = (nextSample - 1) & HISTORY_MASK;
+    if (timestamp >= sampleTimes[newer]) return sampleYaws[newer];
+    for (int i = 1; i < sampleCount; i++) {
+      int older = (newer - 1) & HISTORY_MASK;
+      if (sampleTimes[older] <= timestamp) {
+        return interpolate(older, newer, timestamp);
+      }
+      newer = older;
+    }
+    return sampleYaws[newer];
+  }
+
+  /**
+   * Internal method to interpolate the yaw between two samples
+   *
+   * @param older Index of the sample before the time
+   * @param newer Index of the sample after the time
+   * @param timestamp FPGA time in microseconds
+   * @return Yaw in degrees
+   */
+  private float interpolate(int older, int newer, long timestamp) {
+    long span = sampleTimes[newer] - sampleTimes[older];
+    if (span <= 0) return sampleYaws[newer];
+    double fraction = (double) (timestamp - sampleTimes[older]) / span;
+    double change = sampleYaws[newer] - sampleYaws[older];
+    if (change > 180) {
+      change -= 360;
+    } else if (change < -180) {
+      change += 360;
+    }
+    double yaw = sampleYaws[older] + fraction * change;
+    if (yaw < 0) {
+      yaw += 360;
+    } else if (yaw >= 360) {
+      yaw -= 360;
+    }
+    return (float) yaw;
+  }
+
+  /**
+   * Gets the robot pitch in degrees or {@code -1} if data is expired
+   *
+   * @return Robot pitch
+   */
+  public float getPitch() {
+    return getFloat(PITCH, -1);
+  }
 
+  /**
+   * Gets the robot roll in degrees or {@code -1} if data is expired
+   *
+   * @return Robot roll
+   */
+  public float getRoll() {
+    return getFloat(ROLL, -1);
+  }
 }
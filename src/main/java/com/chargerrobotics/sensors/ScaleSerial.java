@@ -1,31 +1,25 @@
 package com.chargerrobotics.sensors;
 
-import java.nio.ByteBuffer;
-
-import com.chargerrobotics.utils.ArduinoSerial;
 import com.chargerrobotics.utils.ArduinoSerialReceiver;
-import com.chargerrobotics.utils.ArduinoSerialReceiver.ArduinoListener;
+import com.chargerrobotics.utils.LayoutListener;
+import com.chargerrobotics.utils.MessageLayout;
+import com.chargerrobotics.utils.MessageLayout.Type;
 
-public class ScaleSerial extends ArduinoListener {
+public class ScaleSerial extends LayoutListener {
 
-	private volatile float reading = 0;
-	
-	public ScaleSerial() {
-		ArduinoSerialReceiver.registerListener(this, (short)0x902D);
-	}
+  private static final MessageLayout LAYOUT = MessageLayout.of(Type.FLOAT);
 
-	public void receiveData(ArduinoSerial serial, ByteBuffer buffer) {
-		if (buffer.remaining() >= 4)
-			reading = buffer.getFloat();
-	}
-	
-	/**
-	 * Get the current scale reading or {@code -1} if data is expired
-	 * 
-	 * @return Scale reading
-	 */
-	public float getReading() {
-		return isExpired() ? -1 : reading;
-	}
+  public ScaleSerial() {
+    super(LAYOUT, 250, Priority.LOW);
+    ArduinoSerialReceiver.registerListener(this, (short) 0x902D);
+  }
 
+  /**
+   * Get the current scale reading or {@code -1} if data is expired
+   *
+   * @return Scale reading
+   */
+  public float getReading() {
+    return getFloat(0, -1);
+  }
 }
@@ -1,7 +1,8 @@
 package com.chargerrobotics.subsystems;
 
 import com.chargerrobotics.Constants;
-import com.chargerrobotics.utils.NetworkMapping;
+import com.chargerrobotics.utils.DoubleMapping;
+import com.chargerrobotics.utils.MappingGroup;
 import com.revrobotics.CANPIDController;
 import com.revrobotics.CANSparkMax;
 import com.revrobotics.CANSparkMax.IdleMode;
@@ -34,36 +35,36 @@ public class ShooterSubsystem extends SubsystemBase {
   private CANPIDController shooterPIDController1;
   private CANPIDController shooterPIDController2;
   public double kIz, kMaxOutput, kMinOutput, maxRPM;
-  public final NetworkMapping<Double> kP =
-      new NetworkMapping<Double>(
+  public final DoubleMapping kP =
+      new DoubleMapping(
           "shooter_p",
           Constants.shooterP,
           val -> {
             setPIDP(val);
           });
-  public final NetworkMapping<Double> kI =
-      new NetworkMapping<Double>(
+  public final DoubleMapping kI =
+      new DoubleMapping(
           "shooter_i",
           Constants.shooterI,
           val -> {
             setPIDI(val);
           });
-  public final NetworkMapping<Double> kD =
-      new NetworkMapping<Double>(
+  public final DoubleMapping kD =
+      new DoubleMapping(
           "shooter_d",
           Constants.shooterD,
           val -> {
             setPIDD(val);
           });
-  public final NetworkMapping<Double> kF =
-      new NetworkMapping<Double>(
+  public final DoubleMapping kF =
+      new DoubleMapping(
           "shooter_f",
           Constants.shooterFeedForward,
           val -> {
             setPIDF(val);
           });
-  public final NetworkMapping<Double> kSetPoint =
-      new NetworkMapping<Double>(
+  public final DoubleMapping kSetPoint =
+      new DoubleMapping(
           "shooter_rpm_setpoint",
           Constants.shooterTargetRPM,
           val -> {
@@ -92,6 +93,7 @@ public class ShooterSubsystem extends SubsystemBase {
     shooter2.setIdleMode(IdleMode.kCoast);
     shooterPIDController1.setOutputRange(Constants.shooterMinOutput, Constants.shooterMaxOutput);
     shooterPIDController2.setOutputRange(Constants.shooterMinOutput, Constants.shooterMaxOutput);
+    new MappingGroup().add(kP, kI, kD, kF);
     setPIDP(kP.getValue());
     setPIDI(kI.getValue());
     setPIDD(kD.getValue());
@@ -0,0 +1,73 @@
+package com.chargerrobotics.utils;
+
+import com.chargerrobotics.utils.ArduinoFrameDecoder.FrameListener;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Codec for container frames carrying the readings of several sensors on one board
+ *
+ * <p>The payload of a frame with {@link #HEADER} is a sequence of records, little endian: 2 byte
+ * header, 1 byte payload length, payload. Each record costs 3 bytes of overhead instead of the 8
+ * bytes of a frame of its own, and one poll refreshes every sensor on the board
+ */
+public class ArduinoBatch {
+
+  public static final short HEADER = (short) 0x4581;
+  public static final int RECORD_HEADER_LENGTH = 3;
+  public static final int MAX_RECORD_PAYLOAD = 255;
+
+  private final byte[] record = new byte[MAX_RECORD_PAYLOAD];
+  private final ByteBuffer recordView =
+      ByteBuffer.wrap(record).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+
+  /**
+   * Splits the payload of a container frame, calling the listener for each record
+   *
+   * <p>A truncated record ends the split, the records before it are still delivered
+   *
+   * @param payload Payload of the container frame, read from its current position
+   * @param listener Listener for the records
+   * @return Number of records delivered
+   */
+  public int split(ByteBuffer payload, FrameListener listener) {
+    int records = 0;
+    while (payload.remaining() >= RECORD_HEADER_LENGTH) {
+      short header = (short) ((payload.get() & 0xff) | (payload.get() << 8));
+      int length = payload.get() & 0xff;
+      if (length > payload.remaining()) break;
+      payload.get(record, 0, length);
+      recordView.limit(length);
+      recordView.position(0);
+      listener.receiveFrame(header, recordView);
+      records++;
+    }
+    return records;
+  }
+
+  /**
+   * Encodes records into the payload of a container frame
+   *
+   * @param headers Header of each record
+   * @param payloads Payload of each record
+   * @return Payload of the container frame
+   * @throws IllegalArgumentException If a record payload is longer than {@link
+   *     #MAX_RECORD_PAYLOAD}
+   */
+  public static byte[] encode(short[] headers, byte[][] payloads) {
+    int length = 0;
+    for (byte[] payload : payloads) {
+      if (payload.length > MAX_RECORD_PAYLOAD) {
+        throw new IllegalArgumentException("Record payload too long: " + payload.length);
+      }
+      length += RECORD_HEADER_LENGTH + payload.length;
+    }
+    ByteBuffer batch = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < headers.length; i++) {
+      batch.putShort(headers[i]);
+      batch.put((byte) payloads[i].length);
+      batch.put(payloads[i]);
+    }
+    return batch.array();
+  }
+}
@@ -0,0 +1,223 @@
+package com.chargerrobotics.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Incremental decoder for frames received from an Arduino
+ *
+ * <p>Frame layout, little endian: 2 sync bytes, 2 byte header, 2 byte CRC, 2 byte payload length,
+ * payload. The CRC is a {@link Crc16} over the header, length and payload bytes
+ *
+ * <p>All bytes available from the port are read at once into a ring buffer and parsed as they
+ * arrive. A frame split across several reads is completed by a later read. The bytes of a frame
+ * stay in the ring buffer until it has been validated, so if the CRC or length is invalid the
+ * search for the next sync pair resumes at the byte after the rejected sync, without discarding the
+ * rest of the read
+ *
+ * <p>A corrupt length can make a frame appear incomplete. While waiting for it, a complete valid
+ * frame found further on shows that it was not a frame, and decoding resumes from there
+ */
+public class ArduinoFrameDecoder {
+
+  /** Receiver of decoded frames */
+  public interface FrameListener {
+    /**
+     * Called for each frame with a valid CRC
+     *
+     * @param header Header of the frame
+     * @param payload Read-only {@link java.nio.ByteBuffer} containing the payload, only valid until
+     *     this method returns
+     */
+    public void receiveFrame(short header, ByteBuffer payload);
+  }
+
+  public static final int FRAME_HEADER_LENGTH = 8;
+  public static final int MAX_PAYLOAD = 1024;
+  public static final byte SYNC = 0x55;
+
+  private static final int RING_SIZE = 4096;
+  private static final int RING_MASK = RING_SIZE - 1;
+
+  private final byte[] ring = new byte[RING_SIZE];
+  private int readIndex = 0;
+  private int writeIndex = 0;
+
+  private final byte[] payload = new byte[MAX_PAYLOAD];
+  private final ByteBuffer payloadView =
+      ByteBuffer.wrap(payload).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+
+  private int rejectedFrames = 0;
+  private int lastReadCount = 0;
+
+  /**
+   * Reads all bytes currently available from the transport into the ring buffer
+   *
+   * <p>Blocks for a short period of time until at least one byte is available or the read times
+   * out
+   *
+   * @param transport Transport to read from
+   * @return Number of bytes read, or <code>-1</code> if the port has failed
+   */
+  public int read(SerialTransport transport) {
+    int offset = writeIndex & RING_MASK;
+    int free = RING_SIZE - (writeIndex - readIndex);
+    int count = transport.readBytes(ring, offset, Math.min(free, RING_SIZE - offset));
+    lastReadCount = Math.max(count, 0);
+    if (count > 0) {
+      writeIndex += count;
+    }
+    return count;
+  }
+
+  /**
+   * Records the bytes of the last {@link #read(SerialTransport)} in a capture
+   *
+   * <p>The bytes of a single read are contiguous in the ring buffer, so they are recorded without
+   * copying them first
+   *
+   * @param capture Capture to record in
+   * @param timestamp FPGA time in microseconds at which the bytes arrived
+   */
+  public void captureLastRead(SerialCapture capture, long timestamp) {
+    capture.record(timestamp, ring, (writeIndex - lastReadCount) & RING_MASK, lastReadCount);
+  }
+
+  /**
+   * Copies received bytes into the ring buffer
+   *
+   * @param data Received bytes
+   * @param offset Position of the first byte
+   * @param count Number of bytes
+   * @return Number of bytes copied, limited by the free space in the ring buffer
+   */
+  public int receive(byte[] data, int offset, int count) {
+    count = Math.min(count, RING_SIZE - (writeIndex - readIndex));
+    int start = writeIndex & RING_MASK;
+    int firstPart = Math.min(count, RING_SIZE - start);
+    System.arraycopy(data, offset, ring, start, firstPart);
+    System.arraycopy(data, offset + firstPart, ring, 0, count - firstPart);
+    writeIndex += count;
+    return count;
+  }
+
+  /**
+   * Parses all buffered bytes, calling the listener for each complete frame
+   *
+   * <p>An incomplete frame is kept and finished by the next call once more bytes have been read
+   *
+   * @param listener Listener for decoded frames
+   * @return Number of frames decoded
+   */
+  public int decode(FrameListener listener) {
+    int frames = 0;
+    while (writeIndex - readIndex >= FRAME_HEADER_LENGTH) {
+      if (ring[readIndex & RING_MASK] != SYNC || ring[(readIndex + 1) & RING_MASK] != SYNC) {
+        readIndex++;
+        continue;
+      }
+      int length = getShort(readIndex + 6) & 0xffff;
+      if (length > MAX_PAYLOAD) {
+        rejectedFrames++;
+        readIndex++;
+        continue;
+      }
+      if (writeIndex - readIndex < FRAME_HEADER_LENGTH + length) {
+        int next = findValidFrame(readIndex + 1);
+        if (next < 0) break;
+        rejectedFrames++;
+        readIndex = next;
+        continue;
+      }
+      if (!isValidFrame(readIndex, length)) {
+        rejectedFrames++;
+        readIndex++;
+        continue;
+      }
+      short header = getShort(readIndex + 2);
+      copyPayload(readIndex + FRAME_HEADER_LENGTH, length);
+      readIndex += FRAME_HEADER_LENGTH + length;
+      payloadView.limit(length);
+      payloadView.position(0);
+      listener.receiveFrame(header, payloadView);
+      frames++;
+    }
+    return frames;
+  }
+
+  /**
+   * Returns the number of frames rejected for an invalid CRC or length since construction
+   *
+   * @return Number of rejected frames
+   */
+  public int getRejectedFrames() {
+    return rejectedFrames;
+  }
+
+  /** Resets the decoder, discarding all buffered bytes and any partially received frame */
+  public void reset() {
+    readIndex = writeIndex;
+  }
+
+  /**
+   * Internal method to find the next complete frame with a valid CRC in the ring buffer
+   *
+   * @param from Index to start searching at
+   * @return Index of the first sync byte of the frame, or <code>-1</code> if none was found
+   */
+  private int findValidFrame(int from) {
+    for (int start = from; writeIndex - start >= FRAME_HEADER_LENGTH; start++) {
+      if (ring[start & RING_MASK] != SYNC || ring[(start + 1) & RING_MASK] != SYNC) continue;
+      int length = getShort(start + 6) & 0xffff;
+      if (length <= MAX_PAYLOAD
+          && writeIndex - start >= FRAME_HEADER_LENGTH + length
+          && isValidFrame(start, length)) {
+        return start;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Internal method to check the CRC of a complete frame in the ring buffer
+   *
+   * @param start Index of the first sync byte
+   * @param length Payload length
+   * @return <code>true</code> if the CRC matches
+   */
+  private boolean isValidFrame(int start, int length) {
+    int crc = Crc16.INITIAL;
+    crc = Crc16.update(crc, ring[(start + 2) & RING_MASK]);
+    crc = Crc16.update(crc, ring[(start + 3) & RING_MASK]);
+    crc = Crc16.update(crc, ring[(start + 6) & RING_MASK]);
+    crc = Crc16.update(crc, ring[(start + 7) & RING_MASK]);
+    int payloadStart = (start + FRAME_HEADER_LENGTH) & RING_MASK;
+    int firstPart = Math.min(length, RING_SIZE - payloadStart);
+    crc = Crc16.update(crc, ring, payloadStart, firstPart);
+    crc = Crc16.update(crc, ring, 0, length - firstPart);
+    return crc == (getShort(start + 4) & 0xffff);
+  }
+
+  /**
+   * Internal method to read a little endian short from the ring buffer
+   *
+   * @param index Index of the low byte
+   * @return Value read
+   */
+  private short getShort(int index) {
+    return (short) ((ring[index & RING_MASK] & 0xff) | (ring[(index + 1) & RING_MASK] << 8));
+  }
+
+  /**
+   * Internal method to copy a payload out of the ring buffer
+   *
+   * @param start Index of the first payload byte
+   * @param length Number of bytes to copy
+   */
+  private void copyPayload(int start, int length) {
+    start &= RING_MASK;
+    int firstPart = Math.min(length, RING_SIZE - start);
+    System.arraycopy(ring, start, payload, 0, firstPart);
+    System.arraycopy(ring, 0, payload, firstPart, length - firstPart);
+  }
+}
@@ -1,458 +1,754 @@
 package com.chargerrobotics.utils;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
+import com.chargerrobotics.utils.ArduinoFrameDecoder.FrameListener;
 import com.chargerrobotics.utils.ArduinoSerialReceiver.ArduinoListener;
 import com.fazecast.jSerialComm.SerialPort;
-import com.fazecast.jSerialComm.SerialPortIOException;
-import com.fazecast.jSerialComm.SerialPortTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
- * Serial sender/receiver to communicate with an Arduino
- * Uses a 2 byte header to specify device type
- * Sends packets of up to 256 bytes, little endian
- * 
- * Serial Settings: 115200 baud, 8 data bits, 1 stop bit, no parity
+ * Serial sender/receiver to communicate with an Arduino Uses a 2 byte header to specify device type
+ * Sends packets of up to 1024 bytes, little endian, protected by a {@link Crc16}
+ *
+ * <p>Serial Settings: 115200 baud, 8 data bits, 1 stop bit, no parity. A faster baud rate can be
+ * agreed with the device after opening, see {@link #negotiateBaudRate()}
+ *
+ * <p>Sending and receiving do not allocate once the port is running
+ *
+ * <p>Devices are either polled for each sample or, if they report {@link #CAPABILITY_STREAMING} in
+ * the capability handshake, asked to push frames continuously. Polling remains the fallback for
+ * devices without streaming support or whose stream stops
+ *
+ * <p>Received data is stamped with the FPGA time at which it arrived. A device may instead send the
+ * time it took a sample by wrapping the message in a frame or container record with header <code>
+ * 0x4681</code>, whose payload is the 4 byte <code>micros()</code> value, the 2 byte header of the
+ * message and its payload
+ *
+ * <p>Devices reporting {@link #CAPABILITY_CLOCK_SYNC} are pinged to estimate the offset and drift
+ * of their clock, so these timestamps are mapped onto the FPGA clock to well within a millisecond,
+ * see {@link #synchronizeClock()}
  */
 public class ArduinoSerial {
 
-	private final SerialPort serial;
-	private boolean isOpen;
-	private boolean closed;
-	private InputStream in;
-	private OutputStream out;
-
-	private static final long TIMEOUT = 5;
-	private static final long RESPONSE_TIMEOUT = 20;
-
-	private static final byte[] sync = new byte[] { 0x55, 0x55 };
-	private static final byte[] poll = new byte[] { (byte) 0x81, 0x42 };
-	
-	private final String name;
-
-	private static final Checksum recCs = new Checksum();
-	private static final Checksum sendCs = new Checksum();
-	private final ByteBuffer recBuffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
-	private final ByteBuffer sendBuffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
-	private int openCounter;
-	private ArduinoListener listener = null;
-
-	/**
-	 * Construcst a new ArduinoSerial on the given system COM port name
-	 * 
-	 * @param port System COM port name
-	 * Ex: ttyUSB0
-	 */
-	protected ArduinoSerial(String port) {
-		this.name = port;
-		serial = SerialPort.getCommPort(port);
-		serial.setComPortParameters(115200, 8, SerialPort.ONE_STOP_BIT, SerialPort.NO_PARITY);
-		open();
-	}
-
-	/**
-	 * Construcst a new ArduinoSerial on the given COM port
-	 * 
-	 * @param port System COM port name
-	 * Ex: ttyUSB0
-	 */
-	protected ArduinoSerial(SerialPort serial) {
-		this.serial = serial;
-		this.name = serial.getSystemPortName();
-		serial.setComPortParameters(115200, 8, SerialPort.ONE_STOP_BIT, SerialPort.NO_PARITY);
-		open();
-	}
-	
-	/**
-	 * Returns the COM port name in use
-	 * 
-	 * @return System COM port name
-	 */
-	public String getName() {
-		return name;
-	}
-
-	/**
-	 * Internal method to open the port
-	 */
-	private void open() {
-		isOpen = serial.openPort();
-		if (isOpen) {
-			in = serial.getInputStream();
-			out = serial.getOutputStream();
-		}
-	}
-
-	/**
-	 * Closes the serial port
-	 */
-	public void close() {
-		isOpen = false;
-		closed = true;
-		if (in != null) {
-			try {
-				in.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-		if (out != null) {
-			try {
-				out.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-		serial.closePort();
-	}
-
-	/**
-	 * Sends the given byte array of data to the device with the specified header
-	 * 
-	 * Does not wait for a response from the device
-	 * 
-	 * @param header Header to be sent
-	 * @param data Data to be sent
-	 * 
-	 * @return A read-only {@link java.nio.ByteBuffer} containing the received data
-	 */
-	public void sendData(short header, byte[] data) {
-		sendData(header, data, false);
-	}
-
-	/**
-	 * Sends the given byte array of data to the device with the specified header
-	 * 
-	 * <p>Blocks for a short period of time until the request times out if receiving data
-	 * 
-	 * @param header Header to be sent
-	 * @param data Data to be sent
-	 * @param receive Whether to wait for a response from the device
-	 * 
-	 * @return A read-only {@link java.nio.ByteBuffer} containing the received data, if available
-	 */
-	public ByteBuffer sendData(short header, byte[] data, boolean receive) {
-		if (closed)
-			return null;
-		if (!isOpen) {
-			open();
-			openCounter = 0;
-		}
-		if (isOpen) {
-			sendBuffer.position(0);
-			if (data != null) {
-				sendBuffer.limit(data.length);
-				sendBuffer.put(data);
-			} else
-				sendBuffer.limit(0);
-			sendData(new byte[] {(byte)(header & 0xff), (byte)((header >> 8) & 0xff)}, sendBuffer.limit());
-			if (receive) {
-				Pair<ArduinoListener, Integer> rec = receiveData(false);
-				if (rec.getValue() >= 0) {
-					return recBuffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
-				}
-			}
-		}
-		return null;
-	}
-
-	/**
-	 * Sends the polling message header to poll the connected device for data
-	 * 
-	 * If the port is not currently open, it will increment a counter up to 50 before attempting to open the port again and will return <code>false</code> for each ignored attempt to avoid unnecessary blocking
-	 * 
-	 * <p>Blocks for a short period of time until the request times out
-	 * 
-	 * @return <code>true</code> if the polling was successful
-	 */
-	public boolean poll() {
-		if (closed)
-			return false;
-		if (!isOpen) {
-			openCounter++;
-			if (openCounter >= 50) {
-				open();
-				openCounter = 0;
-			}
-		}
-		if (isOpen) {
-			sendData(poll, 0);
-			Pair<ArduinoListener, Integer> rec = receiveData(true);
-			if (rec != null && rec.getValue() >= 0) {
-				listener = rec.getKey();
-				listener.setLastReceived();
-				listener.savePortID(getName());
-				listener.receiveData(this, recBuffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN));
-				return true;
-			}
-		}
-		return false;
-	}
-
-	/**
-	 * Gets the {@link ArduinoListener} that has been found for this serial port, or <code>null</code> if unavailable
-	 * 
-	 * @return {@link ArduinoListener} for this port
-	 */
-	public ArduinoListener getListener() {
-		return listener;
-	}
-
-	/**
-	 * Internal method for receiving data into the receive {@link java.nio.ByteBuffer}
-	 * 
-	 * Message checksum and length are automatically validated to confirm that the packet was received successfully
-	 * 
-	 * <p>Blocks for a short period of time until the request times out
-	 * 
-	 * <p>Receives remaining sync bytes to ensure proper serial operation before reading the message
-	 * <p>Receives 2 byte header to identify a registered listener
-	 * <p>Receives message checksum
-	 * <p>Receives length of message to be received
-	 * <p>Receives message and stores in the receive {@link java.nio.ByteBuffer}
-	 * 
-	 * @param poll Whether to expect a response to a poll
-	 * 
-	 * @return A {@link Pair} containing the listener to be called and the number of bytes received or null if the packet was invalid
-	 */
-	private synchronized Pair<ArduinoListener, Integer> receiveData(boolean poll) {
-		if (findSync()) {
-			byte state = 0;
-			long start = System.currentTimeMillis();
-			int bytesRead = 0;
-			recCs.reset();
-			int expectedChecksum = 0;
-			int expectedLength = 0;
-			short currentHeader = 0;
-			ArduinoListener listener = null;
-			while (true) {
-				try {
-					if (in.available() > 0) {
-						byte b = (byte) in.read();
-						switch (state) {
-						case 0:
-							if (b == sync[0]) {
-								state++;
-								break;
-							}
-						case 1:
-							currentHeader = (short)(b & 0xff);
-							state++;
-							break;
-						case 2:
-							currentHeader |= (short)((b & 0xff) << 8);
-							state++;
-							if (poll) {
-								listener = ArduinoSerialReceiver.getListener(currentHeader);
-								if (listener == null)
-									return null;
-							}
-							break;
-						case 3:
-							expectedChecksum = b & 0xff;
-							state++;
-							break;
-						case 4:
-							expectedChecksum |= ((b << 8) & 0xff);
-							state++;
-							break;
-						case 5:
-							expectedLength = b & 0xff;
-							state++;
-							break;
-						case 6:
-							expectedLength |= ((b << 8) & 0xff);
-							state++;
-							bytesRead = 0;
-							if (expectedLength == 0) {
-								recBuffer.limit(0);
-								recBuffer.position(0);
-								return new Pair<ArduinoListener, Integer>(listener, 0);
-							}
-							break;
-						case 7:
-							recBuffer.array()[bytesRead] = b;
-							bytesRead++;
-							recCs.updateChecksum(b);
-							if (bytesRead >= expectedLength) {
-								if (recCs.getChecksum() == expectedChecksum) {
-									recBuffer.limit(expectedLength);
-									recBuffer.position(0);
-									return new Pair<ArduinoListener, Integer>(listener, expectedLength);
-								}
-								return null;
-							}
-						}
-					}
-				} catch (SerialPortTimeoutException e) {
-				} catch (SerialPortIOException e) {
-					isOpen = false;
-					return null;
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				if (TIMEOUT > 0 && System.currentTimeMillis() - start >= TIMEOUT)
-					return null;
-			}
-		}
-		return null;
-	}
-
-	/**
-	 * Internal method for finding the initial sync bytes to ensure proper serial operation before reading
-	 * 
-	 * <p>Blocks for a short period of time until the request times out
-	 * 
-	 * @return <code>true</code> if a sync byte was found
-	 */
-	private synchronized boolean findSync() {
-		long start = System.currentTimeMillis();
-		while (true) {
-			try {
-				int b = in.read();
-				if (b == sync[0]) {
-					return true;
-				}
-			} catch (SerialPortTimeoutException e) {
-			} catch (SerialPortIOException e) {
-				isOpen = false;
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			if (RESPONSE_TIMEOUT > 0 && System.currentTimeMillis() - start >= RESPONSE_TIMEOUT)
-				return false;
-		}
-	}
-
-	/**
-	 * Internal method for sending the current contents of the send {@link java.nio.ByteBuffer}
-	 * 
-	 * <p>Sends sync bytes to ensure proper serial operation before reading the message
-	 * <p>Sends 2 byte header to indicate message contents
-	 * <p>Sends message checksum
-	 * <p>Sends length of message to be sent
-	 * <p>Sends message stored in the send {@link java.nio.ByteBuffer}
-	 * 
-	 * @param msgType 2 byte header
-	 * @param length Number of bytes from buffer to send
-	 */
-	private synchronized void sendData(byte[] msgType, int length) {
-		try {
-			sendCs.reset();
-			byte[] sendArr = sendBuffer.array();
-			for (int i = 0; i < length; i++) {
-				sendCs.updateChecksum(sendArr[i]);
-			}
-			out.write(sync);
-			out.write(msgType);
-			out.write(sendCs.getArray());
-			out.write(new byte[] { (byte) (length & 0xff), (byte) ((length >> 8) & 0xff) });
-			out.write(sendBuffer.array(), 0, length);
-		} catch (SerialPortTimeoutException e) {
-		} catch (SerialPortIOException e) {
-			isOpen = false;
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-
-	/**
-	 * Returns whether or not the serial port is open
-	 * 
-	 * @return Serial port status
-	 */
-	public boolean isOpen() {
-		return closed ? false : isOpen;
-	}
-	
-	/**
-	 * Returns the COM port name in use
-	 * 
-	 * Equivalent to {@link #getName()}
-	 * 
-	 * @return System COM port name
-	 */
-	public String toString() {
-		return getName();
-	}
-	
-	/**
-	 * Pair holder class
-	 *
-	 * @param <K> Key
-	 * @param <V> Value
-	 */
-	public static class Pair<K, V> {
-		private final K key;
-		private final V value;
-		/**
-		 * Constructs a new pair with the given key and value
-		 * 
-		 * @param key Key
-		 * @param value Value
-		 */
-		public Pair(K key, V value) {
-			this.key = key;
-			this.value = value;
-		}
-		
-		/**
-		 * Returns the stored key
-		 * 
-		 * @return Key
-		 */
-		public K getKey() {
-			return this.key;
-		}
-		
-		/**
-		 * Returns the stored value
-		 * 
-		 * @return Value
-		 */
-		public V getValue() {
-			return this.value;
-		}
-	}
-
-	/**
-	 * Checksum holder class
-	 */
-	public static class Checksum {
-
-		int cs = 0;
-
-		/**
-		 * Adds byte to checksum
-		 * 
-		 * @param b Byte to be added
-		 */
-		public void updateChecksum(int b) {
-			cs += b;
-		}
-
-		/**
-		 * Returns calculated checksum
-		 * 
-		 * @return Calculated checksum
-		 */
-		public int getChecksum() {
-			return cs;
-		}
-
-		/**
-		 * Resets checksum
-		 */
-		public void reset() {
-			cs = 0;
-		}
-
-		public byte[] getArray() {
-			return new byte[] { (byte) (cs & 0xff), (byte) ((cs >> 8) & 0xff) };
-		}
-	}
+  private final SerialTransport serial;
+  private boolean isOpen;
+  private volatile boolean closed;
+
+  private static final long RESPONSE_TIMEOUT = 20;
+
+  private static final int FRAME_HEADER_LENGTH = ArduinoFrameDecoder.FRAME_HEADER_LENGTH;
+  private static final short POLL_HEADER = (short) 0x4281;
+  private static final short CAPABILITIES_HEADER = (short) 0x4381;
+  private static final short STREAM_HEADER = (short) 0x4481;
+  private static final short TIMESTAMP_HEADER = (short) 0x4681;
+  private static final short BAUD_HEADER = (short) 0x4781;
+  private static final short SYNC_HEADER = (short) 0x4881;
+
+  /** Baud rates proposed to the device, fastest first */
+  private static final int[] BAUD_RATES = new int[] {2000000, 1000000, 500000};
+  /** Time a device waits for confirmation at a new baud rate before returning to the default */
+  private static final long BAUD_CONFIRM_TIMEOUT = 100;
+
+  /** Capability flag reported by devices that can push frames without being polled */
+  public static final int CAPABILITY_STREAMING = 0x0001;
+  /** Capability flag reported by devices that answer clock synchronisation requests */
+  public static final int CAPABILITY_CLOCK_SYNC = 0x0002;
+
+  private static final long STREAM_TIMEOUT = 250;
+
+  private final String name;
+  private final UsbIdentity identity;
+
+  private final ArduinoFrameDecoder decoder = new ArduinoFrameDecoder();
+  private final FrameListener frameListener = this::receiveFrame;
+  private final ArduinoBatch batch = new ArduinoBatch();
+  private final FrameListener recordListener = this::receiveRecord;
+  private final DeviceClock deviceClock = new DeviceClock();
+  private final SerialLinkStats stats = new SerialLinkStats();
+  private volatile SerialCapture capture = null;
+  private long arrivalTime = 0;
+  private final ByteBuffer recBuffer =
+      ByteBuffer.allocate(ArduinoFrameDecoder.MAX_PAYLOAD).order(ByteOrder.LITTLE_ENDIAN);
+  private final ByteBuffer recView = recBuffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+  private final ByteBuffer sendBuffer =
+      ByteBuffer.allocate(FRAME_HEADER_LENGTH + ArduinoFrameDecoder.MAX_PAYLOAD)
+          .order(ByteOrder.LITTLE_ENDIAN);
+  private ArduinoListener listener = null;
+  private volatile long pollInterval = 0;
+  private boolean receivedData = false;
+  private boolean awaitingResponse = false;
+  private boolean matchResponseHeader = false;
+  private short responseHeader = 0;
+  private int capabilities = -1;
+  private volatile boolean streaming = false;
+  private volatile int streamPeriod = 0;
+  private volatile int baudRate = SerialTransport.DEFAULT_BAUD_RATE;
+  private boolean baudRateAgreed = false;
+  private long lastStreamFrame = 0;
+  private int dispatchedFrames = 0;
+
+  /**
+   * Construcst a new ArduinoSerial on the given system COM port name
+   *
+   * @param port System COM port name Ex: ttyUSB0
+   */
+  protected ArduinoSerial(String port) {
+    this(SerialPort.getCommPort(port));
+  }
+
+  /**
+   * Construcst a new ArduinoSerial on the given COM port
+   *
+   * @param serial COM port
+   */
+  protected ArduinoSerial(SerialPort serial) {
+    this(new JSerialCommTransport(serial));
+  }
+
+  /**
+   * Construcst a new ArduinoSerial on the given transport
+   *
+   * @param serial Transport connected to the device
+   */
+  protected ArduinoSerial(SerialTransport serial) {
+    this.serial = serial;
+    this.name = serial.getName();
+    this.identity = serial.getIdentity();
+    open();
+  }
+
+  /**
+   * Returns the COM port name in use
+   *
+   * @return System COM port name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /** Internal method to open the port */
+  private void open() {
+    isOpen = serial.open();
+    // Opening the port resets the Arduino, which starts again at the default rate
+    if (baudRate != SerialTransport.DEFAULT_BAUD_RATE) {
+      serial.setBaudRate(SerialTransport.DEFAULT_BAUD_RATE);
+      baudRate = SerialTransport.DEFAULT_BAUD_RATE;
+    }
+    baudRateAgreed = false;
+    decoder.reset();
+    deviceClock.reset();
+    capabilities = -1;
+    streaming = false;
+  }
+
+  /** Closes the serial port, asking the device to stop streaming first */
+  public void close() {
+    if (streaming && isOpen) {
+      synchronized (this) {
+        sendStreamPeriod(0);
+      }
+    }
+    streaming = false;
+    isOpen = false;
+    closed = true;
+    serial.close();
+    SerialCapture capture = this.capture;
+    if (capture != null) {
+      capture.close();
+    }
+  }
+
+  /**
+   * Sends the given byte array of data to the device with the specified header
+   *
+   * <p>Does not wait for a response from the device
+   *
+   * @param header Header to be sent
+   * @param data Data to be sent
+   */
+  public void sendData(short header, byte[] data) {
+    sendData(header, data, false);
+  }
+
+  /**
+   * Sends the given byte array of data to the device with the specified header
+   *
+   * <p>Blocks for a short period of time until the request times out if receiving data
+   *
+   * @param header Header to be sent
+   * @param data Data to be sent
+   * @param receive Whether to wait for a response from the device
+   * @return A read-only {@link java.nio.ByteBuffer} containing the received data, if available. The
+   *     buffer is reused and only valid until the next call
+   */
+  public synchronized ByteBuffer sendData(short header, byte[] data, boolean receive) {
+    if (closed) return null;
+    if (!isOpen) {
+      open();
+      stats.recordReopen();
+    }
+    if (isOpen) {
+      int length = 0;
+      if (data != null) {
+        length = data.length;
+        System.arraycopy(data, 0, sendBuffer.array(), FRAME_HEADER_LENGTH, length);
+      }
+      sendFrame(header, length);
+      if (receive) {
+        // While streaming, frames pushed by the device must not be taken as the response
+        return awaitResponse(header, streaming);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Internal method for waiting for the response to the frame just sent
+   *
+   * @param header Header of the frame just sent
+   * @param matchHeader Whether the response must carry the same header
+   * @return The receive {@link java.nio.ByteBuffer} if a response arrived, or <code>null</code>
+   */
+  private synchronized ByteBuffer awaitResponse(short header, boolean matchHeader) {
+    awaitingResponse = true;
+    matchResponseHeader = matchHeader;
+    responseHeader = header;
+    receiveData();
+    if (!awaitingResponse) {
+      recView.limit(recBuffer.limit());
+      recView.position(0);
+      return recView;
+    }
+    awaitingResponse = false;
+    stats.recordTimeout();
+    return null;
+  }
+
+  /**
+   * Performs the capability handshake and, if the device supports it, asks it to push frames every
+   * period instead of waiting to be polled
+   *
+   * <p>Devices that answer polls but not the handshake run older firmware and are not asked again
+   * until the port is reopened. Devices that answer neither may still be booting, so the handshake
+   * can be retried later
+   *
+   * <p>Blocks for a short period of time until the request times out
+   *
+   * @param period Time between frames pushed by the device in milliseconds
+   * @return <code>true</code> if the device is now streaming
+   */
+  public synchronized boolean startStreaming(int period) {
+    if (closed || !isOpen) return false;
+    requestCapabilities();
+    if (capabilities < 0 || (capabilities & CAPABILITY_STREAMING) == 0) return false;
+    sendStreamPeriod(period);
+    lastStreamFrame = System.currentTimeMillis();
+    streaming = isOpen;
+    return streaming;
+  }
+
+  /**
+   * Agrees the fastest baud rate both the port and the device support
+   *
+   * <p>The host proposes a rate with a frame with header <code>0x4781</code> whose payload is the 4
+   * byte rate. The device answers with the same header and the rate it switches to, the proposed
+   * rate or 0 to refuse. Once both have switched, the host proposes the rate again at the new rate
+   * and the device answers to confirm. A device that receives no confirmation within 100ms
+   * returns to 115200, so a rate the link can not carry falls back by itself
+   *
+   * <p>A rate faster than 115200 that was confirmed is saved for the device in {@link
+   * COMPortsStorage}, and later connections propose it straight away instead of trying every faster
+   * rate first. Falling back to 115200 is not saved, so a device that refused every rate, such as
+   * one still booting or running firmware that is later updated, negotiates again next time.
+   * Devices that answer polls but not the proposal run older firmware and stay at 115200. Devices
+   * that answer neither may still be booting, so the negotiation can be retried later. Reopening
+   * the port starts again at 115200
+   *
+   * <p>Blocks for a short period of time for each rate proposed
+   *
+   * @return <code>true</code> if a rate has been agreed, even if it is the default rate
+   */
+  public synchronized boolean negotiateBaudRate() {
+    if (closed || !isOpen) return false;
+    if (baudRateAgreed) return true;
+    int maxBaudRate = serial.getMaxBaudRate();
+    String device = identity != null ? identity.toString() : name;
+    int saved = COMPortsStorage.getBaudRate(device);
+    if (maxBaudRate <= SerialTransport.DEFAULT_BAUD_RATE) {
+      baudRateAgreed = true;
+      return true;
+    }
+    int result = -1;
+    if (saved > SerialTransport.DEFAULT_BAUD_RATE && saved <= maxBaudRate) {
+      result = proposeBaudRate(saved);
+    }
+    for (int i = 0; i < BAUD_RATES.length && result <= 0; i++) {
+      if (BAUD_RATES[i] == saved || BAUD_RATES[i] > maxBaudRate) continue;
+      int answer = proposeBaudRate(BAUD_RATES[i]);
+      if (answer < 0 && result < 0) break;
+      result = Math.max(result, answer);
+    }
+    if (result < 0) {
+      baudRateAgreed = receivedData;
+      return baudRateAgreed;
+    }
+    baudRateAgreed = true;
+    if (baudRate > SerialTransport.DEFAULT_BAUD_RATE) {
+      COMPortsStorage.saveBaudRate(device, baudRate);
+    }
+    return true;
+  }
+
+  /**
+   * Internal method to propose a baud rate and switch to it if the device confirms it
+   *
+   * @param rate Proposed baud rate
+   * @return The rate if both sides switched, <code>0</code> if the device refused or could not
+   *     confirm the rate, or <code>-1</code> if the device did not answer
+   */
+  private int proposeBaudRate(int rate) {
+    sendBaudRate(rate);
+    ByteBuffer response = awaitResponse(BAUD_HEADER, true);
+    if (response == null || response.remaining() < 4) return -1;
+    if (response.getInt() != rate) return 0;
+    if (serial.setBaudRate(rate)) {
+      decoder.reset();
+      sendBaudRate(rate);
+      response = awaitResponse(BAUD_HEADER, true);
+      if (response != null && response.remaining() >= 4 && response.getInt() == rate) {
+        baudRate = rate;
+        return rate;
+      }
+      serial.setBaudRate(SerialTransport.DEFAULT_BAUD_RATE);
+      decoder.reset();
+    }
+    // Wait for the device to give up on the rate and return to the default
+    try {
+      Thread.sleep(BAUD_CONFIRM_TIMEOUT);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return 0;
+  }
+
+  /**
+   * Internal method to send a baud rate proposal
+   *
+   * @param rate Baud rate
+   */
+  private void sendBaudRate(int rate) {
+    sendBuffer.putInt(FRAME_HEADER_LENGTH, rate);
+    sendFrame(BAUD_HEADER, 4);
+  }
+
+  /**
+   * Returns the baud rate the port runs at
+   *
+   * @return Baud rate
+   */
+  public int getBaudRate() {
+    return baudRate;
+  }
+
+  /**
+   * Internal method to perform the capability handshake unless its result is already known
+   *
+   * <p>Blocks for a short period of time until the request times out
+   */
+  private void requestCapabilities() {
+    if (capabilities >= 0) return;
+    sendFrame(CAPABILITIES_HEADER, 0);
+    ByteBuffer response = awaitResponse(CAPABILITIES_HEADER, true);
+    if (response != null && response.remaining() >= 2) {
+      capabilities = response.getShort() & 0xffff;
+    } else if (receivedData) {
+      capabilities = 0;
+    }
+  }
+
+  /**
+   * Performs one clock synchronisation exchange, if the device supports it
+   *
+   * <p>The host sends a frame with header <code>0x4881</code> whose payload is its 8 byte FPGA
+   * time. The device answers with the same header, echoing those 8 bytes followed by the 4 byte
+   * <code>micros()</code> values at which it received the request and sent the answer. The exchange
+   * is added to the device's {@link DeviceClock}. Should be called periodically, about once per
+   * second, so the drift between the clocks is tracked
+   *
+   * <p>Blocks for a short period of time until the request times out
+   *
+   * @return <code>true</code> if the device answered
+   */
+  public synchronized boolean synchronizeClock() {
+    if (closed || !isOpen) return false;
+    requestCapabilities();
+    if (capabilities < 0 || (capabilities & CAPABILITY_CLOCK_SYNC) == 0) return false;
+    long hostSend = ArduinoSerialReceiver.getTime();
+    sendBuffer.putLong(FRAME_HEADER_LENGTH, hostSend);
+    sendFrame(SYNC_HEADER, 8);
+    ByteBuffer response = awaitResponse(SYNC_HEADER, true);
+    if (response == null || response.remaining() < 16 || response.getLong() != hostSend) {
+      return false;
+    }
+    long deviceReceive = response.getInt() & 0xffffffffL;
+    long deviceSend = response.getInt() & 0xffffffffL;
+    deviceClock.addSync(hostSend, deviceReceive, deviceSend, arrivalTime);
+    return true;
+  }
+
+  /**
+   * Returns whether the capability handshake found that the device supports clock synchronisation
+   *
+   * @return <code>true</code> if {@link #synchronizeClock()} can be answered
+   */
+  public synchronized boolean isClockSyncSupported() {
+    return capabilities >= 0 && (capabilities & CAPABILITY_CLOCK_SYNC) != 0;
+  }
+
+  /**
+   * Returns whether the device clock has been synchronised since the port was opened
+   *
+   * @return <code>true</code> if device timestamps are mapped using clock synchronisation
+   */
+  public synchronized boolean isClockSynced() {
+    return deviceClock.isSynced();
+  }
+
+  /**
+   * Returns the shortest round trip time of the recent clock synchronisation exchanges, half of
+   * which bounds the error of the clock offset
+   *
+   * @return Round trip time in microseconds, or <code>0</code> if not synchronised
+   */
+  public synchronized long getClockDelay() {
+    return deviceClock.getDelay();
+  }
+
+  /**
+   * Returns whether the device is pushing frames without being polled
+   *
+   * @return <code>true</code> if streaming
+   */
+  public boolean isStreaming() {
+    return streaming && !closed;
+  }
+
+  /**
+   * Reads the frames pushed by a streaming device and passes them to their listeners
+   *
+   * <p>If no frames arrive for a while, streaming is abandoned so that the caller falls back to
+   * polling
+   *
+   * <p>Blocks for at most the read timeout of the port
+   *
+   * @return <code>true</code> if any frames were received
+   */
+  public boolean receive() {
+    if (!isStreaming()) return false;
+    long now = System.currentTimeMillis();
+    if (receiveAvailable() > 0) {
+      lastStreamFrame = now;
+      return true;
+    }
+    if (now - lastStreamFrame > STREAM_TIMEOUT) {
+      streaming = false;
+    }
+    return false;
+  }
+
+  /**
+   * Sends the polling message header to poll the connected device for data
+   *
+   * <p>If the port is not currently open, it is opened again first. Callers polling repeatedly
+   * should back off while polls fail, as {@link ArduinoSerialReceiver} does
+   *
+   * <p>Blocks for a short period of time until the request times out
+   *
+   * @return <code>true</code> if the polling was successful
+   */
+  public boolean poll() {
+    if (closed) return false;
+    if (!isOpen) {
+      open();
+      stats.recordReopen();
+    }
+    if (isOpen) {
+      long start = System.nanoTime();
+      sendFrame(POLL_HEADER, 0);
+      if (receiveData() > 0) {
+        stats.recordPollTime((System.nanoTime() - start) / 1000);
+        return true;
+      }
+      stats.recordTimeout();
+    }
+    return false;
+  }
+
+  /**
+   * Internal method to associate a listener with this port, so that the port is polled as often as
+   * the listener needs
+   *
+   * @param listener Listener receiving data from this port
+   */
+  void bind(ArduinoListener listener) {
+    this.listener = listener;
+    long interval = listener.getPollInterval();
+    if (pollInterval == 0 || interval < pollInterval) {
+      pollInterval = interval;
+    }
+  }
+
+  /**
+   * Returns the stable identity of the USB adapter behind this port
+   *
+   * @return Identity, or <code>null</code> if unknown
+   */
+  public UsbIdentity getIdentity() {
+    return identity;
+  }
+
+  /**
+   * Returns how often the listeners that have received data from this port need it polled
+   *
+   * @return Shortest poll interval of the listeners in milliseconds, or <code>0</code> if no
+   *     listener has received data or been bound yet
+   * @see ArduinoListener#getPriority()
+   */
+  public long getPollInterval() {
+    return pollInterval;
+  }
+
+  /**
+   * Returns the health counters and latency histograms of this port
+   *
+   * @return Link statistics
+   */
+  public SerialLinkStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Records every byte received from now on, with its arrival time, in the given capture
+   *
+   * <p>The capture is closed when the port is closed
+   *
+   * @param capture Capture to record in, or <code>null</code> to stop recording
+   */
+  public synchronized void setCapture(SerialCapture capture) {
+    this.capture = capture;
+  }
+
+  /**
+   * Internal method to tell the device how often to push frames
+   *
+   * @param period Time between frames in milliseconds, or 0 to stop streaming
+   */
+  private void sendStreamPeriod(int period) {
+    sendBuffer.putShort(FRAME_HEADER_LENGTH, (short) period);
+    sendFrame(STREAM_HEADER, 2);
+    streamPeriod = period;
+  }
+
+  /**
+   * Returns the period the device was last asked to push frames at
+   *
+   * @return Period in milliseconds, or <code>0</code> if not streaming
+   */
+  public int getStreamPeriod() {
+    return streaming ? streamPeriod : 0;
+  }
+
+  /**
+   * Gets the {@link ArduinoListener} that most recently received data from this serial port, or
+   * <code>null</code> if unavailable
+   *
+   * @return {@link ArduinoListener} for this port
+   */
+  public ArduinoListener getListener() {
+    return listener;
+  }
+
+  /**
+   * Internal method for receiving data from the device
+   *
+   * <p>Reads all available bytes into the {@link ArduinoFrameDecoder} until at least one frame has
+   * been decoded, or the awaited response has arrived, or the request times out. Each decoded frame
+   * is passed to {@link #receiveFrame(short, ByteBuffer)}
+   *
+   * <p>Blocks for a short period of time until the request times out
+   *
+   * @return The number of frames passed to listeners
+   */
+  private synchronized int receiveData() {
+    long start = System.currentTimeMillis();
+    dispatchedFrames = 0;
+    while (!closed) {
+      int bytesRead = decoder.read(serial);
+      if (bytesRead < 0) {
+        isOpen = false;
+        streaming = false;
+        break;
+      }
+      if (bytesRead > 0) {
+        arrivalTime = ArduinoSerialReceiver.getTime();
+        stats.recordBytes(bytesRead);
+        if (capture != null) decoder.captureLastRead(capture, arrivalTime);
+        int frames = decoder.decode(frameListener);
+        stats.setRejectedFrames(decoder.getRejectedFrames());
+        if (frames > 0 && !awaitingResponse) break;
+      }
+      if (System.currentTimeMillis() - start >= RESPONSE_TIMEOUT) {
+        break;
+      }
+    }
+    return dispatchedFrames;
+  }
+
+  /**
+   * Internal method for receiving the frames a streaming device has pushed
+   *
+   * <p>Performs a single read and passes every complete frame to {@link #receiveFrame(short,
+   * ByteBuffer)}
+   *
+   * @return The number of frames passed to listeners
+   */
+  private synchronized int receiveAvailable() {
+    dispatchedFrames = 0;
+    int bytesRead = decoder.read(serial);
+    if (bytesRead < 0) {
+      isOpen = false;
+      streaming = false;
+    } else if (bytesRead > 0) {
+      arrivalTime = ArduinoSerialReceiver.getTime();
+      stats.recordBytes(bytesRead);
+      if (capture != null) decoder.captureLastRead(capture, arrivalTime);
+      decoder.decode(frameListener);
+      stats.setRejectedFrames(decoder.getRejectedFrames());
+    }
+    return dispatchedFrames;
+  }
+
+  /**
+   * Internal method called for each frame decoded from the device
+   *
+   * <p>Container frames are split and each record is passed to {@link #receiveRecord(short,
+   * ByteBuffer)}. If waiting for a response to {@link #sendData(short, byte[], boolean)}, the
+   * payload of any other frame is copied into the receive {@link java.nio.ByteBuffer}. Otherwise it
+   * is handled like a record
+   *
+   * @param header Received header
+   * @param payload Read-only {@link java.nio.ByteBuffer} containing the received data
+   */
+  private void receiveFrame(short header, ByteBuffer payload) {
+    if (header == ArduinoBatch.HEADER) {
+      batch.split(payload, recordListener);
+      return;
+    }
+    if (awaitingResponse && (!matchResponseHeader || header == responseHeader)) {
+      awaitingResponse = false;
+      recBuffer.clear();
+      recBuffer.put(payload);
+      recBuffer.flip();
+      return;
+    }
+    receiveRecord(header, payload);
+  }
+
+  /**
+   * Internal method called for each message received from the device
+   *
+   * <p>Unwraps timestamped messages and passes the message to its listeners
+   *
+   * @param header Received header
+   * @param payload Read-only {@link java.nio.ByteBuffer} containing the received data
+   */
+  private void receiveRecord(short header, ByteBuffer payload) {
+    if (header != TIMESTAMP_HEADER) {
+      dispatch(header, payload, arrivalTime);
+    } else if (payload.remaining() >= 6) {
+      long deviceMicros = payload.getInt() & 0xffffffffL;
+      short innerHeader = payload.getShort();
+      dispatch(innerHeader, payload, deviceClock.toHostTime(deviceMicros, arrivalTime));
+    }
+  }
+
+  /**
+   * Internal method to queue data for every listener registered for its header
+   *
+   * <p>The payload is copied into each listener's queue, and the listeners are called later by the
+   * dispatch thread, see {@link ArduinoSerialReceiver#dispatchPending()}, so a slow listener does
+   * not delay reading the port
+   *
+   * @param header Received header
+   * @param payload Read-only {@link java.nio.ByteBuffer} containing the received data
+   * @param timestamp FPGA time in microseconds at which the data was measured
+   */
+  private void dispatch(short header, ByteBuffer payload, long timestamp) {
+    ArduinoListener[] listeners = ArduinoSerialReceiver.getListeners(header);
+    if (listeners == null) return;
+    for (ArduinoListener listener : listeners) {
+      if (!listener.queue.offer(this, payload, timestamp)) {
+        stats.recordDroppedFrame();
+      }
+      bind(listener);
+    }
+    receivedData = true;
+    dispatchedFrames++;
+    stats.recordFrame();
+    ArduinoSerialReceiver.wakeDispatcher();
+  }
+
+  /**
+   * Internal method for sending a frame with the payload stored in the send {@link
+   * java.nio.ByteBuffer}
+   *
+   * <p>The frame is assembled in front of the payload and written with a single call:
+   *
+   * <p>Sync bytes to ensure proper serial operation before reading the message
+   *
+   * <p>2 byte header to indicate message contents
+   *
+   * <p>CRC of the header, length and message
+   *
+   * <p>Length of message to be sent
+   *
+   * <p>Message
+   *
+   * @param header 2 byte header
+   * @param length Number of payload bytes stored after the frame header
+   */
+  private synchronized void sendFrame(short header, int length) {
+    byte[] sendArr = sendBuffer.array();
+    sendBuffer.clear();
+    sendBuffer.put(ArduinoFrameDecoder.SYNC);
+    sendBuffer.put(ArduinoFrameDecoder.SYNC);
+    sendBuffer.putShort(header);
+    sendBuffer.putShort(6, (short) length);
+    int crc = Crc16.update(Crc16.INITIAL, sendArr, 2, 2);
+    crc = Crc16.update(crc, sendArr, 6, 2 + length);
+    sendBuffer.putShort(4, (short) crc);
+    if (serial.writeBytes(sendArr, 0, FRAME_HEADER_LENGTH + length) < 0) {
+      isOpen = false;
+    }
+  }
+
+  /**
+   * Returns whether or not the serial port is open
+   *
+   * @return Serial port status
+   */
+  public boolean isOpen() {
+    return closed ? false : isOpen;
+  }
+
+  /**
+   * Returns the COM port name in use
+   *
+   * <p>Equivalent to {@link #getName()}
+   *
+   * @return System COM port name
+   */
+  public String toString() {
+    return getName();
+  }
 }
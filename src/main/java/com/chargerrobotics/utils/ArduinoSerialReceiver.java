@@ -1,27 +1,83 @@
 package com.chargerrobotics.utils;
 
 import com.fazecast.jSerialComm.SerialPort;
+import com.google.common.annotations.VisibleForTesting;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj.RobotController;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 /** Controller to handle all {@link ArduinoSerial} objects and listeners */
 public class ArduinoSerialReceiver {
 
   private static final long POLL_INTERVAL = 40;
+  private static final long MIN_POLL_INTERVAL = 5;
+  private static final long MAX_POLL_INTERVAL = 500;
+  private static final long MAX_BACKOFF = 2000;
+  private static final int MAX_BACKOFF_SHIFT = 8;
+  private static final int STREAM_PERIOD = 10;
+  private static final int DISABLED_RATE_DIVISOR = 4;
+  private static final long HANDSHAKE_RETRY = 1000;
+  private static final long CLOCK_SYNC_INTERVAL = 1000;
+  private static final long INIT_DEADLINE = 2000;
+  private static final long INIT_STRAGGLER_WAIT = 5000;
+  private static final long STATS_INTERVAL = 1000;
 
-  private static final ConcurrentHashMap<Short, ArduinoListener> responseHeaders =
-      new ConcurrentHashMap<Short, ArduinoListener>();
-  private static final List<ArduinoSerial> serialPorts =
-      Collections.synchronizedList(new ArrayList<ArduinoSerial>());
+  /** Provides the transports for the devices that should be polled */
+  public interface PortScanner {
+    public List<SerialTransport> getPorts();
+  }
+
+  /** Provides the monotonic time that received data is stamped with */
+  public interface TimeSource {
+    /**
+     * Returns the current time
+     *
+     * @return Time in microseconds
+     */
+    public long getTime();
+  }
+
+  private static volatile TimeSource timeSource = RobotController::getFPGATime;
+
+  private static final ArduinoListener[] NO_LISTENERS = new ArduinoListener[0];
+
+  /**
+   * Listeners indexed by the unsigned value of their header. Each slot is replaced, never modified,
+   * when a listener is registered
+   */
+  private static final AtomicReferenceArray<ArduinoListener[]> listenerTable =
+      new AtomicReferenceArray<ArduinoListener[]>(1 << 16);
+  /** Every registered listener, replaced, never modified, when a listener is registered */
+  private static volatile ArduinoListener[] registeredListeners = NO_LISTENERS;
+  private static final List<ArduinoSerial> serialPorts = new CopyOnWriteArrayList<ArduinoSerial>();
+  private static final List<PortPoller> pollers = new CopyOnWriteArrayList<PortPoller>();
+  /** Thread initialising each port, by port name, removed once the port is closed again */
+  private static final Map<String, Thread> initThreads = new ConcurrentHashMap<String, Thread>();
+  private static final Map<String, Long> initTimes = new ConcurrentHashMap<String, Long>();
+  /** Port being initialised by the current thread, the only port its listeners can find */
+  private static final ThreadLocal<ArduinoSerial> initializingPort =
+      new ThreadLocal<ArduinoSerial>();
 
+  private static final Object lifecycleLock = new Object();
   private static Thread startThread = null;
-  private static Timer pollTimer = new Timer();
-  private static volatile PollTask pollTask = null;
+  private static StatsPublisher statsPublisher = null;
+  private static volatile Dispatcher dispatcher = null;
+  private static volatile boolean captureEnabled = false;
+  private static volatile boolean enabled = true;
 
   /**
    * Looks for all available USB to serial COM ports and runs the provided initialization commands
@@ -29,47 +85,317 @@ public class ArduinoSerialReceiver {
    *
    * <p>Useful for resetting Arduinos
    *
+   * <p>Returns once every port is done or after 2 seconds, whichever comes first, see {@link
+   * #initialization(PortScanner, Runnable, long)}
+   *
    * @param initCommands Commands to run at initialization
    */
   public static void initialization(Runnable initCommands) {
-    synchronized (serialPorts) {
-      SerialPort[] availablePorts = SerialPort.getCommPorts();
-      if (availablePorts == null) {
-        return;
-      }
-      for (SerialPort availablePort : availablePorts) {
-        if (availablePort.toString().contains("USB-to-Serial")) {
-          serialPorts.add(new ArduinoSerial(availablePort));
-        }
+    initialization(ArduinoSerialReceiver::scanPorts, initCommands, INIT_DEADLINE);
+  }
+
+  /**
+   * Opens the ports provided by the given scanner and runs the provided initialization commands on
+   * each before closing it
+   *
+   * <p>Each port is opened by its own thread, so a hung adapter does not delay the others. The
+   * commands run once per port on that thread, and while they run {@link
+   * ArduinoListener#getSerialPort()} only finds the port being initialised, so each listener's
+   * command reaches its own device once. The commands must therefore be safe to run concurrently
+   *
+   * <p>Waits until every port is done or the deadline passes. Ports still opening at the deadline
+   * finish in the background, and {@link #start()} only opens those ports once they have been
+   * closed again. The time each port took is printed and kept, see {@link
+   * #getInitializationTimes()}
+   *
+   * @param scanner Provider of the ports to initialise
+   * @param initCommands Commands to run at initialization
+   * @param deadline Time in milliseconds to wait for the ports
+   */
+  @VisibleForTesting
+  public static void initialization(PortScanner scanner, Runnable initCommands, long deadline) {
+    long start = System.currentTimeMillis();
+    List<SerialTransport> transports = scanner.getPorts();
+    CountDownLatch done = new CountDownLatch(transports.size());
+    for (SerialTransport transport : transports) {
+      Thread thread =
+          new Thread(
+              () -> {
+                try {
+                  initializePort(transport, initCommands, start);
+                } finally {
+                  initThreads.remove(transport.getName(), Thread.currentThread());
+                  done.countDown();
+                }
+              },
+              "ArduinoSerial init " + transport.getName());
+      thread.setDaemon(true);
+      initThreads.put(transport.getName(), thread);
+      thread.start();
+    }
+    try {
+      if (!done.await(deadline, TimeUnit.MILLISECONDS)) {
+        System.err.println(
+            done.getCount() + " serial ports still initialising after " + deadline + "ms");
       }
-      initCommands.run();
-      serialPorts.removeIf(
-          serial -> {
-            serial.close();
-            return true;
-          });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Internal method to open a port, run the initialization commands on it and close it again
+   *
+   * @param transport Port to initialise
+   * @param initCommands Commands to run at initialization
+   * @param start Time in milliseconds at which initialization started
+   */
+  private static void initializePort(SerialTransport transport, Runnable initCommands, long start) {
+    ArduinoSerial serial = new ArduinoSerial(transport);
+    long opened = System.currentTimeMillis();
+    if (serial.isOpen()) {
+      initializingPort.set(serial);
+      try {
+        initCommands.run();
+      } catch (RuntimeException e) {
+        System.err.println("Initialization of " + serial.getName() + " failed");
+        e.printStackTrace();
+      } finally {
+        initializingPort.remove();
+      }
+    } else {
+      System.err.println("Could not open " + serial.getName() + " for initialization");
+    }
+    serial.close();
+    long finished = System.currentTimeMillis();
+    initTimes.put(serial.getName(), finished - start);
+    System.out.println(
+        "Initialised "
+            + serial.getName()
+            + " in "
+            + (finished - start)
+            + "ms, opening took "
+            + (opened - start)
+            + "ms");
+  }
+
+  /**
+   * Returns the time each port took to initialise, from the start of initialization until it was
+   * closed again. Ports still initialising are absent
+   *
+   * @return Time in milliseconds by port name
+   */
+  public static Map<String, Long> getInitializationTimes() {
+    return new HashMap<String, Long>(initTimes);
+  }
+
+  /**
+   * Internal method to wait a limited time for the ports still initialising, so that most are
+   * closed before polling starts
+   *
+   * @param wait Time in milliseconds to wait
+   * @throws InterruptedException If interrupted while waiting
+   */
+  private static void awaitInitialization(long wait) throws InterruptedException {
+    long end = System.currentTimeMillis() + wait;
+    for (Thread thread : initThreads.values()) {
+      long remaining = end - System.currentTimeMillis();
+      if (remaining <= 0) return;
+      thread.join(remaining);
     }
   }
 
-  /** Looks for all available USB to serial COM ports and begins polling them for data */
+  /**
+   * Looks for all available USB to serial COM ports and begins polling them for data
+   *
+   * <p>The health of each port is published to the <code>ArduinoSerial</code> network table once
+   * per second, see {@link ArduinoSerial#getStats()}
+   */
   public static void start() {
-    startThread =
-        new Thread(
-            () -> {
-              if (pollTask != null) {
-                pollTask.stop();
-              }
-              pollTask = new PollTask();
-              synchronized (serialPorts) {
-                for (SerialPort availablePort : SerialPort.getCommPorts()) {
-                  if (availablePort.toString().contains("USB-to-Serial")) {
-                    serialPorts.add(new ArduinoSerial(availablePort));
+    synchronized (lifecycleLock) {
+      start(ArduinoSerialReceiver::scanPorts);
+      statsPublisher =
+          new StatsPublisher(
+              NetworkTableInstance.getDefault().getTable("ArduinoSerial"), STATS_INTERVAL);
+      statsPublisher.start();
+    }
+  }
+
+  /**
+   * Begins polling the ports provided by the given scanner for data
+   *
+   * <p>Each port is polled by its own thread so that a slow or unresponsive device does not delay
+   * the others
+   *
+   * <p>Ports whose USB identity was saved by a registered listener are opened first and bound to
+   * their listeners straight away, so they are polled at the rate those listeners need and {@link
+   * ArduinoListener#getSerialPort()} finds them before the first message. Only the remaining ports
+   * are probed. Ports still being initialised, see {@link #initialization(Runnable)}, are waited
+   * for first, for up to 5 seconds. A port whose initialization takes longer is still open on its
+   * initialization thread, so it is only opened for polling once that thread has closed it, after
+   * every other port
+   *
+   * <p>Received data is passed to the listeners by a separate dispatch thread, see {@link
+   * #dispatchPending()}
+   *
+   * @param scanner Provider of the ports to poll
+   */
+  @VisibleForTesting
+  public static void start(PortScanner scanner) {
+    start(scanner, INIT_STRAGGLER_WAIT);
+  }
+
+  /**
+   * Begins polling the ports provided by the given scanner for data, see {@link
+   * #start(PortScanner)}
+   *
+   * @param scanner Provider of the ports to poll
+   * @param initWait Time in milliseconds to wait for ports still being initialised
+   */
+  @VisibleForTesting
+  public static void start(PortScanner scanner, long initWait) {
+    synchronized (lifecycleLock) {
+      close();
+      dispatcher = new Dispatcher();
+      dispatcher.start();
+      startThread =
+          new Thread(
+              () -> {
+                try {
+                  awaitInitialization(initWait);
+                } catch (InterruptedException e) {
+                  return;
+                }
+                List<SerialTransport> known = new ArrayList<SerialTransport>();
+                List<SerialTransport> unknown = new ArrayList<SerialTransport>();
+                List<SerialTransport> initializing = new ArrayList<SerialTransport>();
+                for (SerialTransport transport : scanner.getPorts()) {
+                  if (initThreads.containsKey(transport.getName())) {
+                    initializing.add(transport);
+                  } else if (isKnown(transport.getIdentity())) {
+                    known.add(transport);
+                  } else {
+                    unknown.add(transport);
                   }
                 }
-              }
-              pollTimer.scheduleAtFixedRate(pollTask, 0, POLL_INTERVAL);
-            });
-    startThread.start();
+                known.addAll(unknown);
+                for (SerialTransport transport : known) {
+                  if (!startPolling(transport)) return;
+                }
+                for (SerialTransport transport : initializing) {
+                  Thread initThread = initThreads.get(transport.getName());
+                  try {
+                    if (initThread != null) initThread.join();
+                  } catch (InterruptedException e) {
+                    return;
+                  }
+                  if (!startPolling(transport)) return;
+                }
+              },
+              "ArduinoSerialReceiver start");
+      startThread.start();
+    }
+  }
+
+  /**
+   * Internal method to open a port and start polling it, called by the start thread
+   *
+   * @param transport Port to poll
+   * @return <code>false</code> if the receiver was closed meanwhile and the port was closed again
+   */
+  private static boolean startPolling(SerialTransport transport) {
+    ArduinoSerial serial = new ArduinoSerial(transport);
+    synchronized (lifecycleLock) {
+      if (Thread.currentThread().isInterrupted()) {
+        serial.close();
+        return false;
+      }
+      if (captureEnabled) {
+        startCapture(serial);
+      }
+      bindListeners(serial);
+      serialPorts.add(serial);
+      PortPoller poller = new PortPoller(serial, POLL_INTERVAL);
+      pollers.add(poller);
+      poller.start();
+    }
+    return true;
+  }
+
+  /**
+   * Internal method to check whether a registered listener has saved the given device identity
+   *
+   * @param identity Identity of a port, may be <code>null</code>
+   * @return <code>true</code> if a listener last received from the device
+   */
+  private static boolean isKnown(UsbIdentity identity) {
+    if (identity == null) return false;
+    for (ArduinoListener listener : registeredListeners) {
+      if (identity.matches(listener.getSavedIdentity())) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Internal method to bind the listeners that saved the identity of a port to it
+   *
+   * @param serial Newly opened port
+   */
+  private static void bindListeners(ArduinoSerial serial) {
+    UsbIdentity identity = serial.getIdentity();
+    if (identity == null) return;
+    for (ArduinoListener listener : registeredListeners) {
+      if (identity.matches(listener.getSavedIdentity())) {
+        listener.savePort(serial);
+        serial.bind(listener);
+      }
+    }
+  }
+
+  /**
+   * Sets whether the bytes received from each port are recorded in a {@link SerialCapture} under
+   * {@link com.chargerrobotics.Constants#dataStoragePath}, so that they can be replayed with {@link
+   * ReplayTransport}
+   *
+   * <p>Applies to ports opened by the next {@link #start()}
+   *
+   * @param enabled Whether to record
+   */
+  public static void setCaptureEnabled(boolean enabled) {
+    captureEnabled = enabled;
+  }
+
+  /**
+   * Internal method to start recording the bytes received from a port
+   *
+   * @param serial Port to record
+   */
+  private static void startCapture(ArduinoSerial serial) {
+    try {
+      serial.setCapture(SerialCapture.create(serial.getName()));
+    } catch (IOException e) {
+      System.err.println("Could not start serial capture for " + serial.getName());
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Internal method to find all available USB to serial COM ports
+   *
+   * @return Transports for the found ports
+   */
+  private static List<SerialTransport> scanPorts() {
+    List<SerialTransport> ports = new ArrayList<SerialTransport>();
+    SerialPort[] availablePorts = SerialPort.getCommPorts();
+    if (availablePorts == null) {
+      return ports;
+    }
+    for (SerialPort availablePort : availablePorts) {
+      if (availablePort.toString().contains("USB-to-Serial")) {
+        ports.add(new JSerialCommTransport(availablePort));
+      }
+    }
+    return ports;
   }
 
   /**
@@ -78,11 +404,13 @@ public class ArduinoSerialReceiver {
    * @param name Port name
    */
   private static ArduinoSerial getSerialPort(String name) {
-    synchronized (serialPorts) {
-      for (ArduinoSerial serial : serialPorts) {
-        if (serial.getName().equals(name)) {
-          return serial;
-        }
+    ArduinoSerial initializing = initializingPort.get();
+    if (initializing != null) {
+      return initializing.getName().equals(name) ? initializing : null;
+    }
+    for (ArduinoSerial serial : serialPorts) {
+      if (serial.getName().equals(name)) {
+        return serial;
       }
     }
     return null;
@@ -90,73 +418,492 @@ public class ArduinoSerialReceiver {
 
   /** Stops polling for data and disposes of currently open COM ports */
   public static void close() {
-    if (pollTask != null) {
-      pollTask.stop();
+    synchronized (lifecycleLock) {
+      if (startThread != null && startThread.isAlive()) {
+        startThread.interrupt();
+      }
+      if (statsPublisher != null) {
+        statsPublisher.stop();
+        statsPublisher = null;
+      }
+      for (PortPoller poller : pollers) {
+        poller.stop();
+      }
+      pollers.clear();
+      for (ArduinoSerial serial : serialPorts) {
+        serial.close();
+      }
+      serialPorts.clear();
+      if (dispatcher != null) {
+        dispatcher.stop();
+        dispatcher = null;
+      }
     }
-    if (startThread != null && startThread.isAlive()) {
-      startThread.interrupt();
+  }
+
+  /**
+   * Sets whether the robot is enabled
+   *
+   * <p>Ports stay open and keep receiving while disabled, so sensor data is fresh the moment the
+   * robot is enabled. While disabled, ports are polled and streamed at a quarter of their rate.
+   * Enabling wakes every port to poll immediately
+   *
+   * @param enabled Whether the robot is enabled
+   */
+  public static void setEnabled(boolean enabled) {
+    if (ArduinoSerialReceiver.enabled == enabled) return;
+    ArduinoSerialReceiver.enabled = enabled;
+    for (PortPoller poller : pollers) {
+      poller.wake();
     }
   }
 
+  /**
+   * Returns whether the robot is enabled, see {@link #setEnabled(boolean)}
+   *
+   * @return <code>true</code> if enabled
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the time that received data is stamped with, the FPGA time unless replaced for testing
+   *
+   * @return Time in microseconds
+   */
+  public static long getTime() {
+    return timeSource.getTime();
+  }
+
+  /**
+   * Replaces the time source that received data is stamped with
+   *
+   * @param source Time source
+   */
+  @VisibleForTesting
+  public static void setTimeSource(TimeSource source) {
+    timeSource = source;
+  }
+
   /**
    * Registers a listener for data with the given header
    *
+   * <p>Several listeners may be registered for the same header, each receives every message
+   *
    * @param listener Listener
    * @param header Header to listen for
    */
-  public static void registerListener(ArduinoListener listener, short header) {
-    responseHeaders.put(header, listener);
+  public static synchronized void registerListener(ArduinoListener listener, short header) {
+    int index = header & 0xffff;
+    ArduinoListener[] listeners = listenerTable.get(index);
+    if (listeners == null) {
+      listeners = NO_LISTENERS;
+    }
+    for (ArduinoListener registered : listeners) {
+      if (registered == listener) return;
+    }
+    ArduinoListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+    updated[listeners.length] = listener;
+    listenerTable.set(index, updated);
+    for (ArduinoListener registered : registeredListeners) {
+      if (registered == listener) return;
+    }
+    ArduinoListener[] all = Arrays.copyOf(registeredListeners, registeredListeners.length + 1);
+    all[registeredListeners.length] = listener;
+    registeredListeners = all;
   }
 
   /**
-   * Internal method to get the listener for the given header
+   * Passes the data queued for every listener to it on the calling thread, in the order received
+   *
+   * <p>Called continuously by the dispatch thread while the receiver is started. Can also be called
+   * from the robot loop, or by tests using an {@link ArduinoSerial} directly, in which case the
+   * listeners see the data when it is called. Does not allocate
+   *
+   * <p>Takes no global lock, so a slow listener never delays the data of the others. A listener
+   * being passed its data by another thread is skipped, its data is passed by that thread or by the
+   * next call
+   *
+   * @return Number of messages passed to listeners
+   */
+  public static int dispatchPending() {
+    int count = 0;
+    for (ArduinoListener listener : registeredListeners) {
+      if (listener.queue.size() > 0) {
+        count += listener.queue.drain(listener);
+      }
+    }
+    return count;
+  }
+
+  /** Internal method to wake the dispatch thread after data has been queued */
+  static void wakeDispatcher() {
+    Dispatcher current = dispatcher;
+    if (current != null) {
+      current.wake();
+    }
+  }
+
+  /**
+   * Internal method to get the listeners for the given header
+   *
+   * <p>Does not allocate, the returned array is shared and must not be modified
    *
    * @param header Received header
-   * @return Listener
+   * @return Listeners, or <code>null</code> if there are none
    */
-  protected static ArduinoListener getListener(short header) {
-    return responseHeaders.get(header);
+  @VisibleForTesting
+  public static ArduinoListener[] getListeners(short header) {
+    return listenerTable.get(header & 0xffff);
   }
 
-  private static class PollTask extends TimerTask {
+  /**
+   * Receives from a single {@link ArduinoSerial} on its own thread, either by reading the frames a
+   * streaming device pushes or by polling at a fixed rate
+   */
+  private static class PortPoller implements Runnable {
 
-    /** Polls all currently open COM ports */
+    private final ArduinoSerial serial;
+    private final long interval;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean woken = false;
+
+    /**
+     * Constructs a poller for the given port
+     *
+     * @param serial Port to poll
+     * @param interval Time between the start of each poll in milliseconds until a listener has
+     *     received data from the port
+     */
+    PortPoller(ArduinoSerial serial, long interval) {
+      this.serial = serial;
+      this.interval = interval;
+      thread = new Thread(this, "ArduinoSerial " + serial.getName());
+      thread.setDaemon(true);
+    }
+
+    /** Starts polling */
+    void start() {
+      thread.start();
+    }
+
+    /**
+     * Receives from the port until stopped
+     *
+     * <p>The baud rate is negotiated and streaming is requested when the port is first polled, and
+     * retried periodically while polling, so a device whose stream stops or that was reconnected is
+     * picked up again
+     *
+     * <p>Polls are spaced by the interval the port's listeners need, see {@link
+     * ArduinoSerial#getPollInterval()}, or the default interval until a listener has received data.
+     * Each consecutive failed poll doubles the time until the next, up to 2 seconds, so a silent
+     * device costs little until it answers again
+     *
+     * <p>The clock of a device supporting it is synchronised once per second, whether streaming or
+     * polling
+     *
+     * <p>While the robot is disabled, polls are spaced and streams requested at a quarter of their
+     * rate. Enabling the robot wakes the poller and restores the full rate
+     *
+     * <p>If a poll overruns its interval, the next poll starts immediately without trying to catch
+     * up on missed polls
+     */
     @Override
     public void run() {
-      synchronized (serialPorts) {
-        for (ArduinoSerial port : serialPorts) {
-          port.poll();
+      long nextPoll = System.currentTimeMillis();
+      long nextHandshake = nextPoll;
+      long nextClockSync = nextPoll;
+      int failures = 0;
+      while (running) {
+        int streamPeriod = enabled ? STREAM_PERIOD : STREAM_PERIOD * DISABLED_RATE_DIVISOR;
+        if (System.currentTimeMillis() >= nextClockSync && serial.isClockSyncSupported()) {
+          nextClockSync = System.currentTimeMillis() + CLOCK_SYNC_INTERVAL;
+          serial.synchronizeClock();
+        }
+        if (serial.isStreaming()) {
+          if (serial.getStreamPeriod() != streamPeriod) {
+            serial.startStreaming(streamPeriod);
+          }
+          serial.receive();
+          nextPoll = System.currentTimeMillis();
+          failures = 0;
+          continue;
+        }
+        if (System.currentTimeMillis() >= nextHandshake) {
+          nextHandshake = System.currentTimeMillis() + HANDSHAKE_RETRY;
+          serial.negotiateBaudRate();
+          if (serial.startStreaming(streamPeriod)) continue;
+        }
+        woken = false;
+        if (serial.poll()) {
+          failures = 0;
+        } else if (failures < MAX_BACKOFF_SHIFT) {
+          failures++;
+        }
+        long pollInterval = serial.getPollInterval();
+        if (pollInterval == 0) {
+          pollInterval = interval;
+        }
+        if (!enabled) {
+          pollInterval *= DISABLED_RATE_DIVISOR;
+        }
+        if (failures > 0) {
+          pollInterval = Math.min(pollInterval << failures, Math.max(pollInterval, MAX_BACKOFF));
+          serial.getStats().recordBackoff();
+        }
+        nextPoll += pollInterval;
+        long delay = nextPoll - System.currentTimeMillis();
+        while (delay > 0 && running && !woken) {
+          LockSupport.parkNanos(this, delay * 1000000);
+          if (Thread.interrupted()) return;
+          delay = nextPoll - System.currentTimeMillis();
+        }
+        if (delay <= 0 || woken) {
+          nextPoll = System.currentTimeMillis();
         }
       }
     }
 
-    /** Schedules the timer to stop and dispose of currently open COM ports */
-    public void stop() {
-      this.cancel();
-      synchronized (serialPorts) {
-        serialPorts.removeIf(
-            serial -> {
-              serial.close();
-              return true;
-            });
+    /** Wakes the poller to poll immediately, without waiting for the rest of its interval */
+    void wake() {
+      woken = true;
+      LockSupport.unpark(thread);
+    }
+
+    /** Stops receiving and closes the port, which also releases a read blocked on the device */
+    void stop() {
+      running = false;
+      thread.interrupt();
+      serial.close();
+    }
+  }
+
+  /** Passes queued data to the listeners on its own thread, so they can not delay the ports */
+  private static class Dispatcher implements Runnable {
+
+    private static final long IDLE_WAIT = 100000000;
+
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /** Constructs a dispatcher */
+    Dispatcher() {
+      thread = new Thread(this, "ArduinoSerial dispatch");
+      thread.setDaemon(true);
+    }
+
+    /** Starts dispatching */
+    void start() {
+      thread.start();
+    }
+
+    /** Dispatches until stopped, waiting to be woken while no data is queued */
+    @Override
+    public void run() {
+      while (running) {
+        if (dispatchPending() == 0) {
+          LockSupport.parkNanos(this, IDLE_WAIT);
+        }
       }
     }
+
+    /** Wakes the dispatcher to pass newly queued data */
+    void wake() {
+      LockSupport.unpark(thread);
+    }
+
+    /** Stops dispatching, leaving any queued data for {@link #dispatchPending()} */
+    void stop() {
+      running = false;
+      LockSupport.unpark(thread);
+    }
+  }
+
+  /** Publishes the {@link SerialLinkStats} of every open port to NetworkTables at a fixed rate */
+  private static class StatsPublisher implements Runnable {
+
+    private final NetworkTable table;
+    private final long interval;
+    private final Thread thread;
+    private final Map<ArduinoSerial, PortEntries> ports = new HashMap<ArduinoSerial, PortEntries>();
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a publisher writing to the given table
+     *
+     * @param table Table to create a sub-table in for each port
+     * @param interval Time between publishing in milliseconds
+     */
+    StatsPublisher(NetworkTable table, long interval) {
+      this.table = table;
+      this.interval = interval;
+      thread = new Thread(this, "ArduinoSerial stats");
+      thread.setDaemon(true);
+    }
+
+    /** Starts publishing */
+    void start() {
+      thread.start();
+    }
+
+    /** Publishes until stopped */
+    @Override
+    public void run() {
+      while (running) {
+        try {
+          Thread.sleep(interval);
+        } catch (InterruptedException e) {
+          return;
+        }
+        long now = System.nanoTime();
+        for (ArduinoSerial serial : serialPorts) {
+          PortEntries entries = ports.get(serial);
+          if (entries == null) {
+            entries = new PortEntries(table.getSubTable(serial.getName()), serial.getStats(), now);
+            ports.put(serial, entries);
+          }
+          entries.publish(now);
+        }
+        ports.keySet().retainAll(serialPorts);
+      }
+    }
+
+    /** Stops publishing */
+    void stop() {
+      running = false;
+      thread.interrupt();
+    }
+  }
+
+  /** Network table entries of the health of a single port */
+  private static class PortEntries {
+
+    private final SerialLinkStats stats;
+    private final NetworkTableEntry framesPerSecond;
+    private final NetworkTableEntry bytesPerSecond;
+    private final NetworkTableEntry crcFailures;
+    private final NetworkTableEntry timeouts;
+    private final NetworkTableEntry reopens;
+    private final NetworkTableEntry backoffs;
+    private final NetworkTableEntry droppedFrames;
+    private final NetworkTableEntry pollTimeP50;
+    private final NetworkTableEntry pollTimeP99;
+    private final NetworkTableEntry callbackTimeP50;
+    private final NetworkTableEntry callbackTimeP99;
+    private long lastFrames;
+    private long lastBytes;
+    private long lastTime;
+
+    /**
+     * Constructs the entries of a port
+     *
+     * @param table Table of the port
+     * @param stats Health of the port
+     * @param time {@link System#nanoTime()} at which the rates start
+     */
+    PortEntries(NetworkTable table, SerialLinkStats stats, long time) {
+      this.stats = stats;
+      framesPerSecond = table.getEntry("framesPerSecond");
+      bytesPerSecond = table.getEntry("bytesPerSecond");
+      crcFailures = table.getEntry("crcFailures");
+      timeouts = table.getEntry("timeouts");
+      reopens = table.getEntry("reopens");
+      backoffs = table.getEntry("backoffs");
+      droppedFrames = table.getEntry("droppedFrames");
+      pollTimeP50 = table.getEntry("pollTimeP50");
+      pollTimeP99 = table.getEntry("pollTimeP99");
+      callbackTimeP50 = table.getEntry("callbackTimeP50");
+      callbackTimeP99 = table.getEntry("callbackTimeP99");
+      lastFrames = stats.getFrames();
+      lastBytes = stats.getBytes();
+      lastTime = time;
+    }
+
+    /**
+     * Publishes the rates since the previous call, the totals, and the latency percentiles in
+     * milliseconds since the previous call
+     *
+     * @param time Current {@link System#nanoTime()}
+     */
+    void publish(long time) {
+      double seconds = Math.max(time - lastTime, 1) / 1e9;
+      long frames = stats.getFrames();
+      long bytes = stats.getBytes();
+      framesPerSecond.setDouble((frames - lastFrames) / seconds);
+      bytesPerSecond.setDouble((bytes - lastBytes) / seconds);
+      lastFrames = frames;
+      lastBytes = bytes;
+      lastTime = time;
+      crcFailures.setDouble(stats.getRejectedFrames());
+      timeouts.setDouble(stats.getTimeouts());
+      reopens.setDouble(stats.getReopens());
+      backoffs.setDouble(stats.getBackoffs());
+      droppedFrames.setDouble(stats.getDroppedFrames());
+      LatencyHistogram pollTime = stats.getPollTime();
+      pollTimeP50.setDouble(pollTime.getPercentile(0.5) / 1000.0);
+      pollTimeP99.setDouble(pollTime.getPercentile(0.99) / 1000.0);
+      pollTime.reset();
+      LatencyHistogram callbackTime = stats.getCallbackTime();
+      callbackTimeP50.setDouble(callbackTime.getPercentile(0.5) / 1000.0);
+      callbackTimeP99.setDouble(callbackTime.getPercentile(0.99) / 1000.0);
+      callbackTime.reset();
+    }
   }
 
   /** Listener class for received messages */
   public abstract static class ArduinoListener {
+
+    /**
+     * How urgently a listener needs fresh data, which sets how often its port is polled relative to
+     * the expiry time
+     */
+    public enum Priority {
+      /** Polled four times per expiry time, for data used in control loops such as the gyro */
+      HIGH(0.25),
+      /** Polled at 80% of the expiry time, 40ms for the default expiry */
+      NORMAL(0.8),
+      /** Polled just before the data expires, for slowly changing data */
+      LOW(0.9);
+
+      private final double intervalFraction;
+
+      private Priority(double intervalFraction) {
+        this.intervalFraction = intervalFraction;
+      }
+    }
+
     private volatile long lastReceived = 0;
+    private volatile long lastTimestamp = 0;
     private final long expiry;
+    private final Priority priority;
+    private final long pollInterval;
     private String id = "";
+    private volatile ArduinoSerial port = null;
+    final FrameQueue queue = new FrameQueue();
 
     /** Constructs a listener with the default message expiry time of <code>50ms</code> */
     public ArduinoListener() {
       this(50);
     }
 
-    /** Constructs a listener with the given message expiry time */
+    /** Constructs a listener with the given message expiry time and normal priority */
     public ArduinoListener(long expiry) {
+      this(expiry, Priority.NORMAL);
+    }
+
+    /**
+     * Constructs a listener with the given message expiry time and priority
+     *
+     * @param expiry Time in milliseconds after which received data is expired
+     * @param priority How often the port is polled relative to the expiry time
+     */
+    public ArduinoListener(long expiry, Priority priority) {
       this.expiry = expiry;
+      this.priority = priority;
+      long interval = expiry < 0 ? MAX_POLL_INTERVAL : (long) (expiry * priority.intervalFraction);
+      pollInterval = Math.max(MIN_POLL_INTERVAL, Math.min(interval, MAX_POLL_INTERVAL));
     }
 
     /**
@@ -167,19 +914,47 @@ public class ArduinoSerialReceiver {
      */
     public abstract void receiveData(ArduinoSerial serial, ByteBuffer data);
 
-    /** Internal method for setting the time the last message was received at */
-    void setLastReceived() {
+    /**
+     * Internal method for setting the time the last message was received at
+     *
+     * @param timestamp FPGA time in microseconds at which the data was measured
+     */
+    void setLastReceived(long timestamp) {
+      lastTimestamp = timestamp;
       lastReceived = System.currentTimeMillis();
     }
 
     /**
-     * Internal method for saving the port ID to config
+     * Internal method for saving the port ID and USB identity to config
+     *
+     * <p>Does nothing if the port is unchanged
      *
-     * @param id Port id
+     * @param serial Port the listener receives from
      */
-    void savePortID(String id) {
-      this.id = id;
-      COMPortsStorage.savePort(this.getClass().getSimpleName(), id);
+    void savePort(ArduinoSerial serial) {
+      if (serial == port) return;
+      synchronized (this) {
+        if (serial == port) return;
+        port = serial;
+        String name = this.getClass().getSimpleName();
+        if (!serial.getName().equals(id)) {
+          id = serial.getName();
+          COMPortsStorage.savePort(name, id);
+        }
+        UsbIdentity identity = serial.getIdentity();
+        if (identity != null) {
+          COMPortsStorage.saveDevice(name, identity.toString());
+        }
+      }
+    }
+
+    /**
+     * Internal method to get the USB identity of the device this listener last received from
+     *
+     * @return Identity, or <code>null</code> if unknown
+     */
+    UsbIdentity getSavedIdentity() {
+      return UsbIdentity.parse(COMPortsStorage.getDevice(this.getClass().getSimpleName()));
     }
 
     /**
@@ -206,6 +981,29 @@ public class ArduinoSerialReceiver {
       return lastReceived;
     }
 
+    /**
+     * Returns the time the last received data was measured at
+     *
+     * <p>This is the time the frame arrived, moved back to the time the device took the sample if
+     * the device sent a timestamp with it. It is already updated when {@link
+     * #receiveData(ArduinoSerial, ByteBuffer)} is called
+     *
+     * @return FPGA time in microseconds, see {@link ArduinoSerialReceiver#getTime()}
+     */
+    public long getLastTimestamp() {
+      return lastTimestamp;
+    }
+
+    /**
+     * Returns the number of messages dropped because this listener had not finished with the
+     * messages queued before them, see {@link ArduinoSerialReceiver#dispatchPending()}
+     *
+     * @return Dropped message count
+     */
+    public long getDroppedFrames() {
+      return queue.getDroppedFrames();
+    }
+
     /**
      * Returns whether or not the last data received has expired
      *
@@ -215,6 +1013,17 @@ public class ArduinoSerialReceiver {
       return expiry < 0 || System.currentTimeMillis() - lastReceived > expiry;
     }
 
+    /**
+     * Returns whether the message a reading was copied from has expired, so that the fields of a
+     * {@link SensorSnapshot} and their expiry are checked against the same message
+     *
+     * @param reading Reading of a snapshot published by this listener
+     * @return <code>true</code> if the message has expired or none was published
+     */
+    public boolean isExpired(SensorSnapshot.Reading reading) {
+      return expiry < 0 || System.currentTimeMillis() - reading.getReceivedTime() > expiry;
+    }
+
     /**
      * Returns the set expiry time
      *
@@ -223,5 +1032,23 @@ public class ArduinoSerialReceiver {
     public long getExpiryTime() {
       return expiry;
     }
+
+    /**
+     * Returns how urgently this listener needs fresh data
+     *
+     * @return Priority
+     */
+    public Priority getPriority() {
+      return priority;
+    }
+
+    /**
+     * Internal method to get the time between polls of the port this listener receives from
+     *
+     * @return Poll interval in milliseconds
+     */
+    long getPollInterval() {
+      return pollInterval;
+    }
   }
 }
@@ -0,0 +1,184 @@
+package com.chargerrobotics.utils;
+
+import edu.wpi.first.networktables.NetworkTableValue;
+
+/**
+ * {@link NetworkMapping} of a boolean, read without unboxing or allocating
+ *
+ * @see PrimitiveMapping
+ */
+public class BooleanMapping extends PrimitiveMapping {
+
+  /** Callback receiving the new value, as <code>java.util.function</code> has none for booleans */
+  public interface BooleanConsumer {
+    /**
+     * Called with the new value
+     *
+     * @param value New value
+     */
+    public void accept(boolean value);
+  }
+
+  private final boolean defaultValue;
+  private volatile boolean value;
+  private volatile boolean pending;
+  private final Runnable runnable;
+  private final BooleanConsumer consumer;
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   */
+  public BooleanMapping(String identifier, boolean defaultValue) {
+    this(identifier, defaultValue, null, null, false);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Runnable will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param runnable Runnable to be run when value is updated
+   */
+  public BooleanMapping(String identifier, boolean defaultValue, Runnable runnable) {
+    this(identifier, defaultValue, runnable, false);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Runnable will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param runnable Runnable to be run when value is updated
+   * @param runFirstTime If true, update runnable will also be run at initialization
+   */
+  public BooleanMapping(
+      String identifier, boolean defaultValue, Runnable runnable, boolean runFirstTime) {
+    this(identifier, defaultValue, runnable, null, runFirstTime);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Consumer will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param consumer Consumer to be run when value is updated - New value is passed to consumer
+   */
+  public BooleanMapping(String identifier, boolean defaultValue, BooleanConsumer consumer) {
+    this(identifier, defaultValue, consumer, false);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Consumer will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param consumer Consumer to be run when value is updated - New value is passed to consumer
+   * @param runFirstTime If true, update consumer will also be run at initialization
+   */
+  public BooleanMapping(
+      String identifier, boolean defaultValue, BooleanConsumer consumer, boolean runFirstTime) {
+    this(identifier, defaultValue, null, consumer, runFirstTime);
+  }
+
+  private BooleanMapping(
+      String identifier,
+      boolean defaultValue,
+      Runnable runnable,
+      BooleanConsumer consumer,
+      boolean runFirstTime) {
+    super(identifier);
+    this.defaultValue = defaultValue;
+    this.runnable = runnable;
+    this.consumer = consumer;
+    Object saved = getSavedValue();
+    value = saved instanceof Boolean ? (Boolean) saved : defaultValue;
+    entry.forceSetBoolean(value);
+    if (runFirstTime) runUpdate();
+    listen();
+  }
+
+  @Override
+  protected boolean store(NetworkTableValue value) {
+    if (!value.isBoolean()) return false;
+    pending = value.getBoolean();
+    return true;
+  }
+
+  @Override
+  void receiveSaved(Object value) {
+    if (!(value instanceof Boolean)) return;
+    pending = (Boolean) value;
+    entry.forceSetBoolean(pending);
+    queue();
+  }
+
+  @Override
+  protected boolean commit() {
+    boolean next = pending;
+    if (next == value) return false;
+    value = next;
+    return true;
+  }
+
+  @Override
+  protected Object getBoxedValue() {
+    return value;
+  }
+
+  /**
+   * Resets the value to default
+   *
+   * @return Default value of mapping
+   */
+  public boolean reset() {
+    setValue(defaultValue);
+    return value;
+  }
+
+  /**
+   * Gets the current value
+   *
+   * @return Current value of mapping
+   */
+  public boolean getValue() {
+    return value;
+  }
+
+  /**
+   * Sets the current value to NetworkTables
+   *
+   * @param value Value to set
+   */
+  public void setValue(boolean value) {
+    setValue(value, false);
+  }
+
+  /**
+   * Sets the current value to NetworkTables
+   *
+   * @param value Value to set
+   * @param runUpdate If true, runs update callback if given
+   */
+  public void setValue(boolean value, boolean runUpdate) {
+    entry.forceSetBoolean(value);
+    this.value = value;
+    if (runUpdate) runUpdate();
+  }
+
+  @Override
+  public void runUpdate() {
+    if (consumer != null) consumer.accept(value);
+    else if (runnable != null) runnable.run();
+  }
+}
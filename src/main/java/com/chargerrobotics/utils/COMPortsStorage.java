@@ -1,61 +1,127 @@
 package com.chargerrobotics.utils;
 
+import com.chargerrobotics.Constants;
+import com.google.common.annotations.VisibleForTesting;
 import java.io.File;
-import java.io.IOException;
 import java.util.HashMap;
-
 import org.simpleyaml.configuration.file.YamlConfiguration;
 
-import com.chargerrobotics.Constants;
-
 public class COMPortsStorage {
 
-	private static final File configFile = new File(Constants.dataStoragePath, Constants.comPortsFileName);
-	private static YamlConfiguration config;
-	private static final HashMap<String, String> cache = new HashMap<String, String>();
-	
-	public static void savePort(String listener, String port) {
-		if (!port.equals(cache.put(listener, port))) {
-			getConfig().set(listener, port);
-			save();
-		}
-	}
-	
-	public static String getPort(String listener) {
-		if (cache.containsKey(listener))
-			return cache.get(listener);
-		else
-			return getConfig().getString(listener);
-	}
-
-	public static YamlConfiguration getConfig() {
-		if (config == null) {
-			reload();
-		}
-		return config;
-	}
-
-	public static void reload() {
-		configFile.getParentFile().mkdirs();
-		if (!configFile.isFile()) {
-			try {
-				configFile.createNewFile();
-			} catch (IOException e) {
-
-			}
-		}
-		config = YamlConfiguration.loadConfiguration(configFile);
-	}
-
-	public static void save() {
-		if (config == null || configFile == null) {
-			return;
-		}
-		try {
-			getConfig().save(configFile);
-		} catch (IOException e) {
-			System.err.println("Could not save config to: " + configFile.getAbsolutePath());
-			e.printStackTrace();
-		}
-	}
+  private static final long WRITE_INTERVAL = 1000;
+  private static volatile WriteBehindStore store =
+      new WriteBehindStore(
+          new File(Constants.dataStoragePath, Constants.comPortsFileName), WRITE_INTERVAL);
+  private static final String DEVICES = "devices.";
+  private static final String BAUD_RATES = "baudRates.";
+  private static final HashMap<String, String> cache = new HashMap<String, String>();
+
+  /**
+   * Replaces the store holding the ports, so tests do not change the robot's port file
+   *
+   * @param store Store to use
+   * @return Store used until now
+   */
+  @VisibleForTesting
+  public static synchronized WriteBehindStore setStore(WriteBehindStore store) {
+    WriteBehindStore previous = COMPortsStorage.store;
+    COMPortsStorage.store = store;
+    cache.clear();
+    return previous;
+  }
+
+  public static void savePort(String listener, String port) {
+    save(listener, port);
+  }
+
+  public static String getPort(String listener) {
+    return get(listener);
+  }
+
+  /**
+   * Saves the USB identity of the device a listener receives from
+   *
+   * @param listener Listener name
+   * @param device Identity written by {@link UsbIdentity#toString()}
+   */
+  public static void saveDevice(String listener, String device) {
+    save(DEVICES + listener, device);
+  }
+
+  /**
+   * Gets the USB identity of the device a listener last received from
+   *
+   * @param listener Listener name
+   * @return Identity, or <code>null</code> if unknown
+   */
+  public static String getDevice(String listener) {
+    return get(DEVICES + listener);
+  }
+
+  /**
+   * Saves the baud rate a device agreed to
+   *
+   * @param device Port name, or USB identity written by {@link UsbIdentity#toString()}
+   * @param baudRate Baud rate
+   */
+  public static void saveBaudRate(String device, int baudRate) {
+    save(BAUD_RATES + toKey(device), Integer.toString(baudRate));
+  }
+
+  /**
+   * Gets the baud rate a device last agreed to
+   *
+   * @param device Port name, or USB identity written by {@link UsbIdentity#toString()}
+   * @return Baud rate, or <code>0</code> if unknown
+   */
+  public static int getBaudRate(String device) {
+    String baudRate = get(BAUD_RATES + toKey(device));
+    if (baudRate == null) return 0;
+    try {
+      return Integer.parseInt(baudRate);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Internal method to turn a device name into a single config key, as dots separate sections
+   *
+   * @param device Device name
+   * @return Key with every character other than letters and digits replaced
+   */
+  private static String toKey(String device) {
+    return device.replaceAll("[^A-Za-z0-9]", "_");
+  }
+
+  /**
+   * Internal method to set a value, written to the file in the background so that saving from the
+   * poll threads does not block them, see {@link WriteBehindStore}
+   *
+   * @param key Config key
+   * @param value Value
+   */
+  private static synchronized void save(String key, String value) {
+    if (!value.equals(cache.put(key, value))) {
+      store.set(key, value);
+    }
+  }
+
+  private static synchronized String get(String key) {
+    if (cache.containsKey(key)) return cache.get(key);
+    else return getConfig().getString(key);
+  }
+
+  public static YamlConfiguration getConfig() {
+    return store.getConfig();
+  }
+
+  public static void reload() {
+    store.reload();
+  }
+
+  /** Schedules a write of the config after it was modified through {@link #getConfig()} */
+  public static void save() {
+    store.markDirty();
+  }
 }
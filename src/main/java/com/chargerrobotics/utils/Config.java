@@ -1,57 +1,121 @@
 package com.chargerrobotics.utils;
 
-import java.io.File;
-import java.io.IOException;
-
-import org.simpleyaml.configuration.file.YamlConfiguration;
-
 import com.chargerrobotics.Constants;
 import com.chargerrobotics.Robot;
-
+import com.google.common.annotations.VisibleForTesting;
 import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTableInstance;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.simpleyaml.configuration.file.YamlConfiguration;
 
+/**
+ * Robot settings stored in the config file and tunable through NetworkTables, see {@link
+ * NetworkMapping}
+ *
+ * <p>The config file is watched while the robot runs, and keys changed in it are passed to the
+ * mappings of those keys as if they had been set through NetworkTables, so a whole set of tuning
+ * values can be applied by replacing the file
+ */
 public class Config {
 
-	public static final NetworkTableInstance inst = NetworkTableInstance.getDefault();
-	public static final NetworkTable table = inst.getTable("Config");
-
-	private static final File configFile = new File(Constants.dataStoragePath, Constants.configFileName);
-	private static YamlConfiguration config;
-
-	public static void setup() {
-		inst.startClientTeam(Robot.TEAM);
-		getConfig();
-	}
-
-	public static YamlConfiguration getConfig() {
-		if (config == null) {
-			reload();
-		}
-		return config;
-	}
-
-	public static void reload() {
-		configFile.getParentFile().mkdirs();
-		if (!configFile.isFile()) {
-			try {
-				configFile.createNewFile();
-			} catch (IOException e) {
-
-			}
-		}
-		config = YamlConfiguration.loadConfiguration(configFile);
-	}
-
-	public static void save() {
-		if (config == null || configFile == null) {
-			return;
-		}
-		try {
-			getConfig().save(configFile);
-		} catch (IOException e) {
-			System.err.println("Could not save config to: " + configFile.getAbsolutePath());
-			e.printStackTrace();
-		}
-	}
+  public static final NetworkTableInstance inst = NetworkTableInstance.getDefault();
+  public static final NetworkTable table = inst.getTable("Config");
+
+  private static final long WRITE_INTERVAL = 1000;
+  private static volatile WriteBehindStore store =
+      new WriteBehindStore(
+          new File(Constants.dataStoragePath, Constants.configFileName), WRITE_INTERVAL);
+  private static ConfigWatcher watcher = null;
+  private static final Map<String, List<QueuedMapping>> mappings =
+      new ConcurrentHashMap<String, List<QueuedMapping>>();
+
+  public static synchronized void setup() {
+    inst.startClientTeam(Robot.TEAM);
+    WriteBehindStore store = Config.store;
+    store.getConfig();
+    System.out.println(
+        "Loaded config "
+            + (store.isLoadedFromSnapshot() ? "snapshot" : "YAML")
+            + " in "
+            + store.getLoadTime() / 1000
+            + "us");
+    if (watcher == null) {
+      watcher = new ConfigWatcher(store, Config::applyChanges);
+      watcher.start();
+    }
+  }
+
+  /**
+   * Replaces the store holding the config, so tests do not change the robot's config file
+   *
+   * @param store Store to use
+   * @return Store used until now
+   */
+  @VisibleForTesting
+  public static WriteBehindStore setStore(WriteBehindStore store) {
+    WriteBehindStore previous = Config.store;
+    Config.store = store;
+    return previous;
+  }
+
+  public static YamlConfiguration getConfig() {
+    return store.getConfig();
+  }
+
+  public static void reload() {
+    store.reload();
+  }
+
+  /**
+   * Sets a config value, written to the file in the background, see {@link WriteBehindStore}
+   *
+   * @param key Config key
+   * @param value Value, or <code>null</code> to remove the key
+   */
+  public static void set(String key, Object value) {
+    store.set(key, value);
+  }
+
+  /** Schedules a write of the config after it was modified through {@link #getConfig()} */
+  public static void save() {
+    store.markDirty();
+  }
+
+  /**
+   * Internal method to register a mapping to be passed changes of its key in the config file
+   *
+   * @param key Config key
+   * @param mapping Mapping
+   */
+  static void register(String key, QueuedMapping mapping) {
+    mappings.computeIfAbsent(key, k -> new CopyOnWriteArrayList<QueuedMapping>()).add(mapping);
+  }
+
+  /**
+   * Passes keys changed in the config file to their mappings, which apply them on the main loop
+   *
+   * @param changes Changed keys with their new values
+   */
+  @VisibleForTesting
+  public static void applyChanges(Map<String, Object> changes) {
+    int applied = 0;
+    for (Map.Entry<String, Object> change : changes.entrySet()) {
+      List<QueuedMapping> keyMappings = mappings.get(change.getKey());
+      if (keyMappings == null) continue;
+      for (QueuedMapping mapping : keyMappings) {
+        mapping.receiveSaved(change.getValue());
+      }
+      applied++;
+    }
+    System.out.println(
+        "Reloaded "
+            + changes.size()
+            + " changed config keys, "
+            + applied
+            + " of them used by mappings");
+  }
 }
@@ -0,0 +1,164 @@
+package com.chargerrobotics.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import org.simpleyaml.configuration.file.YamlConfiguration;
+
+/**
+ * Binary copy of a YAML document, loaded at startup instead of parsing the YAML
+ *
+ * <p>The snapshot holds every key with its value tagged by type, preceded by a format version and
+ * the length and modification time of the YAML file it was written after, and followed by a CRC-32
+ * of the rest. A snapshot of another version, a corrupt one, or one whose YAML file has since been
+ * changed, such as by hand, is stale and the YAML is parsed instead
+ *
+ * <p>Only documents whose values are booleans, numbers and strings can be snapshotted
+ *
+ * @see WriteBehindStore
+ */
+final class ConfigSnapshot {
+
+  private static final int MAGIC = 0x43464753;
+  private static final int VERSION = 1;
+
+  private static final byte TYPE_BOOLEAN = 0;
+  private static final byte TYPE_INT = 1;
+  private static final byte TYPE_LONG = 2;
+  private static final byte TYPE_DOUBLE = 3;
+  private static final byte TYPE_STRING = 4;
+
+  private ConfigSnapshot() {}
+
+  /**
+   * Encodes every key of a document, to be called with the document locked
+   *
+   * @param config Document
+   * @return Encoded keys, or <code>null</code> if a value has a type that cannot be snapshotted
+   */
+  static byte[] encode(YamlConfiguration config) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      int count = 0;
+      for (String key : config.getKeys(true)) {
+        if (!config.isConfigurationSection(key)) count++;
+      }
+      out.writeInt(count);
+      for (String key : config.getKeys(true)) {
+        if (config.isConfigurationSection(key)) continue;
+        Object value = config.get(key);
+        out.writeUTF(key);
+        if (value instanceof Boolean) {
+          out.writeByte(TYPE_BOOLEAN);
+          out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+          out.writeByte(TYPE_INT);
+          out.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+          out.writeByte(TYPE_LONG);
+          out.writeLong((Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+          out.writeByte(TYPE_DOUBLE);
+          out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof String) {
+          out.writeByte(TYPE_STRING);
+          out.writeUTF((String) value);
+        } else {
+          return null;
+        }
+      }
+    } catch (IOException e) {
+      // Strings longer than 64KB
+      return null;
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Writes a snapshot of a YAML file, to be called once the YAML file has been written
+   *
+   * @param snapshot Snapshot file
+   * @param tempFile Temporary file the snapshot is written to before replacing the old one
+   * @param source YAML file the keys were written to
+   * @param keys Keys encoded by {@link #encode(YamlConfiguration)}
+   * @throws IOException If the snapshot could not be written
+   */
+  static void write(File snapshot, File tempFile, File source, byte[] keys) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(keys.length + 32);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(source.length());
+    out.writeLong(source.lastModified());
+    out.write(keys);
+    CRC32 crc = new CRC32();
+    crc.update(bytes.toByteArray());
+    out.writeInt((int) crc.getValue());
+    WriteBehindStore.replace(snapshot, tempFile, bytes.toByteArray());
+  }
+
+  /**
+   * Reads a snapshot of a YAML file
+   *
+   * @param snapshot Snapshot file
+   * @param source YAML file the snapshot must have been written after
+   * @return Document, or <code>null</code> if the snapshot is missing or stale
+   */
+  static YamlConfiguration read(File snapshot, File source) {
+    if (!snapshot.isFile() || !source.isFile()) return null;
+    try {
+      byte[] bytes = Files.readAllBytes(snapshot.toPath());
+      if (bytes.length < 4) return null;
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, bytes.length - 4);
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+      if (in.readLong() != source.length() || in.readLong() != source.lastModified()) return null;
+      int storedCrc =
+          ((bytes[bytes.length - 4] & 0xff) << 24)
+              | ((bytes[bytes.length - 3] & 0xff) << 16)
+              | ((bytes[bytes.length - 2] & 0xff) << 8)
+              | (bytes[bytes.length - 1] & 0xff);
+      if (storedCrc != (int) crc.getValue()) return null;
+
+      YamlConfiguration config = new YamlConfiguration();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String key = in.readUTF();
+        byte type = in.readByte();
+        switch (type) {
+          case TYPE_BOOLEAN:
+            config.set(key, in.readBoolean());
+            break;
+          case TYPE_INT:
+            config.set(key, in.readInt());
+            break;
+          case TYPE_LONG:
+            config.set(key, in.readLong());
+            break;
+          case TYPE_DOUBLE:
+            config.set(key, in.readDouble());
+            break;
+          case TYPE_STRING:
+            config.set(key, in.readUTF());
+            break;
+          default:
+            return null;
+        }
+      }
+      return config;
+    } catch (EOFException e) {
+      return null;
+    } catch (IOException e) {
+      System.err.println("Could not read config snapshot: " + snapshot.getAbsolutePath());
+      e.printStackTrace();
+      return null;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package com.chargerrobotics.utils;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the file of a {@link WriteBehindStore} and merges changes made to it by something else,
+ * such as a deploy or an edit over SSH, without a restart
+ *
+ * <p>A background thread waits on a {@link WatchService} for the directory of the file. Once the
+ * file has stopped changing for the settle time, as a deploy writes it in several chunks, it is
+ * parsed and compared key by key with its previous contents, see {@link
+ * WriteBehindStore#reloadChanges()}. Only the changed keys are passed to the listener. Writes by
+ * the store itself are recognised by the length and modification time of the file and ignored
+ */
+public class ConfigWatcher {
+
+  private static final long DEFAULT_SETTLE_TIME = 100;
+
+  private final WriteBehindStore store;
+  private final Consumer<Map<String, Object>> listener;
+  private final long settleTime;
+  private Thread thread = null;
+
+  /**
+   * Constructs a watcher passing changes once they have settled for 100 milliseconds
+   *
+   * @param store Store whose file is watched
+   * @param listener Listener passed the changed keys with their new values, run on the watcher
+   *     thread
+   */
+  public ConfigWatcher(WriteBehindStore store, Consumer<Map<String, Object>> listener) {
+    this(store, listener, DEFAULT_SETTLE_TIME);
+  }
+
+  /**
+   * Constructs a watcher
+   *
+   * @param store Store whose file is watched
+   * @param listener Listener passed the changed keys with their new values, run on the watcher
+   *     thread
+   * @param settleTime Time in milliseconds without changes to the file before it is parsed
+   */
+  public ConfigWatcher(
+      WriteBehindStore store, Consumer<Map<String, Object>> listener, long settleTime) {
+    this.store = store;
+    this.listener = listener;
+    this.settleTime = settleTime;
+  }
+
+  /** Starts watching, if not already started, so any change made once this returns is seen */
+  public synchronized void start() {
+    if (thread != null) return;
+    Path directory = store.getFile().getAbsoluteFile().getParentFile().toPath();
+    WatchService watcher;
+    try {
+      watcher = FileSystems.getDefault().newWatchService();
+      directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+    } catch (IOException e) {
+      System.err.println("Could not watch " + store.getFile().getAbsolutePath());
+      e.printStackTrace();
+      return;
+    }
+    thread = new Thread(() -> run(watcher), "ConfigWatcher " + store.getFile().getName());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Stops watching */
+  public synchronized void stop() {
+    if (thread == null) return;
+    thread.interrupt();
+    thread = null;
+  }
+
+  /**
+   * Internal method run by the watcher thread
+   *
+   * @param watcher Service the directory of the file is registered with, closed when stopped
+   */
+  private void run(WatchService watcher) {
+    try (watcher) {
+      while (!Thread.currentThread().isInterrupted()) {
+        boolean changed = pollEvents(watcher.take());
+        WatchKey key;
+        while ((key = watcher.poll(settleTime, TimeUnit.MILLISECONDS)) != null) {
+          changed |= pollEvents(key);
+        }
+        if (changed) reload();
+      }
+    } catch (InterruptedException e) {
+      // Stopped
+    } catch (IOException e) {
+      System.err.println("Stopped watching " + store.getFile().getAbsolutePath());
+      e.printStackTrace();
+    }
+  }
+
+  /** Internal method to merge the changed file and pass the changed keys to the listener */
+  private void reload() {
+    try {
+      Map<String, Object> changes = store.reloadChanges();
+      if (!changes.isEmpty()) listener.accept(changes);
+    } catch (RuntimeException e) {
+      System.err.println("Could not reload " + store.getFile().getAbsolutePath());
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Internal method to check the events of a key for changes to the file
+   *
+   * @param key Signalled key, reset afterwards
+   * @return <code>true</code> if the file may have changed
+   */
+  private boolean pollEvents(WatchKey key) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        changed = true;
+      } else {
+        Path name = (Path) event.context();
+        changed |= name.toString().equals(store.getFile().getName());
+      }
+    }
+    key.reset();
+    return changed;
+  }
+}
@@ -0,0 +1,54 @@
+package com.chargerrobotics.utils;
+
+/**
+ * Table-driven CRC-16/CCITT-FALSE used to protect Arduino frames
+ *
+ * <p>Polynomial <code>0x1021</code>, initial value <code>0xFFFF</code>, no reflection and no final
+ * XOR. Known check value: <code>0x29B1</code> for the ASCII bytes <code>"123456789"</code>
+ */
+public class Crc16 {
+
+  public static final int INITIAL = 0xffff;
+
+  private static final int POLYNOMIAL = 0x1021;
+  private static final int[] TABLE = new int[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int crc = i << 8;
+      for (int bit = 0; bit < 8; bit++) {
+        crc = (crc & 0x8000) != 0 ? (crc << 1) ^ POLYNOMIAL : crc << 1;
+      }
+      TABLE[i] = crc & 0xffff;
+    }
+  }
+
+  private Crc16() {}
+
+  /**
+   * Adds a byte to the checksum
+   *
+   * @param crc Checksum so far, starting at {@link #INITIAL}
+   * @param b Byte to be added
+   * @return Updated checksum
+   */
+  public static int update(int crc, byte b) {
+    return ((crc << 8) ^ TABLE[((crc >> 8) ^ b) & 0xff]) & 0xffff;
+  }
+
+  /**
+   * Adds a range of bytes to the checksum
+   *
+   * @param crc Checksum so far, starting at {@link #INITIAL}
+   * @param data Bytes to be added
+   * @param offset Position of the first byte
+   * @param length Number of bytes
+   * @return Updated checksum
+   */
+  public static int update(int crc, byte[] data, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      crc = ((crc << 8) ^ TABLE[((crc >> 8) ^ data[i]) & 0xff]) & 0xffff;
+    }
+    return crc;
+  }
+}
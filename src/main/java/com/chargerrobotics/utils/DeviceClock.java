@@ -0,0 +1,198 @@
+package com.chargerrobotics.utils;
+
+/**
+ * Maps the <code>micros()</code> timestamps of an Arduino onto the FPGA clock
+ *
+ * <p>Devices supporting clock synchronisation are pinged periodically, see {@link
+ * ArduinoSerial#synchronizeClock()}. Each exchange gives an offset between the clocks, accurate to
+ * half the round trip time, as NTP does. A line is fitted through the offsets of the recent
+ * exchanges, favouring those with the shortest round trips, and its slope is the drift between the
+ * clocks, so timestamps stay accurate between exchanges
+ *
+ * <p>Until the first exchange, the offset is the smallest difference seen between the arrival time
+ * of a timestamped frame and the device timestamp it carries, as that frame was delayed the least.
+ * The offset is allowed to grow slowly so that a device clock running slower than the FPGA clock is
+ * still followed
+ */
+public class DeviceClock {
+
+  private static final long WRAP = 1L << 32;
+  private static final long OFFSET_LEAK = 1;
+  private static final int SYNC_WINDOW = 16;
+  private static final long MIN_DRIFT_SPAN = 1000000;
+  private static final long MIN_DELAY = 100;
+
+  private long high = 0;
+  private long lastLow = -1;
+  private long offset = Long.MAX_VALUE;
+
+  private final long[] syncTimes = new long[SYNC_WINDOW];
+  private final long[] syncOffsets = new long[SYNC_WINDOW];
+  private final long[] syncDelays = new long[SYNC_WINDOW];
+  private int syncCount = 0;
+  private int nextSync = 0;
+  private boolean synced = false;
+  private long syncTime = 0;
+  private long syncOffset = 0;
+  private long syncDelay = 0;
+  private double drift = 0;
+
+  /**
+   * Converts a device timestamp to FPGA time, updating the offset estimate
+   *
+   * @param deviceMicros Unsigned 32 bit <code>micros()</code> value sent by the device
+   * @param arrival FPGA time in microseconds at which the frame arrived
+   * @return FPGA time in microseconds at which the device took the timestamp, never after arrival
+   */
+  public long toHostTime(long deviceMicros, long arrival) {
+    long device = unwrap(deviceMicros);
+    if (synced) {
+      long host = device + syncOffset;
+      return Math.min(host + Math.round(drift * (host - syncTime)), arrival);
+    }
+    long difference = arrival - device;
+    offset = offset == Long.MAX_VALUE ? difference : Math.min(offset + OFFSET_LEAK, difference);
+    return Math.min(device + offset, arrival);
+  }
+
+  /**
+   * Adds a clock synchronisation exchange
+   *
+   * @param hostSend FPGA time in microseconds at which the request was sent
+   * @param deviceReceive Unsigned 32 bit <code>micros()</code> value at which the device received
+   *     the request
+   * @param deviceSend Unsigned 32 bit <code>micros()</code> value at which the device answered
+   * @param hostReceive FPGA time in microseconds at which the answer arrived
+   */
+  public void addSync(long hostSend, long deviceReceive, long deviceSend, long hostReceive) {
+    long received = unwrap(deviceReceive);
+    long sent = received + ((deviceSend - deviceReceive) & (WRAP - 1));
+    long delay = (hostReceive - hostSend) - (sent - received);
+    if (delay < 0) return;
+    int slot = nextSync;
+    syncTimes[slot] = hostReceive;
+    syncOffsets[slot] = ((hostSend - received) + (hostReceive - sent)) / 2;
+    syncDelays[slot] = delay;
+    nextSync = (nextSync + 1) % SYNC_WINDOW;
+    if (syncCount < SYNC_WINDOW) syncCount++;
+
+    fit();
+  }
+
+  /**
+   * Internal method to fit a line through the offsets of the recent exchanges, weighting each by
+   * how short its round trip was, as the offset of a quick exchange is known more precisely
+   */
+  private void fit() {
+    long reference = syncTimes[(nextSync + SYNC_WINDOW - 1) % SYNC_WINDOW];
+    long minTime = Long.MAX_VALUE;
+    long maxTime = Long.MIN_VALUE;
+    double weights = 0;
+    double meanTime = 0;
+    double meanOffset = 0;
+    syncDelay = Long.MAX_VALUE;
+    for (int i = 0; i < syncCount; i++) {
+      double weight = weight(syncDelays[i]);
+      weights += weight;
+      meanTime += weight * (syncTimes[i] - reference);
+      meanOffset += weight * (syncOffsets[i] - syncOffsets[0]);
+      minTime = Math.min(minTime, syncTimes[i]);
+      maxTime = Math.max(maxTime, syncTimes[i]);
+      syncDelay = Math.min(syncDelay, syncDelays[i]);
+    }
+    meanTime /= weights;
+    meanOffset /= weights;
+    if (maxTime - minTime >= MIN_DRIFT_SPAN) {
+      double covariance = 0;
+      double variance = 0;
+      for (int i = 0; i < syncCount; i++) {
+        double weight = weight(syncDelays[i]);
+        double time = syncTimes[i] - reference - meanTime;
+        covariance += weight * time * (syncOffsets[i] - syncOffsets[0] - meanOffset);
+        variance += weight * time * time;
+      }
+      drift = covariance / variance;
+    }
+    syncTime = reference + Math.round(meanTime);
+    syncOffset = syncOffsets[0] + Math.round(meanOffset);
+    synced = true;
+  }
+
+  /**
+   * Internal method to weight an exchange by its round trip time
+   *
+   * @param delay Round trip time in microseconds
+   * @return Weight
+   */
+  private static double weight(long delay) {
+    double spread = delay + MIN_DELAY;
+    return 1 / (spread * spread);
+  }
+
+  /**
+   * Returns whether a synchronisation exchange has been added since the last reset
+   *
+   * @return <code>true</code> if synchronised
+   */
+  public boolean isSynced() {
+    return synced;
+  }
+
+  /**
+   * Returns the offset fitted through the recent exchanges, at the middle of those exchanges
+   *
+   * @return FPGA time minus device time in microseconds
+   */
+  public long getOffset() {
+    return synced ? syncOffset : offset;
+  }
+
+  /**
+   * Returns the shortest round trip time of the recent exchanges, twice the worst case error of
+   * its offset
+   *
+   * @return Round trip time in microseconds, excluding the time the device took to answer
+   */
+  public long getDelay() {
+    return syncDelay;
+  }
+
+  /**
+   * Returns how fast the offset changes
+   *
+   * @return Microseconds of offset change per microsecond of FPGA time
+   */
+  public double getDrift() {
+    return drift;
+  }
+
+  /**
+   * Internal method to extend a 32 bit device timestamp, counting the times it wrapped
+   *
+   * @param deviceMicros Unsigned 32 bit <code>micros()</code> value
+   * @return Device time in microseconds since it started
+   */
+  private long unwrap(long deviceMicros) {
+    long low = deviceMicros & (WRAP - 1);
+    if (lastLow >= 0 && low < lastLow && lastLow - low > WRAP / 2) {
+      high += WRAP;
+    } else if (lastLow >= 0 && low > lastLow && low - lastLow > WRAP / 2) {
+      // Slightly older than the latest timestamp, from before the wrap
+      return high - WRAP + low;
+    }
+    lastLow = low;
+    return high + low;
+  }
+
+  /** Forgets the offset, to be used when the device may have restarted */
+  public void reset() {
+    high = 0;
+    lastLow = -1;
+    offset = Long.MAX_VALUE;
+    syncCount = 0;
+    nextSync = 0;
+    synced = false;
+    syncDelay = 0;
+    drift = 0;
+  }
+}
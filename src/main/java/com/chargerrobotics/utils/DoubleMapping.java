@@ -0,0 +1,175 @@
+package com.chargerrobotics.utils;
+
+import edu.wpi.first.networktables.NetworkTableValue;
+import java.util.function.DoubleConsumer;
+
+/**
+ * {@link NetworkMapping} of a double, read without unboxing or allocating
+ *
+ * @see PrimitiveMapping
+ */
+public class DoubleMapping extends PrimitiveMapping {
+
+  private final double defaultValue;
+  private volatile double value;
+  private volatile double pending;
+  private final Runnable runnable;
+  private final DoubleConsumer consumer;
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   */
+  public DoubleMapping(String identifier, double defaultValue) {
+    this(identifier, defaultValue, null, null, false);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Runnable will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param runnable Runnable to be run when value is updated
+   */
+  public DoubleMapping(String identifier, double defaultValue, Runnable runnable) {
+    this(identifier, defaultValue, runnable, false);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Runnable will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param runnable Runnable to be run when value is updated
+   * @param runFirstTime If true, update runnable will also be run at initialization
+   */
+  public DoubleMapping(
+      String identifier, double defaultValue, Runnable runnable, boolean runFirstTime) {
+    this(identifier, defaultValue, runnable, null, runFirstTime);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Consumer will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param consumer Consumer to be run when value is updated - New value is passed to consumer
+   */
+  public DoubleMapping(String identifier, double defaultValue, DoubleConsumer consumer) {
+    this(identifier, defaultValue, consumer, false);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Consumer will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param consumer Consumer to be run when value is updated - New value is passed to consumer
+   * @param runFirstTime If true, update consumer will also be run at initialization
+   */
+  public DoubleMapping(
+      String identifier, double defaultValue, DoubleConsumer consumer, boolean runFirstTime) {
+    this(identifier, defaultValue, null, consumer, runFirstTime);
+  }
+
+  private DoubleMapping(
+      String identifier,
+      double defaultValue,
+      Runnable runnable,
+      DoubleConsumer consumer,
+      boolean runFirstTime) {
+    super(identifier);
+    this.defaultValue = defaultValue;
+    this.runnable = runnable;
+    this.consumer = consumer;
+    Object saved = getSavedValue();
+    value = saved instanceof Number ? ((Number) saved).doubleValue() : defaultValue;
+    entry.forceSetDouble(value);
+    if (runFirstTime) runUpdate();
+    listen();
+  }
+
+  @Override
+  protected boolean store(NetworkTableValue value) {
+    if (!value.isDouble()) return false;
+    pending = value.getDouble();
+    return true;
+  }
+
+  @Override
+  void receiveSaved(Object value) {
+    if (!(value instanceof Number)) return;
+    pending = ((Number) value).doubleValue();
+    entry.forceSetDouble(pending);
+    queue();
+  }
+
+  @Override
+  protected boolean commit() {
+    double next = pending;
+    if (Double.compare(next, value) == 0) return false;
+    value = next;
+    return true;
+  }
+
+  @Override
+  protected Object getBoxedValue() {
+    return value;
+  }
+
+  /**
+   * Resets the value to default
+   *
+   * @return Default value of mapping
+   */
+  public double reset() {
+    setValue(defaultValue);
+    return value;
+  }
+
+  /**
+   * Gets the current value
+   *
+   * @return Current value of mapping
+   */
+  public double getValue() {
+    return value;
+  }
+
+  /**
+   * Sets the current value to NetworkTables
+   *
+   * @param value Value to set
+   */
+  public void setValue(double value) {
+    setValue(value, false);
+  }
+
+  /**
+   * Sets the current value to NetworkTables
+   *
+   * @param value Value to set
+   * @param runUpdate If true, runs update callback if given
+   */
+  public void setValue(double value, boolean runUpdate) {
+    entry.forceSetDouble(value);
+    this.value = value;
+    if (runUpdate) runUpdate();
+  }
+
+  @Override
+  public void runUpdate() {
+    if (consumer != null) consumer.accept(value);
+    else if (runnable != null) runnable.run();
+  }
+}
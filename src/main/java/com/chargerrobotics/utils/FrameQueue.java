@@ -0,0 +1,144 @@
+package com.chargerrobotics.utils;
+
+import com.chargerrobotics.utils.ArduinoSerialReceiver.ArduinoListener;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounded queue of the frames received for a single {@link ArduinoListener}, so that the thread
+ * reading a port only copies each payload and never waits for the listener
+ *
+ * <p>The slots are allocated up front and reused, a slot only grows when a payload larger than any
+ * before it is received. Frames received while the queue is full are dropped and counted, keeping
+ * the frames already queued
+ *
+ * <p>The consumer side is lock free. Offers are synchronized so that a listener receiving from
+ * several ports stays safe, but in practice each listener receives from one port and the lock is
+ * never contended. Only one thread drains the queue at a time, another thread trying meanwhile
+ * returns at once instead of waiting for the listener
+ */
+class FrameQueue {
+
+  static final int CAPACITY = 16;
+  private static final int MASK = CAPACITY - 1;
+  private static final int INITIAL_SLOT_SIZE = 64;
+
+  private final byte[][] payloads = new byte[CAPACITY][];
+  private final ByteBuffer[] views = new ByteBuffer[CAPACITY];
+  private final int[] lengths = new int[CAPACITY];
+  private final long[] timestamps = new long[CAPACITY];
+  private final ArduinoSerial[] ports = new ArduinoSerial[CAPACITY];
+
+  /** Position of the next frame to take, only written by the consumer */
+  private volatile long head = 0;
+  /** Position of the next frame to offer, only written by producers */
+  private volatile long tail = 0;
+
+  private volatile long droppedFrames = 0;
+  private final AtomicBoolean draining = new AtomicBoolean();
+
+  /** Constructs an empty queue */
+  FrameQueue() {
+    for (int i = 0; i < CAPACITY; i++) {
+      setSlotSize(i, INITIAL_SLOT_SIZE);
+    }
+  }
+
+  /**
+   * Copies a frame into the queue
+   *
+   * @param serial Port the frame was received by
+   * @param payload Payload between its position and limit, which are left unchanged
+   * @param timestamp FPGA time in microseconds at which the data was measured
+   * @return <code>false</code> if the queue was full and the frame was dropped
+   */
+  synchronized boolean offer(ArduinoSerial serial, ByteBuffer payload, long timestamp) {
+    long position = tail;
+    if (position - head >= CAPACITY) {
+      droppedFrames++;
+      return false;
+    }
+    int slot = (int) position & MASK;
+    int length = payload.remaining();
+    if (payloads[slot].length < length) {
+      setSlotSize(slot, Integer.highestOneBit(length - 1) << 1);
+    }
+    int start = payload.position();
+    payload.get(payloads[slot], 0, length);
+    payload.position(start);
+    lengths[slot] = length;
+    timestamps[slot] = timestamp;
+    ports[slot] = serial;
+    tail = position + 1;
+    return true;
+  }
+
+  /**
+   * Passes every queued frame to the listener in the order received
+   *
+   * <p>Returns at once if another thread is draining the queue, leaving the frames to that thread
+   * or to the next call, so the listener is never called concurrently
+   *
+   * @param listener Listener the queue belongs to
+   * @return Number of frames passed
+   */
+  int drain(ArduinoListener listener) {
+    if (!draining.compareAndSet(false, true)) return 0;
+    try {
+      long start = head;
+      long end = tail;
+      for (long position = start; position < end; position++) {
+        int slot = (int) position & MASK;
+        ArduinoSerial serial = ports[slot];
+        ByteBuffer view = views[slot];
+        view.limit(lengths[slot]);
+        view.position(0);
+        listener.savePort(serial);
+        listener.setLastReceived(timestamps[slot]);
+        long callbackStart = System.nanoTime();
+        try {
+          listener.receiveData(serial, view);
+        } catch (RuntimeException e) {
+          System.err.println("Listener " + listener.getClass().getSimpleName() + " failed");
+          e.printStackTrace();
+        }
+        serial.getStats().recordCallbackTime((System.nanoTime() - callbackStart) / 1000);
+        ports[slot] = null;
+        head = position + 1;
+      }
+      return (int) (end - start);
+    } finally {
+      draining.set(false);
+    }
+  }
+
+  /**
+   * Returns the number of frames waiting to be passed to the listener
+   *
+   * @return Queued frame count
+   */
+  int size() {
+    return (int) (tail - head);
+  }
+
+  /**
+   * Returns the number of frames dropped because the queue was full
+   *
+   * @return Dropped frame count
+   */
+  long getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  /**
+   * Internal method to replace the buffer of a slot, only called by the thread owning the slot
+   *
+   * @param slot Slot index
+   * @param size New size in bytes
+   */
+  private void setSlotSize(int slot, int size) {
+    payloads[slot] = new byte[size];
+    views[slot] = ByteBuffer.wrap(payloads[slot]).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
@@ -0,0 +1,82 @@
+package com.chargerrobotics.utils;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+/**
+ * {@link SerialTransport} backed by a jSerialComm {@link SerialPort}
+ *
+ * <p>Serial Settings: 115200 baud, 8 data bits, 1 stop bit, no parity. The baud rate can be raised
+ * to 2M once the device agrees, see {@link ArduinoSerial#negotiateBaudRate()}
+ *
+ * <p>Reads are semi-blocking: the native read waits for the first byte instead of spinning
+ */
+public class JSerialCommTransport implements SerialTransport {
+
+  private static final int READ_TIMEOUT = 5;
+  private static final int MAX_BAUD_RATE = 2000000;
+
+  private final SerialPort serial;
+  private UsbIdentity identity = null;
+  private boolean identityRead = false;
+
+  /**
+   * Constructs a new transport on the given COM port
+   *
+   * @param serial COM port
+   */
+  public JSerialCommTransport(SerialPort serial) {
+    this.serial = serial;
+    serial.setComPortParameters(
+        DEFAULT_BAUD_RATE, 8, SerialPort.ONE_STOP_BIT, SerialPort.NO_PARITY);
+    serial.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING, READ_TIMEOUT, 0);
+  }
+
+  @Override
+  public String getName() {
+    return serial.getSystemPortName();
+  }
+
+  @Override
+  public synchronized UsbIdentity getIdentity() {
+    if (!identityRead) {
+      identity = UsbIdentity.forPort(getName());
+      identityRead = true;
+    }
+    return identity;
+  }
+
+  @Override
+  public boolean open() {
+    return serial.openPort();
+  }
+
+  @Override
+  public void close() {
+    serial.closePort();
+  }
+
+  @Override
+  public int getMaxBaudRate() {
+    return MAX_BAUD_RATE;
+  }
+
+  @Override
+  public boolean setBaudRate(int baudRate) {
+    return serial.setBaudRate(baudRate);
+  }
+
+  @Override
+  public int readBytes(byte[] buffer, int offset, int length) {
+    return serial.readBytes(buffer, length, offset);
+  }
+
+  @Override
+  public int writeBytes(byte[] buffer, int offset, int length) {
+    return serial.writeBytes(buffer, length, offset);
+  }
+
+  @Override
+  public String toString() {
+    return serial.toString();
+  }
+}
@@ -0,0 +1,100 @@
+package com.chargerrobotics.utils;
+
+/**
+ * Histogram of durations in microseconds backed by a pre-allocated array
+ *
+ * <p>Durations under 16us are counted exactly. Longer ones fall in one of 8 buckets per power of
+ * two, so a percentile is reported at most 12.5% above the true value
+ *
+ * <p>Recording does not allocate or lock. Counts are read without locking, so a duration recorded
+ * while a percentile is computed or the histogram is reset may be missed
+ */
+public class LatencyHistogram {
+
+  private static final int LINEAR_BUCKETS = 16;
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS =
+      LINEAR_BUCKETS + (63 - Integer.numberOfTrailingZeros(LINEAR_BUCKETS)) * SUB_BUCKETS;
+
+  private final long[] counts = new long[BUCKETS];
+  private volatile long count = 0;
+
+  /**
+   * Records a duration
+   *
+   * @param micros Duration in microseconds, negative durations count as 0
+   */
+  public void record(long micros) {
+    counts[getBucket(Math.max(micros, 0))]++;
+    count++;
+  }
+
+  /**
+   * Returns the number of durations recorded since the last reset
+   *
+   * @return Number of durations
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the duration that the given fraction of recorded durations do not exceed
+   *
+   * @param fraction Fraction between 0 and 1, 0.99 for the 99th percentile
+   * @return Duration in microseconds, or 0 if nothing has been recorded
+   */
+  public long getPercentile(double fraction) {
+    long total = 0;
+    for (long bucketCount : counts) {
+      total += bucketCount;
+    }
+    long target = Math.max(1, (long) Math.ceil(fraction * total));
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += counts[bucket];
+      if (seen >= target) {
+        return getLowerBound(bucket + 1) - 1;
+      }
+    }
+    return 0;
+  }
+
+  /** Clears all recorded durations */
+  public void reset() {
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      counts[bucket] = 0;
+    }
+    count = 0;
+  }
+
+  /**
+   * Internal method to find the bucket of a duration
+   *
+   * @param micros Duration in microseconds, not negative
+   * @return Bucket index
+   */
+  private static int getBucket(long micros) {
+    if (micros < LINEAR_BUCKETS) return (int) micros;
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    int firstExponent = Integer.numberOfTrailingZeros(LINEAR_BUCKETS);
+    return LINEAR_BUCKETS + (exponent - firstExponent) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Internal method to find the smallest duration in a bucket
+   *
+   * @param bucket Bucket index
+   * @return Duration in microseconds
+   */
+  private static long getLowerBound(int bucket) {
+    if (bucket < LINEAR_BUCKETS) return bucket;
+    int exponent =
+        (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + Integer.numberOfTrailingZeros(LINEAR_BUCKETS);
+    int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+    if (exponent >= 63) return Long.MAX_VALUE;
+    return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+  }
+}
@@ -0,0 +1,97 @@
+package com.chargerrobotics.utils;
+
+import com.chargerrobotics.utils.ArduinoSerialReceiver.ArduinoListener;
+import java.nio.ByteBuffer;
+
+/**
+ * Listener whose messages are decoded by a {@link MessageLayout} into a {@link SensorSnapshot}, so
+ * a sensor only declares its layout and reads its fields
+ *
+ * <p>Payloads shorter than the layout are ignored. Fields read after the data has expired give the
+ * value chosen by the sensor instead
+ */
+public abstract class LayoutListener extends ArduinoListener {
+
+  private final MessageLayout layout;
+  private final SensorSnapshot snapshot;
+
+  /**
+   * Constructs a listener decoding messages with the given layout
+   *
+   * @param layout Layout of the payload
+   * @param expiry Time in milliseconds after which received data is expired
+   * @param priority How often the port is polled relative to the expiry time
+   */
+  public LayoutListener(MessageLayout layout, long expiry, Priority priority) {
+    super(expiry, priority);
+    this.layout = layout;
+    this.snapshot = layout.createSnapshot();
+  }
+
+  @Override
+  public final void receiveData(ArduinoSerial serial, ByteBuffer data) {
+    if (layout.decode(data, snapshot, getLastTimestamp(), getLastMessageTime())) {
+      onMessage(serial);
+    }
+  }
+
+  /**
+   * Called after each message has been decoded, on the thread passing data to listeners
+   *
+   * @param serial Serial object that the data was received by
+   */
+  protected void onMessage(ArduinoSerial serial) {}
+
+  /**
+   * Returns the snapshot messages are decoded into
+   *
+   * @return Snapshot
+   */
+  protected SensorSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Copies every field of the last message
+   *
+   * @param reading Reading to copy into, reused between calls
+   * @return <code>true</code> if the message has not expired
+   */
+  public boolean read(SensorSnapshot.Reading reading) {
+    snapshot.read(reading);
+    return !isExpired(reading);
+  }
+
+  /**
+   * Gets a field of the last message
+   *
+   * @param field Field index in the layout
+   * @param expiredValue Value returned if the data has expired
+   * @return Value
+   */
+  protected float getFloat(int field, float expiredValue) {
+    return isExpired() ? expiredValue : snapshot.getFloat(field);
+  }
+
+  /**
+   * Gets a field of the last message
+   *
+   * @param field Field index in the layout
+   * @param expiredValue Value returned if the data has expired
+   * @return Value
+   */
+  protected double getDouble(int field, double expiredValue) {
+    return isExpired() ? expiredValue : snapshot.getDouble(field);
+  }
+
+  /**
+   * Gets an integer field of the last message
+   *
+   * @param field Field index in the layout
+   * @param expiredValue Value returned if the data has expired
+   * @return Value
+   */
+  protected long getLong(int field, long expiredValue) {
+    return isExpired() ? expiredValue : snapshot.getLong(field);
+  }
+}
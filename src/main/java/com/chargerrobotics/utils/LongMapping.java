@@ -0,0 +1,178 @@
+package com.chargerrobotics.utils;
+
+import edu.wpi.first.networktables.NetworkTableValue;
+import java.util.function.LongConsumer;
+
+/**
+ * {@link NetworkMapping} of a whole number, read without unboxing or allocating
+ *
+ * <p>NetworkTables has no integer type, so the value is published as a double and updates are
+ * rounded
+ *
+ * @see PrimitiveMapping
+ */
+public class LongMapping extends PrimitiveMapping {
+
+  private final long defaultValue;
+  private volatile long value;
+  private volatile long pending;
+  private final Runnable runnable;
+  private final LongConsumer consumer;
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   */
+  public LongMapping(String identifier, long defaultValue) {
+    this(identifier, defaultValue, null, null, false);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Runnable will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param runnable Runnable to be run when value is updated
+   */
+  public LongMapping(String identifier, long defaultValue, Runnable runnable) {
+    this(identifier, defaultValue, runnable, false);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Runnable will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param runnable Runnable to be run when value is updated
+   * @param runFirstTime If true, update runnable will also be run at initialization
+   */
+  public LongMapping(
+      String identifier, long defaultValue, Runnable runnable, boolean runFirstTime) {
+    this(identifier, defaultValue, runnable, null, runFirstTime);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Consumer will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param consumer Consumer to be run when value is updated - New value is passed to consumer
+   */
+  public LongMapping(String identifier, long defaultValue, LongConsumer consumer) {
+    this(identifier, defaultValue, consumer, false);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Consumer will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param consumer Consumer to be run when value is updated - New value is passed to consumer
+   * @param runFirstTime If true, update consumer will also be run at initialization
+   */
+  public LongMapping(
+      String identifier, long defaultValue, LongConsumer consumer, boolean runFirstTime) {
+    this(identifier, defaultValue, null, consumer, runFirstTime);
+  }
+
+  private LongMapping(
+      String identifier,
+      long defaultValue,
+      Runnable runnable,
+      LongConsumer consumer,
+      boolean runFirstTime) {
+    super(identifier);
+    this.defaultValue = defaultValue;
+    this.runnable = runnable;
+    this.consumer = consumer;
+    Object saved = getSavedValue();
+    value = saved instanceof Number ? ((Number) saved).longValue() : defaultValue;
+    entry.forceSetDouble(value);
+    if (runFirstTime) runUpdate();
+    listen();
+  }
+
+  @Override
+  protected boolean store(NetworkTableValue value) {
+    if (!value.isDouble()) return false;
+    pending = Math.round(value.getDouble());
+    return true;
+  }
+
+  @Override
+  void receiveSaved(Object value) {
+    if (!(value instanceof Number)) return;
+    pending = ((Number) value).longValue();
+    entry.forceSetDouble(pending);
+    queue();
+  }
+
+  @Override
+  protected boolean commit() {
+    long next = pending;
+    if (next == value) return false;
+    value = next;
+    return true;
+  }
+
+  @Override
+  protected Object getBoxedValue() {
+    return value;
+  }
+
+  /**
+   * Resets the value to default
+   *
+   * @return Default value of mapping
+   */
+  public long reset() {
+    setValue(defaultValue);
+    return value;
+  }
+
+  /**
+   * Gets the current value
+   *
+   * @return Current value of mapping
+   */
+  public long getValue() {
+    return value;
+  }
+
+  /**
+   * Sets the current value to NetworkTables
+   *
+   * @param value Value to set
+   */
+  public void setValue(long value) {
+    setValue(value, false);
+  }
+
+  /**
+   * Sets the current value to NetworkTables
+   *
+   * @param value Value to set
+   * @param runUpdate If true, runs update callback if given
+   */
+  public void setValue(long value, boolean runUpdate) {
+    entry.forceSetDouble(value);
+    this.value = value;
+    if (runUpdate) runUpdate();
+  }
+
+  @Override
+  public void runUpdate() {
+    if (consumer != null) consumer.accept(value);
+    else if (runnable != null) runnable.run();
+  }
+}
@@ -0,0 +1,92 @@
+package com.chargerrobotics.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mappings whose updates are applied together, such as the gains of a PID controller
+ *
+ * <p>Updates to the members wait until none has been updated for the settle time, then every member
+ * takes its latest value before any of their callbacks run. Tuning P, I and D one after another
+ * therefore applies the whole set at once, and each changed gain is written once
+ *
+ * <pre>
+ * new MappingGroup().add(kP, kI, kD);
+ * </pre>
+ */
+public class MappingGroup {
+
+  private static final long DEFAULT_SETTLE_TIME = 200;
+
+  private final long settleTime;
+  private final List<QueuedMapping> staged = new ArrayList<QueuedMapping>();
+  private long lastUpdate = 0;
+  private boolean waiting = false;
+
+  /** Constructs a group applying its updates once they have settled for 200 milliseconds */
+  public MappingGroup() {
+    this(DEFAULT_SETTLE_TIME);
+  }
+
+  /**
+   * Constructs a group
+   *
+   * @param settleTime Time in milliseconds without updates before they are applied
+   */
+  public MappingGroup(long settleTime) {
+    this.settleTime = settleTime;
+  }
+
+  /**
+   * Adds mappings to the group
+   *
+   * @param mappings Mappings, each in at most one group
+   * @return This group
+   */
+  public MappingGroup add(QueuedMapping... mappings) {
+    for (QueuedMapping mapping : mappings) {
+      mapping.setGroup(this);
+    }
+    return this;
+  }
+
+  /**
+   * Internal method to hold a queued member until the group is applied
+   *
+   * @param mapping Member
+   * @param now Time in milliseconds
+   * @return <code>true</code> if the group was not already waiting to be applied
+   */
+  boolean stage(QueuedMapping mapping, long now) {
+    lastUpdate = now;
+    if (!mapping.staged) {
+      mapping.staged = true;
+      staged.add(mapping);
+    }
+    boolean wasWaiting = waiting;
+    waiting = true;
+    return !wasWaiting;
+  }
+
+  /**
+   * Internal method to apply the held members once their updates have settled
+   *
+   * @param now Time in milliseconds
+   * @return <code>true</code> if applied, <code>false</code> if still waiting
+   */
+  boolean applyIfSettled(long now) {
+    if (now - lastUpdate < settleTime) return false;
+    for (int i = 0; i < staged.size(); i++) {
+      QueuedMapping mapping = staged.get(i);
+      mapping.staged = false;
+      mapping.changed = mapping.applyPending();
+    }
+    for (int i = 0; i < staged.size(); i++) {
+      QueuedMapping mapping = staged.get(i);
+      if (mapping.changed) mapping.runUpdate();
+    }
+    staged.clear();
+    waiting = false;
+    return true;
+  }
+}
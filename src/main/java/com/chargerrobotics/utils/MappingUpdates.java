@@ -0,0 +1,60 @@
+package com.chargerrobotics.utils;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Applies the NetworkTables updates of every mapping on the main loop, see {@link QueuedMapping}
+ *
+ * <p>{@link #apply()} is called at the start of each robot loop, so callbacks such as CAN writes
+ * run on the main thread between loops and never race the code reading the values
+ */
+public final class MappingUpdates {
+
+  private static final ConcurrentLinkedQueue<QueuedMapping> queue =
+      new ConcurrentLinkedQueue<QueuedMapping>();
+  /** Groups holding updates until they settle, used only by the main loop */
+  private static final List<MappingGroup> waitingGroups = new ArrayList<MappingGroup>();
+
+  private MappingUpdates() {}
+
+  /**
+   * Internal method to queue a mapping, called by the listener thread
+   *
+   * @param mapping Mapping with a new value
+   */
+  static void offer(QueuedMapping mapping) {
+    queue.offer(mapping);
+  }
+
+  /** Applies the updates received since the last call, to be called from the main loop */
+  public static void apply() {
+    apply(System.currentTimeMillis());
+  }
+
+  /**
+   * Applies the updates received since the last call
+   *
+   * @param now Time in milliseconds, compared against the settle time of groups
+   */
+  @VisibleForTesting
+  public static void apply(long now) {
+    QueuedMapping mapping;
+    while ((mapping = queue.poll()) != null) {
+      mapping.dequeue();
+      MappingGroup group = mapping.getGroup();
+      if (group == null) {
+        if (mapping.applyPending()) mapping.runUpdate();
+      } else if (group.stage(mapping, now)) {
+        waitingGroups.add(group);
+      }
+    }
+    for (int i = waitingGroups.size() - 1; i >= 0; i--) {
+      if (waitingGroups.get(i).applyIfSettled(now)) {
+        waitingGroups.remove(i);
+      }
+    }
+  }
+}
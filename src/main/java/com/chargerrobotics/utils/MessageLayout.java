@@ -0,0 +1,169 @@
+package com.chargerrobotics.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the payload of an Arduino message, a fixed sequence of little endian primitive fields
+ *
+ * <p>Decoding reads each field straight from the receive buffer into a {@link SensorSnapshot},
+ * field <code>i</code> of the layout becoming field <code>i</code> of the snapshot. The offsets and
+ * types are resolved when the layout is declared, so decoding is a loop over arrays that does not
+ * allocate or use reflection
+ *
+ * <p>Declaring the layout of the gyro message:
+ *
+ * <pre>
+ * MessageLayout.of(Type.FLOAT, Type.FLOAT, Type.FLOAT)
+ * </pre>
+ *
+ * @see LayoutListener
+ */
+public class MessageLayout {
+
+  /** Type of a field, integer fields are read with {@link SensorSnapshot#getLong(int)} */
+  public enum Type {
+    INT8(1),
+    UINT8(1),
+    INT16(2),
+    UINT16(2),
+    INT32(4),
+    UINT32(4),
+    INT64(8),
+    FLOAT(4),
+    DOUBLE(8);
+
+    private final int size;
+
+    private Type(int size) {
+      this.size = size;
+    }
+
+    /**
+     * Returns the size of the field in the payload
+     *
+     * @return Size in bytes
+     */
+    public int getSize() {
+      return size;
+    }
+  }
+
+  private final Type[] types;
+  private final int[] offsets;
+  private final int length;
+
+  /**
+   * Internal constructor, see {@link #of(Type...)}
+   *
+   * @param types Type of each field in payload order
+   */
+  private MessageLayout(Type[] types) {
+    this.types = types.clone();
+    offsets = new int[types.length];
+    int offset = 0;
+    for (int i = 0; i < types.length; i++) {
+      offsets[i] = offset;
+      offset += types[i].size;
+    }
+    length = offset;
+  }
+
+  /**
+   * Declares a layout
+   *
+   * @param types Type of each field in payload order
+   * @return Layout
+   */
+  public static MessageLayout of(Type... types) {
+    return new MessageLayout(types);
+  }
+
+  /**
+   * Returns the number of fields
+   *
+   * @return Field count
+   */
+  public int getFieldCount() {
+    return types.length;
+  }
+
+  /**
+   * Returns the type of a field
+   *
+   * @param field Field index
+   * @return Type
+   */
+  public Type getType(int field) {
+    return types[field];
+  }
+
+  /**
+   * Returns the size of a payload with this layout, longer payloads have their extra bytes ignored
+   *
+   * @return Length in bytes
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Creates a snapshot with a field for each field of the layout
+   *
+   * @return Snapshot
+   */
+  public SensorSnapshot createSnapshot() {
+    return new SensorSnapshot(types.length);
+  }
+
+  /**
+   * Decodes a payload and publishes its fields in the snapshot
+   *
+   * <p>Reads relative to the payload position without moving it
+   *
+   * @param payload Little endian payload
+   * @param snapshot Snapshot created by {@link #createSnapshot()}
+   * @param timestamp FPGA time in microseconds at which the data was measured
+   * @param receivedTime UNIX time in milliseconds at which the message was received
+   * @return <code>false</code> if the payload was too short and nothing was published
+   */
+  public boolean decode(
+      ByteBuffer payload, SensorSnapshot snapshot, long timestamp, long receivedTime) {
+    if (payload.remaining() < length) return false;
+    int base = payload.position();
+    snapshot.beginWrite();
+    for (int i = 0; i < types.length; i++) {
+      int index = base + offsets[i];
+      switch (types[i]) {
+        case INT8:
+          snapshot.setLong(i, payload.get(index));
+          break;
+        case UINT8:
+          snapshot.setLong(i, payload.get(index) & 0xff);
+          break;
+        case INT16:
+          snapshot.setLong(i, payload.getShort(index));
+          break;
+        case UINT16:
+          snapshot.setLong(i, payload.getShort(index) & 0xffff);
+          break;
+        case INT32:
+          snapshot.setLong(i, payload.getInt(index));
+          break;
+        case UINT32:
+          snapshot.setLong(i, payload.getInt(index) & 0xffffffffL);
+          break;
+        case INT64:
+          snapshot.setLong(i, payload.getLong(index));
+          break;
+        case FLOAT:
+          snapshot.setFloat(i, payload.getFloat(index));
+          break;
+        case DOUBLE:
+          snapshot.setDouble(i, payload.getDouble(index));
+          break;
+      }
+    }
+    snapshot.endWrite(timestamp, receivedTime);
+    return true;
+  }
+}
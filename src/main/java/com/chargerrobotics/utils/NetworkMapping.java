@@ -1,187 +1,223 @@
 package com.chargerrobotics.utils;
 
-import java.util.function.Consumer;
-
+import com.google.common.annotations.VisibleForTesting;
 import edu.wpi.first.networktables.EntryListenerFlags;
 import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableValue;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 /**
  * Class for updating settings in robot without needing to push new code
- * 
- * @author     Josh Otake
  *
- * @param  <K> Data stored in mapping
+ * <p>Updates from NetworkTables are applied on the main loop, see {@link QueuedMapping}
+ *
+ * @author Josh Otake
+ * @param <K> Data stored in mapping
  */
-public class NetworkMapping<K> {
-
-	private final NetworkTableEntry entry;
-	private K defaultValue;
-	private K value;
-	private final Runnable runnable;
-	private final Consumer<K> consumer;
-
-	/**
-	 * Initializes new configurable mapping
-	 * 
-	 * @param identifier   NetworkTables identifier for value
-	 * @param defaultValue Default value of mapping
-	 */
-	public NetworkMapping(String identifier, K defaultValue) {
-		this(identifier, defaultValue, (Runnable) null);
-	}
-
-	/**
-	 * Initializes new configurable mapping
-	 * 
-	 * Runnable will be run each time the value is updated
-	 * 
-	 * @param identifier   NetworkTables identifier for value
-	 * @param defaultValue Default value of mapping
-	 * @param runnable     Runnable to be run when value is updated
-	 */
-	public NetworkMapping(String identifier, K defaultValue, Runnable runnable) {
-		this(identifier, defaultValue, runnable, false);
-	}
-
-	/**
-	 * Initializes new configurable mapping
-	 * 
-	 * Runnable will be run each time the value is updated
-	 * 
-	 * @param identifier   NetworkTables identifier for value
-	 * @param defaultValue Default value of mapping
-	 * @param runnable     Runnable to be run when value is updated
-	 * @param runFirstTime If true, update runnable will also be run at
-	 *                         initialization
-	 */
-	@SuppressWarnings("unchecked")
-	public NetworkMapping(String identifier, K defaultValue, Runnable runnable, boolean runFirstTime) {
-		entry = Config.table.getEntry(identifier);
-		this.defaultValue = defaultValue;
-		Object conf = Config.getConfig().get(identifier);
-		if (conf != null)
-			defaultValue = (K) conf;
-		entry.forceSetValue(defaultValue);
-		value = defaultValue;
-		this.runnable = runnable;
-		this.consumer = null;
-		if (runnable != null && runFirstTime)
-			runnable.run();
-		entry.addListener(runnable != null ? e -> {
-			value = (K) e.value.getValue();
-			Config.getConfig().set(identifier, value);
-			Config.save();
-			this.runnable.run();
-		} : e -> {
-			value = (K) e.value.getValue();
-			Config.getConfig().set(identifier, value);
-			Config.save();
-		}, EntryListenerFlags.kUpdate);
-	}
-
-	/**
-	 * Initializes new configurable mapping
-	 * 
-	 * Runnable will be run each time the value is updated
-	 * 
-	 * @param identifier   NetworkTables identifier for value
-	 * @param defaultValue Default value of mapping
-	 * @param consumer     Consumer to be run when value is updated - New value
-	 *                         is passed to consumer
-	 */
-	public NetworkMapping(String identifier, K defaultValue, Consumer<K> consumer) {
-		this(identifier, defaultValue, consumer, false);
-	}
-
-	/**
-	 * Initializes new configurable mapping
-	 * 
-	 * Runnable will be run each time the value is updated
-	 * 
-	 * @param identifier   NetworkTables identifier for value
-	 * @param defaultValue Default value of mapping
-	 * @param consumer     Consumer to be run when value is updated - New value
-	 *                         is passed to consumer
-	 * @param runFirstTime If true, update runnable will also be run at
-	 *                         initialization
-	 */
-	@SuppressWarnings("unchecked")
-	public NetworkMapping(String identifier, K defaultValue, Consumer<K> consumer, boolean runFirstTime) {
-		entry = Config.table.getEntry(identifier);
-		this.defaultValue = defaultValue;
-		Object conf = Config.getConfig().get(identifier);
-		if (conf != null)
-			defaultValue = (K) conf;
-		entry.forceSetValue(defaultValue);
-		value = defaultValue;
-		this.consumer = consumer;
-		this.runnable = null;
-		if (consumer != null && runFirstTime)
-			consumer.accept(value);
-		entry.addListener(consumer != null ? e -> {
-			value = (K) e.value.getValue();
-			Config.getConfig().set(identifier, value);
-			Config.save();
-			this.consumer.accept(value);
-		} : e -> {
-			value = (K) e.value.getValue();
-			Config.getConfig().set(identifier, value);
-			Config.save();
-		}, EntryListenerFlags.kUpdate);
-	}
-
-	/**
-	 * Resets the value to default
-	 * 
-	 * @return Default value of mapping
-	 */
-	public K reset() {
-		setValue(defaultValue);
-		return value;
-	}
-
-	/**
-	 * Gets the current value
-	 * 
-	 * @return Current value of mapping
-	 */
-	public K getValue() {
-		return value;
-	}
-
-	/**
-	 * Sets the current value to NetworkTables
-	 * 
-	 * @param value Value to set
-	 */
-	public void setValue(K value) {
-		setValue(value, false);
-	}
-
-	/**
-	 * Sets the current value to NetworkTables
-	 * 
-	 * @param value     Value to set
-	 * @param runUpdate If true, runs update runnable if given
-	 */
-	public void setValue(K value, boolean runUpdate) {
-		entry.forceSetValue(value);
-		this.value = value;
-		if (runUpdate)
-			if (consumer != null)
-				consumer.accept(value);
-			else
-				runnable.run();
-	}
-
-	/**
-	 * Manually run update runnable if given
-	 */
-	public void runUpdate() {
-		if (consumer != null)
-			consumer.accept(value);
-		else if (runnable != null)
-			runnable.run();
-	}
+public class NetworkMapping<K> extends QueuedMapping {
+
+  private final String identifier;
+  private final NetworkTableEntry entry;
+  private K defaultValue;
+  private volatile K value;
+  private volatile K pending;
+  private final Runnable runnable;
+  private final Consumer<K> consumer;
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   */
+  public NetworkMapping(String identifier, K defaultValue) {
+    this(identifier, defaultValue, (Runnable) null);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Runnable will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param runnable Runnable to be run when value is updated
+   */
+  public NetworkMapping(String identifier, K defaultValue, Runnable runnable) {
+    this(identifier, defaultValue, runnable, false);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Runnable will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param runnable Runnable to be run when value is updated
+   * @param runFirstTime If true, update runnable will also be run at initialization
+   */
+  @SuppressWarnings("unchecked")
+  public NetworkMapping(
+      String identifier, K defaultValue, Runnable runnable, boolean runFirstTime) {
+    this.identifier = identifier;
+    entry = Config.table.getEntry(identifier);
+    Config.register(identifier, this);
+    this.defaultValue = defaultValue;
+    Object conf = coerce(Config.getConfig().get(identifier));
+    if (conf != null) defaultValue = (K) conf;
+    entry.forceSetValue(defaultValue);
+    value = defaultValue;
+    this.runnable = runnable;
+    this.consumer = null;
+    if (runnable != null && runFirstTime) runnable.run();
+    entry.addListener(e -> receive(e.value), EntryListenerFlags.kUpdate);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Runnable will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param consumer Consumer to be run when value is updated - New value is passed to consumer
+   */
+  public NetworkMapping(String identifier, K defaultValue, Consumer<K> consumer) {
+    this(identifier, defaultValue, consumer, false);
+  }
+
+  /**
+   * Initializes new configurable mapping
+   *
+   * <p>Runnable will be run each time the value is updated
+   *
+   * @param identifier NetworkTables identifier for value
+   * @param defaultValue Default value of mapping
+   * @param consumer Consumer to be run when value is updated - New value is passed to consumer
+   * @param runFirstTime If true, update runnable will also be run at initialization
+   */
+  @SuppressWarnings("unchecked")
+  public NetworkMapping(
+      String identifier, K defaultValue, Consumer<K> consumer, boolean runFirstTime) {
+    this.identifier = identifier;
+    entry = Config.table.getEntry(identifier);
+    Config.register(identifier, this);
+    this.defaultValue = defaultValue;
+    Object conf = coerce(Config.getConfig().get(identifier));
+    if (conf != null) defaultValue = (K) conf;
+    entry.forceSetValue(defaultValue);
+    value = defaultValue;
+    this.consumer = consumer;
+    this.runnable = null;
+    if (consumer != null && runFirstTime) consumer.accept(value);
+    entry.addListener(e -> receive(e.value), EntryListenerFlags.kUpdate);
+  }
+
+  /**
+   * Resets the value to default
+   *
+   * @return Default value of mapping
+   */
+  public K reset() {
+    setValue(defaultValue);
+    return value;
+  }
+
+  /**
+   * Gets the current value
+   *
+   * @return Current value of mapping
+   */
+  public K getValue() {
+    return value;
+  }
+
+  /**
+   * Sets the current value to NetworkTables
+   *
+   * @param value Value to set
+   */
+  public void setValue(K value) {
+    setValue(value, false);
+  }
+
+  /**
+   * Sets the current value to NetworkTables
+   *
+   * @param value Value to set
+   * @param runUpdate If true, runs update runnable if given
+   */
+  public void setValue(K value, boolean runUpdate) {
+    entry.forceSetValue(value);
+    this.value = value;
+    if (runUpdate)
+      if (consumer != null) consumer.accept(value);
+      else runnable.run();
+  }
+
+  /**
+   * Stores an update received from NetworkTables and queues it to be applied
+   *
+   * @param value New value
+   */
+  @VisibleForTesting
+  @SuppressWarnings("unchecked")
+  public void receive(NetworkTableValue value) {
+    pending = (K) value.getValue();
+    queue();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  void receiveSaved(Object value) {
+    Object saved = coerce(value);
+    if (saved == null) {
+      System.err.println("Ignoring config value of the wrong type for: " + identifier);
+      return;
+    }
+    pending = (K) saved;
+    entry.forceSetValue(saved);
+    queue();
+  }
+
+  /**
+   * Internal method to convert a saved value to the type of the default value, as the file may
+   * hold a whole number such as <code>1</code> for a decimal mapping
+   *
+   * @param value Saved value
+   * @return Value of the mapping's type, or <code>null</code> if there is none or it has another
+   *     type
+   */
+  private Object coerce(Object value) {
+    if (value == null || defaultValue == null || defaultValue.getClass().isInstance(value)) {
+      return value;
+    }
+    if (!(value instanceof Number)) return null;
+    Number number = (Number) value;
+    if (defaultValue instanceof Double) return number.doubleValue();
+    if (defaultValue instanceof Float) return number.floatValue();
+    if (defaultValue instanceof Long) return number.longValue();
+    if (defaultValue instanceof Integer) return number.intValue();
+    if (defaultValue instanceof Short) return number.shortValue();
+    if (defaultValue instanceof Byte) return number.byteValue();
+    return null;
+  }
+
+  @Override
+  boolean applyPending() {
+    K next = pending;
+    if (Objects.equals(next, value)) return false;
+    value = next;
+    Config.set(identifier, value);
+    return true;
+  }
 
+  /** Manually run update runnable if given */
+  @Override
+  public void runUpdate() {
+    if (consumer != null) consumer.accept(value);
+    else if (runnable != null) runnable.run();
+  }
 }
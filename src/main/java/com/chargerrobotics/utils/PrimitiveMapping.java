@@ -0,0 +1,84 @@
+package com.chargerrobotics.utils;
+
+import com.google.common.annotations.VisibleForTesting;
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableValue;
+
+/**
+ * Base of the {@link NetworkMapping} variants holding a primitive, so reading the value on the hot
+ * path is a single volatile load that does not unbox or allocate
+ *
+ * <p>Updates from NetworkTables are read with the typed getter of the value and queued, then saved
+ * to the config and passed to the update callback when applied, see {@link QueuedMapping}. Updates
+ * of the wrong type are ignored
+ */
+abstract class PrimitiveMapping extends QueuedMapping {
+
+  protected final String identifier;
+  protected final NetworkTableEntry entry;
+
+  /**
+   * Constructs a mapping on the entry with the given identifier
+   *
+   * @param identifier NetworkTables identifier for value
+   */
+  PrimitiveMapping(String identifier) {
+    this.identifier = identifier;
+    this.entry = Config.table.getEntry(identifier);
+    Config.register(identifier, this);
+  }
+
+  /**
+   * Internal method to get the value saved in the config
+   *
+   * @return Saved value, or <code>null</code> if none was saved
+   */
+  protected Object getSavedValue() {
+    return Config.getConfig().get(identifier);
+  }
+
+  /** Internal method to start receiving updates, called once the value has been initialised */
+  protected void listen() {
+    entry.addListener(e -> receive(e.value), EntryListenerFlags.kUpdate);
+  }
+
+  /**
+   * Stores an update received from NetworkTables and queues it to be applied
+   *
+   * @param value New value
+   */
+  @VisibleForTesting
+  public void receive(NetworkTableValue value) {
+    if (store(value)) queue();
+  }
+
+  @Override
+  boolean applyPending() {
+    if (!commit()) return false;
+    Config.set(identifier, getBoxedValue());
+    return true;
+  }
+
+  /**
+   * Internal method to store an update until it is applied
+   *
+   * @param value New value
+   * @return <code>false</code> if the value had the wrong type and was ignored
+   */
+  protected abstract boolean store(NetworkTableValue value);
+
+  /**
+   * Internal method to make the stored update the current value
+   *
+   * @return <code>true</code> if the value changed
+   */
+  protected abstract boolean commit();
+
+  /**
+   * Internal method to box the value for the config
+   *
+   * @return Boxed value
+   */
+  protected abstract Object getBoxedValue();
+}
@@ -0,0 +1,72 @@
+package com.chargerrobotics.utils;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Base of the mappings whose NetworkTables updates are queued and applied by {@link
+ * MappingUpdates#apply()} on the main loop, instead of on the NetworkTables listener thread
+ *
+ * <p>The listener thread only stores the latest value and queues the mapping unless it is already
+ * queued, so updates arriving between two loops are coalesced into one. Applying the value makes it
+ * visible to {@link #getValue()} style reads, saves it to the config and runs the update callback,
+ * skipped if the value did not change
+ */
+public abstract class QueuedMapping {
+
+  private final AtomicBoolean queued = new AtomicBoolean();
+  private volatile MappingGroup group = null;
+  /** Whether the mapping is waiting in its group, used only by the main loop */
+  boolean staged = false;
+  /** Whether applying the mapping changed its value, used only by the main loop */
+  boolean changed = false;
+
+  QueuedMapping() {}
+
+  /** Internal method to queue the mapping after the listener thread stored a new value */
+  protected void queue() {
+    if (queued.compareAndSet(false, true)) {
+      MappingUpdates.offer(this);
+    }
+  }
+
+  /** Internal method to allow queueing again, called before the stored value is read */
+  void dequeue() {
+    queued.set(false);
+  }
+
+  /**
+   * Internal method to make the stored value the current value and save it to the config
+   *
+   * @return <code>true</code> if the value changed
+   */
+  abstract boolean applyPending();
+
+  /**
+   * Internal method to store a value changed in the config file, publish it to NetworkTables and
+   * queue it to be applied like an update from NetworkTables
+   *
+   * @param value New value, ignored if of the wrong type
+   */
+  abstract void receiveSaved(Object value);
+
+  /**
+   * Returns the group the mapping is applied with
+   *
+   * @return Group, or <code>null</code> if applied on its own
+   */
+  MappingGroup getGroup() {
+    return group;
+  }
+
+  /**
+   * Sets the group the mapping is applied with
+   *
+   * @param group Group
+   */
+  void setGroup(MappingGroup group) {
+    this.group = group;
+  }
+
+  /** Manually run update callback if given */
+  public abstract void runUpdate();
+}
@@ -0,0 +1,151 @@
+package com.chargerrobotics.utils;
+
+import com.chargerrobotics.utils.ArduinoSerialReceiver.TimeSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link SerialTransport} that feeds the bytes recorded by a {@link SerialCapture} back to an
+ * {@link ArduinoSerial}, so that its decoder and listeners see them as they arrived on the robot
+ *
+ * <p>Each read returns at most one recorded read, either when it is due relative to the first
+ * one, or as fast as possible. Writes are discarded. Once every record has been read, reads time
+ * out as if the device had gone quiet
+ *
+ * <p>The transport is also a {@link TimeSource} giving the arrival time of the last record read,
+ * so that passing it to {@link ArduinoSerialReceiver#setTimeSource(TimeSource)} makes listeners see
+ * the recorded timestamps
+ */
+public class ReplayTransport implements SerialTransport, TimeSource {
+
+  private static final long READ_TIMEOUT = 5;
+
+  private final String name;
+  private final boolean realTime;
+  private final MappedByteBuffer buffer;
+  private final int end;
+  private volatile boolean open = false;
+  private volatile long time = 0;
+  private long firstTimestamp = 0;
+  private long replayStart = 0;
+  private int recordRemaining = 0;
+
+  /**
+   * Opens a capture for replay
+   *
+   * @param file Capture file
+   * @param realTime <code>true</code> to replay at the recorded pace, <code>false</code> to replay
+   *     as fast as possible
+   * @throws IOException If the file can not be read or is not a capture
+   */
+  public ReplayTransport(File file, boolean realTime) throws IOException {
+    this.name = file.getName();
+    this.realTime = realTime;
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      buffer =
+          randomAccessFile
+              .getChannel()
+              .map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.limit() < SerialCapture.FILE_HEADER_LENGTH
+        || buffer.getInt(0) != SerialCapture.MAGIC) {
+      throw new IOException(file + " is not a serial capture");
+    }
+    if (buffer.getShort(4) != SerialCapture.VERSION) {
+      throw new IOException(file + " has unsupported capture version " + buffer.getShort(4));
+    }
+    end = Math.min(buffer.getInt(SerialCapture.END_OFFSET), buffer.limit());
+    buffer.position(SerialCapture.FILE_HEADER_LENGTH);
+    if (buffer.position() + SerialCapture.RECORD_HEADER_LENGTH <= end) {
+      firstTimestamp = buffer.getLong(buffer.position());
+    }
+  }
+
+  /**
+   * Returns whether every recorded byte has been read
+   *
+   * @return <code>true</code> if the replay is finished
+   */
+  public synchronized boolean isFinished() {
+    return recordRemaining == 0 && buffer.position() + SerialCapture.RECORD_HEADER_LENGTH > end;
+  }
+
+  /**
+   * Returns the arrival time of the last record read
+   *
+   * @return FPGA time in microseconds recorded with the bytes
+   */
+  @Override
+  public long getTime() {
+    return time;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public synchronized boolean open() {
+    if (replayStart == 0) {
+      replayStart = System.nanoTime();
+    }
+    open = true;
+    return true;
+  }
+
+  @Override
+  public void close() {
+    open = false;
+  }
+
+  @Override
+  public synchronized int readBytes(byte[] data, int offset, int length) {
+    if (!open) return -1;
+    if (recordRemaining == 0) {
+      if (isFinished()) {
+        sleep(READ_TIMEOUT);
+        return 0;
+      }
+      long timestamp = buffer.getLong(buffer.position());
+      if (realTime) {
+        long due = (timestamp - firstTimestamp) - (System.nanoTime() - replayStart) / 1000;
+        if (due > 0) {
+          sleep(Math.min(READ_TIMEOUT, (due + 999) / 1000));
+          return 0;
+        }
+      }
+      buffer.getLong();
+      recordRemaining = buffer.getShort() & 0xffff;
+      recordRemaining = Math.min(recordRemaining, end - buffer.position());
+      time = timestamp;
+    }
+    int count = Math.min(length, recordRemaining);
+    buffer.get(data, offset, count);
+    recordRemaining -= count;
+    return count;
+  }
+
+  @Override
+  public int writeBytes(byte[] data, int offset, int length) {
+    return open ? length : -1;
+  }
+
+  /**
+   * Internal method to wait like a read that timed out
+   *
+   * @param millis Time to wait in milliseconds
+   */
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
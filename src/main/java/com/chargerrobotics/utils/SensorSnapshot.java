@@ -0,0 +1,227 @@
+package com.chargerrobotics.utils;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Group of primitive fields published together by an {@link
+ * ArduinoSerialReceiver.ArduinoListener}, so that readers on other threads see every field from the
+ * same message
+ *
+ * <p>Guarded by a sequence lock: the writer makes the sequence odd while it writes, and readers
+ * retry if the sequence was odd or changed while they copied the fields. Neither side locks or
+ * allocates, and a reader never delays the writer. Only one thread may write at a time, which is
+ * the dispatch thread for data received by a listener
+ *
+ * <p>Writing a message:
+ *
+ * <pre>
+ * snapshot.beginWrite();
+ * snapshot.setFloat(YAW, buffer.getFloat());
+ * snapshot.setFloat(PITCH, buffer.getFloat());
+ * snapshot.endWrite(getLastTimestamp(), getLastMessageTime());
+ * </pre>
+ */
+public class SensorSnapshot {
+
+  private static final long[] NO_VALUES = new long[0];
+
+  private final long[] values;
+  private long timestamp = 0;
+  private long receivedTime = 0;
+  private volatile long sequence = 0;
+
+  /**
+   * Constructs a snapshot with every field zero and no message published
+   *
+   * @param fields Number of fields
+   */
+  public SensorSnapshot(int fields) {
+    values = new long[fields];
+  }
+
+  /** Starts publishing a message, readers wait for {@link #endWrite(long, long)} */
+  public void beginWrite() {
+    sequence = sequence + 1;
+    VarHandle.storeStoreFence();
+  }
+
+  /**
+   * Sets a field of the message being written
+   *
+   * @param field Field index
+   * @param value Value
+   */
+  public void setFloat(int field, float value) {
+    values[field] = Float.floatToRawIntBits(value);
+  }
+
+  /**
+   * Sets a field of the message being written
+   *
+   * @param field Field index
+   * @param value Value
+   */
+  public void setDouble(int field, double value) {
+    values[field] = Double.doubleToRawLongBits(value);
+  }
+
+  /**
+   * Sets a field of the message being written
+   *
+   * @param field Field index
+   * @param value Value
+   */
+  public void setLong(int field, long value) {
+    values[field] = value;
+  }
+
+  /**
+   * Publishes the message written since {@link #beginWrite()}
+   *
+   * @param timestamp FPGA time in microseconds at which the data was measured, see {@link
+   *     ArduinoSerialReceiver.ArduinoListener#getLastTimestamp()}
+   * @param receivedTime UNIX time in milliseconds at which the message was received, see {@link
+   *     ArduinoSerialReceiver.ArduinoListener#getLastMessageTime()}
+   */
+  public void endWrite(long timestamp, long receivedTime) {
+    this.timestamp = timestamp;
+    this.receivedTime = receivedTime;
+    sequence = sequence + 1;
+  }
+
+  /**
+   * Copies every field of the last published message
+   *
+   * @param reading Reading to copy into, sized to this snapshot on first use
+   */
+  public void read(Reading reading) {
+    if (reading.values.length != values.length) {
+      reading.values = new long[values.length];
+    }
+    long start;
+    do {
+      start = awaitWrite();
+      System.arraycopy(values, 0, reading.values, 0, values.length);
+      reading.timestamp = timestamp;
+      reading.receivedTime = receivedTime;
+      VarHandle.loadLoadFence();
+    } while (sequence != start);
+  }
+
+  /**
+   * Gets a single field of the last published message as a float
+   *
+   * @param field Field index
+   * @return Value
+   */
+  public float getFloat(int field) {
+    return Float.intBitsToFloat((int) getBits(field));
+  }
+
+  /**
+   * Gets a single field of the last published message as a double
+   *
+   * @param field Field index
+   * @return Value
+   */
+  public double getDouble(int field) {
+    return Double.longBitsToDouble(getBits(field));
+  }
+
+  /**
+   * Gets a single field of the last published message
+   *
+   * @param field Field index
+   * @return Value
+   */
+  public long getLong(int field) {
+    return getBits(field);
+  }
+
+  /**
+   * Internal method to read a single field, which may be torn on 32 bit platforms if not guarded
+   *
+   * @param field Field index
+   * @return Raw value
+   */
+  private long getBits(int field) {
+    long start;
+    long value;
+    do {
+      start = awaitWrite();
+      value = values[field];
+      VarHandle.loadLoadFence();
+    } while (sequence != start);
+    return value;
+  }
+
+  /**
+   * Internal method to wait until no message is being written
+   *
+   * @return Even sequence number before reading
+   */
+  private long awaitWrite() {
+    long start = sequence;
+    while ((start & 1) != 0) {
+      Thread.onSpinWait();
+      start = sequence;
+    }
+    return start;
+  }
+
+  /** Consistent copy of the fields of a {@link SensorSnapshot}, reusable between reads */
+  public static class Reading {
+
+    private long[] values = NO_VALUES;
+    private long timestamp = 0;
+    private long receivedTime = 0;
+
+    /**
+     * Gets a field as a float
+     *
+     * @param field Field index
+     * @return Value
+     */
+    public float getFloat(int field) {
+      return Float.intBitsToFloat((int) values[field]);
+    }
+
+    /**
+     * Gets a field as a double
+     *
+     * @param field Field index
+     * @return Value
+     */
+    public double getDouble(int field) {
+      return Double.longBitsToDouble(values[field]);
+    }
+
+    /**
+     * Gets a field
+     *
+     * @param field Field index
+     * @return Value
+     */
+    public long getLong(int field) {
+      return values[field];
+    }
+
+    /**
+     * Returns the time the message was measured at
+     *
+     * @return FPGA time in microseconds, or <code>0</code> if no message was published
+     */
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    /**
+     * Returns the time the message was received at
+     *
+     * @return UNIX time in milliseconds, or <code>0</code> if no message was published
+     */
+    public long getReceivedTime() {
+      return receivedTime;
+    }
+  }
+}
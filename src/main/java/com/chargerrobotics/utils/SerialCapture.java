@@ -0,0 +1,176 @@
+package com.chargerrobotics.utils;
+
+import com.chargerrobotics.Constants;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+
+/**
+ * Log of the raw bytes received from a port, for replaying them later with {@link ReplayTransport}
+ *
+ * <p>The file is memory-mapped at its full size when created, so recording is a copy into memory
+ * that does not allocate or block on the disk. Bytes received once the file is full are counted
+ * but not recorded
+ *
+ * <p>File layout, little endian: 4 byte magic <code>ASCP</code>, 2 byte version, 2 reserved bytes,
+ * 4 byte offset of the end of the last record, 4 reserved bytes, then records. Each record is the 8
+ * byte FPGA time in microseconds at which the bytes arrived, a 2 byte count and the bytes. The end
+ * offset is updated after each record, so the file can be read even if the robot lost power
+ */
+public class SerialCapture {
+
+  static final int MAGIC = 0x50435341;
+  static final short VERSION = 1;
+  static final int FILE_HEADER_LENGTH = 16;
+  static final int END_OFFSET = 8;
+  static final int RECORD_HEADER_LENGTH = 10;
+
+  private static final String CAPTURE_DIRECTORY = "captures";
+
+  private final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final MappedByteBuffer buffer;
+  private long droppedBytes = 0;
+  private boolean closed = false;
+
+  /**
+   * Creates a capture file of the given size, replacing any existing file
+   *
+   * @param file File to record to
+   * @param size Maximum size of the file in bytes
+   * @throws IOException If the file can not be created or mapped
+   */
+  public SerialCapture(File file, int size) throws IOException {
+    if (size < FILE_HEADER_LENGTH) {
+      throw new IllegalArgumentException("Capture size " + size + " is smaller than its header");
+    }
+    this.file = file;
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+    randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      randomAccessFile.setLength(0);
+      buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    } catch (IOException e) {
+      randomAccessFile.close();
+      throw e;
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.putShort((short) 0);
+    buffer.putInt(FILE_HEADER_LENGTH);
+    buffer.putInt(0);
+  }
+
+  /**
+   * Creates a capture file for the given port under {@link Constants#dataStoragePath}, named after
+   * the port and the time it was created. The oldest captures of the port are deleted so that at
+   * most {@link Constants#serialCapturesKept} remain
+   *
+   * @param portName System COM port name
+   * @return Capture
+   * @throws IOException If the file can not be created or mapped
+   */
+  public static SerialCapture create(String portName) throws IOException {
+    return create(
+        new File(Constants.dataStoragePath, CAPTURE_DIRECTORY),
+        portName,
+        Constants.serialCaptureSize,
+        Constants.serialCapturesKept);
+  }
+
+  /**
+   * Creates a capture file for the given port, named after the port and the time it was created,
+   * deleting the oldest captures of the port so that at most the given number remain
+   *
+   * @param directory Directory holding the captures
+   * @param portName System COM port name
+   * @param size Maximum size of the file in bytes
+   * @param kept Number of captures of the port to keep, including the new one
+   * @return Capture
+   * @throws IOException If the file can not be created or mapped
+   */
+  @VisibleForTesting
+  public static SerialCapture create(File directory, String portName, int size, int kept)
+      throws IOException {
+    String time = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+    File file = new File(directory, portName + "-" + time + ".cap");
+    String prefix = portName + "-";
+    File[] captures =
+        directory.listFiles(
+            (dir, name) ->
+                name.startsWith(prefix) && name.endsWith(".cap") && !name.equals(file.getName()));
+    if (captures != null) {
+      // The time in the name sorts oldest first
+      Arrays.sort(captures, Comparator.comparing(File::getName));
+      for (int i = 0; i <= captures.length - kept; i++) {
+        if (!captures[i].delete()) {
+          System.err.println("Could not delete old capture: " + captures[i].getAbsolutePath());
+        }
+      }
+    }
+    return new SerialCapture(file, size);
+  }
+
+  /**
+   * Appends received bytes, or counts them as dropped if the file is full
+   *
+   * @param timestamp FPGA time in microseconds at which the bytes arrived
+   * @param data Received bytes
+   * @param offset Position of the first byte
+   * @param count Number of bytes, up to 65535
+   */
+  public synchronized void record(long timestamp, byte[] data, int offset, int count) {
+    if (closed) return;
+    if (buffer.remaining() < RECORD_HEADER_LENGTH + count) {
+      droppedBytes += count;
+      return;
+    }
+    buffer.putLong(timestamp);
+    buffer.putShort((short) count);
+    buffer.put(data, offset, count);
+    buffer.putInt(END_OFFSET, buffer.position());
+  }
+
+  /**
+   * Returns the number of bytes not recorded because the file was full
+   *
+   * @return Dropped byte count
+   */
+  public synchronized long getDroppedBytes() {
+    return droppedBytes;
+  }
+
+  /**
+   * Returns the file recorded to
+   *
+   * @return Capture file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /** Writes the recorded bytes to the disk and closes the file */
+  public synchronized void close() {
+    if (closed) return;
+    closed = true;
+    buffer.force();
+    try {
+      randomAccessFile.close();
+    } catch (IOException e) {
+      System.err.println("Could not close capture: " + file.getAbsolutePath());
+      e.printStackTrace();
+    }
+  }
+}
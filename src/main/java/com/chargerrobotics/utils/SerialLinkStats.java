@@ -0,0 +1,148 @@
+package com.chargerrobotics.utils;
+
+/**
+ * Health counters and latency histograms of the link to one Arduino
+ *
+ * <p>Updated by the thread using the port, while holding the {@link ArduinoSerial} lock, and read
+ * by the thread publishing them. Callback times are recorded by the thread passing queued messages
+ * to listeners. Updating does not allocate
+ */
+public class SerialLinkStats {
+
+  private volatile long frames = 0;
+  private volatile long bytes = 0;
+  private volatile long rejectedFrames = 0;
+  private volatile long timeouts = 0;
+  private volatile long reopens = 0;
+  private volatile long backoffs = 0;
+  private volatile long droppedFrames = 0;
+  private final LatencyHistogram pollTime = new LatencyHistogram();
+  private final LatencyHistogram callbackTime = new LatencyHistogram();
+
+  /** Internal method to count bytes read from the port */
+  void recordBytes(int count) {
+    bytes += count;
+  }
+
+  /** Internal method to count a message passed to listeners */
+  void recordFrame() {
+    frames++;
+  }
+
+  /** Internal method to update the number of frames rejected by the decoder */
+  void setRejectedFrames(long rejectedFrames) {
+    this.rejectedFrames = rejectedFrames;
+  }
+
+  /** Internal method to count a request that was not answered in time */
+  void recordTimeout() {
+    timeouts++;
+  }
+
+  /** Internal method to count the port being reopened */
+  void recordReopen() {
+    reopens++;
+  }
+
+  /** Internal method to count a poll delayed because the previous polls failed */
+  void recordBackoff() {
+    backoffs++;
+  }
+
+  /** Internal method to count a message dropped because a listener's queue was full */
+  void recordDroppedFrame() {
+    droppedFrames++;
+  }
+
+  /** Internal method to record the round trip time of an answered poll */
+  void recordPollTime(long micros) {
+    pollTime.record(micros);
+  }
+
+  /** Internal method to record the time spent in a listener callback */
+  void recordCallbackTime(long micros) {
+    callbackTime.record(micros);
+  }
+
+  /**
+   * Returns the number of messages passed to listeners
+   *
+   * @return Message count
+   */
+  public long getFrames() {
+    return frames;
+  }
+
+  /**
+   * Returns the number of bytes read from the port
+   *
+   * @return Byte count
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Returns the number of frames dropped for an invalid CRC or length
+   *
+   * @return Rejected frame count
+   */
+  public long getRejectedFrames() {
+    return rejectedFrames;
+  }
+
+  /**
+   * Returns the number of polls and requests the device did not answer in time
+   *
+   * @return Timeout count
+   */
+  public long getTimeouts() {
+    return timeouts;
+  }
+
+  /**
+   * Returns the number of times the port was reopened after failing
+   *
+   * @return Reopen count
+   */
+  public long getReopens() {
+    return reopens;
+  }
+
+  /**
+   * Returns the number of polls delayed beyond the poll interval because the previous polls failed
+   *
+   * @return Delayed poll count
+   */
+  public long getBackoffs() {
+    return backoffs;
+  }
+
+  /**
+   * Returns the number of messages not passed to a listener because the listener had fallen too far
+   * behind, counted once for each listener that missed the message
+   *
+   * @return Dropped message count
+   */
+  public long getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  /**
+   * Returns the histogram of times from sending a poll until the response was received
+   *
+   * @return Poll round trip times in microseconds
+   */
+  public LatencyHistogram getPollTime() {
+    return pollTime;
+  }
+
+  /**
+   * Returns the histogram of times spent in listener callbacks
+   *
+   * @return Callback times in microseconds
+   */
+  public LatencyHistogram getCallbackTime() {
+    return callbackTime;
+  }
+}
@@ -0,0 +1,84 @@
+package com.chargerrobotics.utils;
+
+/**
+ * Connection to a single serial device used by {@link ArduinoSerial}
+ *
+ * <p>Real COM ports are provided by {@link JSerialCommTransport}, other implementations can be used
+ * to simulate devices
+ */
+public interface SerialTransport {
+
+  /** Baud rate every port is opened at, and the only rate of devices that can not negotiate */
+  public static final int DEFAULT_BAUD_RATE = 115200;
+
+  /**
+   * Returns the system name of the port
+   *
+   * <p>Ex: ttyUSB0
+   *
+   * @return System COM port name
+   */
+  public String getName();
+
+  /**
+   * Returns the stable identity of the USB adapter behind the port
+   *
+   * @return Identity, or <code>null</code> if unknown
+   */
+  public default UsbIdentity getIdentity() {
+    return null;
+  }
+
+  /**
+   * Opens the port
+   *
+   * @return <code>true</code> if the port was opened successfully
+   */
+  public boolean open();
+
+  /** Closes the port */
+  public void close();
+
+  /**
+   * Returns the fastest baud rate the port can be switched to
+   *
+   * @return Baud rate, {@link #DEFAULT_BAUD_RATE} if the rate can not be changed
+   */
+  public default int getMaxBaudRate() {
+    return DEFAULT_BAUD_RATE;
+  }
+
+  /**
+   * Switches the open port to the given baud rate
+   *
+   * @param baudRate Baud rate, at most {@link #getMaxBaudRate()}
+   * @return <code>true</code> if the port now runs at the rate
+   */
+  public default boolean setBaudRate(int baudRate) {
+    return baudRate == DEFAULT_BAUD_RATE;
+  }
+
+  /**
+   * Reads all currently available bytes, up to the given length, into the buffer
+   *
+   * <p>Blocks for a short period of time until at least one byte is available or the read times
+   * out
+   *
+   * @param buffer Buffer to read into
+   * @param offset Position in the buffer to start writing at
+   * @param length Maximum number of bytes to read
+   * @return Number of bytes read, <code>0</code> if the read timed out or <code>-1</code> if the
+   *     port has failed
+   */
+  public int readBytes(byte[] buffer, int offset, int length);
+
+  /**
+   * Writes bytes from the buffer to the device
+   *
+   * @param buffer Buffer to write from
+   * @param offset Position in the buffer to start reading at
+   * @param length Number of bytes to write
+   * @return Number of bytes written or <code>-1</code> if the port has failed
+   */
+  public int writeBytes(byte[] buffer, int offset, int length);
+}
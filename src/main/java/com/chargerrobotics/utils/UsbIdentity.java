@@ -0,0 +1,147 @@
+package com.chargerrobotics.utils;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Objects;
+
+/**
+ * Stable identity of a USB to serial adapter, which unlike the system port name does not change
+ * when devices are plugged in a different order
+ *
+ * <p>Read from sysfs on Linux, as jSerialComm does not report it. Consists of the USB vendor and
+ * product IDs, the serial number if the adapter has one, and the location of the USB port it is
+ * plugged into
+ */
+public class UsbIdentity {
+
+  private static final File TTY_CLASS = new File("/sys/class/tty");
+
+  private final String vendorId;
+  private final String productId;
+  private final String serialNumber;
+  private final String location;
+
+  /**
+   * Constructs an identity
+   *
+   * @param vendorId USB vendor ID as 4 hex digits
+   * @param productId USB product ID as 4 hex digits
+   * @param serialNumber Serial number, or an empty string if the adapter has none
+   * @param location USB port path, Ex: 1-1.2
+   */
+  public UsbIdentity(String vendorId, String productId, String serialNumber, String location) {
+    this.vendorId = vendorId;
+    this.productId = productId;
+    this.serialNumber = serialNumber;
+    this.location = location;
+  }
+
+  /**
+   * Reads the identity of the adapter behind the given port
+   *
+   * @param portName System COM port name, Ex: ttyUSB0
+   * @return Identity, or <code>null</code> if the port is not a USB device or sysfs is unavailable
+   */
+  public static UsbIdentity forPort(String portName) {
+    return forPort(TTY_CLASS, portName);
+  }
+
+  /**
+   * Reads the identity of the adapter behind the given port from the given sysfs tty class
+   * directory
+   *
+   * <p>The port's <code>device</code> link leads to the USB interface, whose nearest parent with an
+   * <code>idVendor</code> file is the USB device
+   *
+   * @param ttyClass Directory containing a link for each tty, normally /sys/class/tty
+   * @param portName System COM port name
+   * @return Identity, or <code>null</code> if the port is not a USB device
+   */
+  @VisibleForTesting
+  public static UsbIdentity forPort(File ttyClass, String portName) {
+    try {
+      File device = new File(new File(ttyClass, portName), "device").getCanonicalFile();
+      while (device != null && !new File(device, "idVendor").isFile()) {
+        device = device.getParentFile();
+      }
+      if (device == null) return null;
+      return new UsbIdentity(
+          readAttribute(device, "idVendor"),
+          readAttribute(device, "idProduct"),
+          readAttribute(device, "serial"),
+          device.getName());
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Internal method to read a sysfs attribute
+   *
+   * @param device Device directory
+   * @param name Attribute name
+   * @return Trimmed attribute value, or an empty string if the attribute does not exist
+   * @throws IOException If the attribute can not be read
+   */
+  private static String readAttribute(File device, String name) throws IOException {
+    File attribute = new File(device, name);
+    if (!attribute.isFile()) return "";
+    return new String(Files.readAllBytes(attribute.toPath()), StandardCharsets.US_ASCII).trim();
+  }
+
+  /**
+   * Parses an identity written by {@link #toString()}
+   *
+   * @param value Identity as <code>vendor:product:serial@location</code>
+   * @return Identity, or <code>null</code> if the value is not an identity
+   */
+  public static UsbIdentity parse(String value) {
+    if (value == null) return null;
+    int at = value.lastIndexOf('@');
+    if (at < 0) return null;
+    String[] ids = value.substring(0, at).split(":", 3);
+    if (ids.length != 3) return null;
+    return new UsbIdentity(ids[0], ids[1], ids[2], value.substring(at + 1));
+  }
+
+  /**
+   * Returns whether the given identity is the same physical device
+   *
+   * <p>Adapters with a serial number match wherever they are plugged in. Adapters without one, such
+   * as most CH340 clones, match only in the same USB port
+   *
+   * @param other Identity to compare with
+   * @return <code>true</code> if both identify the same device
+   */
+  public boolean matches(UsbIdentity other) {
+    if (other == null) return false;
+    if (!vendorId.equals(other.vendorId) || !productId.equals(other.productId)) return false;
+    if (!serialNumber.isEmpty() && !other.serialNumber.isEmpty()) {
+      return serialNumber.equals(other.serialNumber);
+    }
+    return location.equals(other.location);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof UsbIdentity)) return false;
+    UsbIdentity identity = (UsbIdentity) other;
+    return vendorId.equals(identity.vendorId)
+        && productId.equals(identity.productId)
+        && serialNumber.equals(identity.serialNumber)
+        && location.equals(identity.location);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(vendorId, productId, serialNumber, location);
+  }
+
+  @Override
+  public String toString() {
+    return vendorId + ":" + productId + ":" + serialNumber + "@" + location;
+  }
+}
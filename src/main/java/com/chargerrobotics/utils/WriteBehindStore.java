@@ -0,0 +1,464 @@
+package com.chargerrobotics.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import org.simpleyaml.configuration.file.YamlConfiguration;
+
+/**
+ * YAML file whose changes are written behind the caller by a background thread
+ *
+ * <p>Setting a key only updates the document in memory and marks it dirty, so it costs the caller
+ * microseconds instead of a full serialisation and write to flash. The writer thread saves the
+ * document at most once per write interval, so every change made in between is coalesced into one
+ * write. {@link #requestFlushAll()} skips the wait, and is called when the robot changes mode.
+ * Dirty stores are also written synchronously when the JVM shuts down
+ *
+ * <p>The document is written to a temporary file next to it, synced, and renamed over the old file,
+ * so a power loss mid-write leaves either the old or the new document, never a truncated one
+ *
+ * <p>Each write is followed by a binary {@link ConfigSnapshot} of the document as read back from
+ * the file, which is loaded instead of parsing the YAML unless it is stale. After loading the YAML,
+ * the writer writes a fresh snapshot for the next startup
+ *
+ * <p>Changes made to the file by something else, such as a deploy, are merged into the document by
+ * {@link #reloadChanges()}, see {@link ConfigWatcher}
+ *
+ * <p>Changes must go through {@link #set(String, Object)}, or be followed by {@link #markDirty()}
+ * with the document locked by {@link #getLock()}, so the writer never serialises a document that is
+ * being modified
+ */
+public class WriteBehindStore {
+
+  private static final List<WriteBehindStore> stores =
+      new CopyOnWriteArrayList<WriteBehindStore>();
+
+  static {
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  for (WriteBehindStore store : stores) {
+                    store.flush();
+                  }
+                },
+                "WriteBehindStore shutdown"));
+  }
+
+  private final File file;
+  private final File tempFile;
+  private final File snapshotFile;
+  private final File snapshotTempFile;
+  private final long writeInterval;
+  private final Object lock = new Object();
+  private final Object fileLock = new Object();
+  private YamlConfiguration config = null;
+  private boolean dirty = false;
+  private boolean snapshotStale = false;
+  private int updates = 0;
+  private volatile boolean flushRequested = false;
+  private volatile long writes = 0;
+  private volatile long coalescedUpdates = 0;
+  private volatile long loadTime = 0;
+  private volatile boolean loadedFromSnapshot = false;
+  /** Values, length and modification time of the file as last loaded or written */
+  private Map<String, Object> fileValues = Collections.emptyMap();
+  private long fileLength = -1;
+  private long fileModified = -1;
+  private Thread writer = null;
+
+  /**
+   * Constructs a store for the given file, loaded when first used
+   *
+   * @param file YAML file
+   * @param writeInterval Minimum time in milliseconds between writes
+   */
+  public WriteBehindStore(File file, long writeInterval) {
+    this.file = file;
+    this.tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+    this.snapshotFile = new File(file.getParentFile(), file.getName() + ".bin");
+    this.snapshotTempFile = new File(file.getParentFile(), file.getName() + ".bin.tmp");
+    this.writeInterval = writeInterval;
+    stores.add(this);
+  }
+
+  /**
+   * Returns the document, loading it from the file if needed
+   *
+   * @return Document
+   */
+  public YamlConfiguration getConfig() {
+    synchronized (lock) {
+      if (config == null) {
+        reload();
+      }
+      return config;
+    }
+  }
+
+  /**
+   * Loads the document from its snapshot, or from the file if the snapshot is stale, discarding
+   * changes that were not yet written
+   */
+  public void reload() {
+    synchronized (lock) {
+      long start = System.nanoTime();
+      file.getParentFile().mkdirs();
+      if (!file.isFile()) {
+        try {
+          file.createNewFile();
+        } catch (IOException e) {
+
+        }
+      }
+      config = ConfigSnapshot.read(snapshotFile, file);
+      loadedFromSnapshot = config != null;
+      if (config == null) {
+        config = YamlConfiguration.loadConfiguration(file);
+        snapshotStale = true;
+        startWriter();
+      }
+      dirty = false;
+      updates = 0;
+      fileValues = values(config);
+      fileLength = file.length();
+      fileModified = file.lastModified();
+      loadTime = System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * Returns the lock guarding the document, to be held while modifying it directly
+   *
+   * @return Lock
+   */
+  public Object getLock() {
+    return lock;
+  }
+
+  /**
+   * Sets a key in the document and schedules a write
+   *
+   * @param key Key, with dots separating sections
+   * @param value Value, or <code>null</code> to remove the key
+   */
+  public void set(String key, Object value) {
+    synchronized (lock) {
+      YamlConfiguration config = getConfig();
+      if (sameValue(config.get(key), value)) return;
+      config.set(key, value);
+      markDirty();
+    }
+  }
+
+  /** Schedules a write of the document after it was modified directly */
+  public void markDirty() {
+    synchronized (lock) {
+      dirty = true;
+      updates++;
+      startWriter();
+    }
+  }
+
+  /** Internal method to start the writer, or wake it if started, called with the lock held */
+  private void startWriter() {
+    if (writer == null) {
+      writer = new Thread(this::runWriter, "WriteBehindStore " + file.getName());
+      writer.setDaemon(true);
+      writer.start();
+    } else {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  /** Makes the writer write any changes now, without waiting for the rest of its interval */
+  public void requestFlush() {
+    flushRequested = true;
+    synchronized (lock) {
+      if (writer != null) LockSupport.unpark(writer);
+    }
+  }
+
+  /** Makes every store write its changes now, such as when the robot changes mode */
+  public static void requestFlushAll() {
+    for (WriteBehindStore store : stores) {
+      store.requestFlush();
+    }
+  }
+
+  /**
+   * Writes any changes on the calling thread, waiting for a write already in progress
+   *
+   * @return <code>true</code> if nothing needed writing or the write succeeded
+   */
+  public boolean flush() {
+    synchronized (fileLock) {
+      String contents = null;
+      int coalesced = 0;
+      byte[] keys = null;
+      synchronized (lock) {
+        if (!dirty && !snapshotStale) return true;
+        if (dirty) {
+          contents = config.saveToString();
+          coalesced = updates;
+          dirty = false;
+          updates = 0;
+        } else {
+          // Loaded from the file, so already holds the values as parsed
+          keys = ConfigSnapshot.encode(config);
+        }
+        snapshotStale = false;
+      }
+      if (contents != null) {
+        if (!write(contents)) {
+          synchronized (lock) {
+            // Written again with the next change
+            dirty = true;
+            updates += coalesced;
+          }
+          return false;
+        }
+        writes++;
+        coalescedUpdates += coalesced;
+        // Read back, since numbers and strings may not parse to the types they were written from
+        YamlConfiguration written = YamlConfiguration.loadConfiguration(file);
+        Map<String, Object> values = values(written);
+        keys = ConfigSnapshot.encode(written);
+        synchronized (lock) {
+          fileValues = values;
+          fileLength = file.length();
+          fileModified = file.lastModified();
+        }
+      }
+      writeSnapshot(keys);
+      return true;
+    }
+  }
+
+  /**
+   * Merges changes made to the file by something else into the document. Keys are compared against
+   * the file as it was last loaded or written, so changes made through {@link #set(String, Object)}
+   * that were not yet written are kept unless the file changed the same key. Keys removed from the
+   * file are kept in the document
+   *
+   * @return Keys whose values changed in the file, with their new values, empty if the file was
+   *     last changed by this store
+   */
+  public Map<String, Object> reloadChanges() {
+    synchronized (fileLock) {
+      long length = file.length();
+      long modified = file.lastModified();
+      synchronized (lock) {
+        if (config == null || (length == fileLength && modified == fileModified)) {
+          return Collections.emptyMap();
+        }
+      }
+      Map<String, Object> values = values(YamlConfiguration.loadConfiguration(file));
+      Map<String, Object> changes = new LinkedHashMap<String, Object>();
+      synchronized (lock) {
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+          if (!sameValue(entry.getValue(), fileValues.get(entry.getKey()))) {
+            changes.put(entry.getKey(), entry.getValue());
+            config.set(entry.getKey(), entry.getValue());
+          }
+        }
+        fileValues = values;
+        fileLength = length;
+        fileModified = modified;
+        snapshotStale = true;
+        startWriter();
+      }
+      return changes;
+    }
+  }
+
+  /**
+   * Returns the file the document is stored in
+   *
+   * @return YAML file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Returns whether the document has changes that were not yet written
+   *
+   * @return <code>true</code> if dirty
+   */
+  public boolean isDirty() {
+    synchronized (lock) {
+      return dirty;
+    }
+  }
+
+  /**
+   * Returns whether the last load read the snapshot instead of parsing the YAML
+   *
+   * @return <code>true</code> if loaded from the snapshot
+   */
+  public boolean isLoadedFromSnapshot() {
+    return loadedFromSnapshot;
+  }
+
+  /**
+   * Returns how long the last load took
+   *
+   * @return Load time in nanoseconds, or <code>0</code> if not yet loaded
+   */
+  public long getLoadTime() {
+    return loadTime;
+  }
+
+  /**
+   * Returns the number of times the document was written
+   *
+   * @return Write count
+   */
+  public long getWrites() {
+    return writes;
+  }
+
+  /**
+   * Returns the number of changes saved by those writes, which is larger than the number of writes
+   * when changes were coalesced
+   *
+   * @return Change count
+   */
+  public long getCoalescedUpdates() {
+    return coalescedUpdates;
+  }
+
+  /** Internal method run by the writer thread, writing dirty documents at a bounded rate */
+  private void runWriter() {
+    long lastWrite = 0;
+    while (!Thread.currentThread().isInterrupted()) {
+      long delay = lastWrite + writeInterval - System.currentTimeMillis();
+      if (!needsWrite()) {
+        flushRequested = false;
+        LockSupport.park(this);
+      } else if (delay > 0 && !flushRequested) {
+        LockSupport.parkNanos(this, delay * 1000000);
+      } else {
+        flushRequested = false;
+        flush();
+        lastWrite = System.currentTimeMillis();
+      }
+    }
+  }
+
+  /**
+   * Internal method to copy the values of a document
+   *
+   * @param config Document
+   * @return Value of every key that is not a section
+   */
+  private static Map<String, Object> values(YamlConfiguration config) {
+    Map<String, Object> values = new HashMap<String, Object>();
+    for (String key : config.getKeys(true)) {
+      if (!config.isConfigurationSection(key)) values.put(key, config.get(key));
+    }
+    return values;
+  }
+
+  /**
+   * Internal method to compare values, with numbers compared by value as the same number may be
+   * read from the file as an integer, a long or a double
+   *
+   * @param a Value
+   * @param b Other value
+   * @return <code>true</code> if the values are equal
+   */
+  private static boolean sameValue(Object a, Object b) {
+    if (a instanceof Number && b instanceof Number) {
+      return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue()) == 0;
+    }
+    return Objects.equals(a, b);
+  }
+
+  /**
+   * Internal method to check whether the writer has anything to write
+   *
+   * @return <code>true</code> if the document is dirty or its snapshot is stale
+   */
+  private boolean needsWrite() {
+    synchronized (lock) {
+      return dirty || snapshotStale;
+    }
+  }
+
+  /**
+   * Internal method to replace the file with the given contents, called with the file lock held
+   *
+   * @param contents Serialised document
+   * @return <code>true</code> if the file was replaced
+   */
+  private boolean write(String contents) {
+    try {
+      replace(file, tempFile, contents.getBytes(StandardCharsets.UTF_8));
+      return true;
+    } catch (IOException e) {
+      System.err.println("Could not save config to: " + file.getAbsolutePath());
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * Internal method to snapshot the document after the file was written, called with the file lock
+   * held. A document that cannot be snapshotted has its old snapshot deleted, which would otherwise
+   * only be ignored as stale
+   *
+   * @param keys Keys encoded by {@link ConfigSnapshot#encode(YamlConfiguration)}, or <code>null
+   *     </code> if the document cannot be snapshotted
+   */
+  private void writeSnapshot(byte[] keys) {
+    try {
+      if (keys == null) {
+        Files.deleteIfExists(snapshotFile.toPath());
+      } else {
+        ConfigSnapshot.write(snapshotFile, snapshotTempFile, file, keys);
+      }
+    } catch (IOException e) {
+      System.err.println("Could not save config snapshot to: " + snapshotFile.getAbsolutePath());
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Internal method to replace a file with the given contents, written to a temporary file, synced,
+   * and renamed over the file
+   *
+   * @param target File to replace
+   * @param temp Temporary file next to the file
+   * @param contents Contents
+   * @throws IOException If the file could not be replaced
+   */
+  static void replace(File target, File temp, byte[] contents) throws IOException {
+    try (FileOutputStream out = new FileOutputStream(temp)) {
+      out.write(contents);
+      out.getFD().sync();
+    }
+    try {
+      Files.move(
+          temp.toPath(),
+          target.toPath(),
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package com.chargerrobotics.benchmark.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.testutils.Benchmark;
+import com.chargerrobotics.testutils.SimulatedArduino;
+import com.chargerrobotics.utils.ArduinoBatch;
+import com.chargerrobotics.utils.ArduinoFrameDecoder;
+import com.chargerrobotics.utils.ArduinoFrameDecoder.FrameListener;
+import org.testng.annotations.Test;
+
+/**
+ * Compares one frame per sensor reading against a container frame carrying the readings of every
+ * sensor on a board
+ *
+ * <p>The readings are those of the gyro, scale, ball and color sensors. Decoding throughput is
+ * measured, and the sample rate the 115200 baud link allows is derived from the bytes per sample
+ */
+public class BM_ArduinoBatch {
+
+  private static final int POLLS = 50000;
+  private static final double LINK_BYTES_PER_SECOND = 115200 / 10.0;
+
+  private static final short[] headers =
+      new short[] {(short) 0xA02D, (short) 0x902D, (short) 0xB02D, (short) 0x802D};
+  private static final byte[][] payloads =
+      new byte[][] {new byte[12], new byte[4], new byte[] {3}, new byte[] {'R'}};
+
+  private final byte[] separate;
+  private final byte[] batched;
+
+  public BM_ArduinoBatch() {
+    byte[][] frames = new byte[headers.length][];
+    int length = 0;
+    for (int i = 0; i < headers.length; i++) {
+      frames[i] = SimulatedArduino.encodeFrame(headers[i], payloads[i]);
+      length += frames[i].length;
+    }
+    separate = new byte[length];
+    int offset = 0;
+    for (byte[] frame : frames) {
+      System.arraycopy(frame, 0, separate, offset, frame.length);
+      offset += frame.length;
+    }
+    batched =
+        SimulatedArduino.encodeFrame(ArduinoBatch.HEADER, ArduinoBatch.encode(headers, payloads));
+  }
+
+  /**
+   * Decodes the response to every poll, one poll per read
+   *
+   * @param response Bytes sent by the device in response to one poll
+   * @param listener Listener for decoded frames
+   */
+  private static void decodePolls(byte[] response, FrameListener listener) {
+    ArduinoFrameDecoder decoder = new ArduinoFrameDecoder();
+    for (int i = 0; i < POLLS; i++) {
+      decoder.receive(response, 0, response.length);
+      decoder.decode(listener);
+    }
+  }
+
+  @Test
+  public void benchmarkBatchedFrames() {
+    int[] samples = new int[1];
+    FrameListener counter = (header, payload) -> samples[0]++;
+    Benchmark.Result separateResult =
+        Benchmark.run(
+            "one frame per reading",
+            () -> {
+              samples[0] = 0;
+              decodePolls(separate, counter);
+              assertEquals(samples[0], POLLS * headers.length);
+              return samples[0];
+            });
+    ArduinoBatch batch = new ArduinoBatch();
+    FrameListener splitter = (header, payload) -> batch.split(payload, counter);
+    Benchmark.Result batchedResult =
+        Benchmark.run(
+            "container frame",
+            () -> {
+              samples[0] = 0;
+              decodePolls(batched, splitter);
+              assertEquals(samples[0], POLLS * headers.length);
+              return samples[0];
+            });
+
+    double separateBytes = (double) separate.length / headers.length;
+    double batchedBytes = (double) batched.length / headers.length;
+    System.out.println(
+        String.format(
+            "%-40s %12.1f bytes/sample %8.0f samples/s at 115200 baud",
+            separateResult.name, separateBytes, LINK_BYTES_PER_SECOND / separateBytes));
+    System.out.println(
+        String.format(
+            "%-40s %12.1f bytes/sample %8.0f samples/s at 115200 baud",
+            batchedResult.name, batchedBytes, LINK_BYTES_PER_SECOND / batchedBytes));
+
+    assertTrue(batchedBytes < separateBytes, "Container frame did not reduce bytes per sample");
+    assertTrue(
+        batchedResult.getOpsPerSecond() > separateResult.getOpsPerSecond() / 2,
+        "Splitting container frames is too slow to keep up with the link");
+  }
+}
@@ -0,0 +1,197 @@
+package com.chargerrobotics.benchmark.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.testutils.Benchmark;
+import com.chargerrobotics.testutils.SimulatedArduino;
+import com.chargerrobotics.utils.ArduinoFrameDecoder;
+import com.chargerrobotics.utils.ArduinoFrameDecoder.FrameListener;
+import com.chargerrobotics.utils.SerialTransport;
+import java.io.IOException;
+import java.io.InputStream;
+import org.testng.annotations.Test;
+
+/**
+ * Compares the bulk-read {@link ArduinoFrameDecoder} against the byte-at-a-time state machine it
+ * replaced
+ *
+ * <p>Every call into the port is charged a fixed cost to model the JNI round trip into jSerialComm
+ */
+public class BM_ArduinoFrameDecoder {
+
+  private static final int FRAMES = 20000;
+  private static final long CALL_COST_NANOS = 2000;
+  private static final short gyroHeader = (short) 0xA02D;
+
+  private final byte[] stream;
+  private final byte[] legacyStream;
+
+  public BM_ArduinoFrameDecoder() {
+    byte[] payload = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12};
+    byte[] frame = SimulatedArduino.encodeFrame(gyroHeader, payload);
+    stream = repeat(frame);
+    // The old frames carried an additive checksum, small payload values keep it within the range
+    // the old state machine accepted
+    int checksum = 0;
+    for (byte b : payload) {
+      checksum += b;
+    }
+    frame[4] = (byte) checksum;
+    frame[5] = 0;
+    legacyStream = repeat(frame);
+  }
+
+  private static byte[] repeat(byte[] frame) {
+    byte[] repeated = new byte[frame.length * FRAMES];
+    for (int i = 0; i < FRAMES; i++) {
+      System.arraycopy(frame, 0, repeated, i * frame.length, frame.length);
+    }
+    return repeated;
+  }
+
+  /** Port whose every call costs {@link #CALL_COST_NANOS} */
+  private class CostedPort extends InputStream implements SerialTransport {
+    private final byte[] stream;
+    private int position = 0;
+
+    CostedPort(byte[] stream) {
+      this.stream = stream;
+    }
+
+    @Override
+    public int read() {
+      Benchmark.spin(CALL_COST_NANOS);
+      return position < stream.length ? stream[position++] & 0xff : -1;
+    }
+
+    @Override
+    public int available() {
+      Benchmark.spin(CALL_COST_NANOS);
+      return stream.length - position;
+    }
+
+    @Override
+    public int readBytes(byte[] buffer, int offset, int length) {
+      Benchmark.spin(CALL_COST_NANOS);
+      int count = Math.min(length, stream.length - position);
+      System.arraycopy(stream, position, buffer, offset, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public int writeBytes(byte[] buffer, int offset, int length) {
+      return length;
+    }
+
+    @Override
+    public String getName() {
+      return "benchmark";
+    }
+
+    @Override
+    public boolean open() {
+      return true;
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  /** Copy of the state machine previously used by ArduinoSerial.receiveData */
+  private static int legacyReceive(InputStream in) throws IOException {
+    int b;
+    do {
+      b = in.read();
+      if (b < 0) return -1;
+    } while (b != 0x55);
+    byte state = 0;
+    int bytesRead = 0;
+    int checksum = 0;
+    int expectedChecksum = 0;
+    int expectedLength = 0;
+    while (true) {
+      if (in.available() > 0) {
+        byte value = (byte) in.read();
+        switch (state) {
+          case 0:
+            if (value == 0x55) {
+              state++;
+              break;
+            }
+          case 1:
+          case 2:
+            state++;
+            break;
+          case 3:
+            expectedChecksum = value & 0xff;
+            state++;
+            break;
+          case 4:
+            expectedChecksum |= ((value << 8) & 0xff);
+            state++;
+            break;
+          case 5:
+            expectedLength = value & 0xff;
+            state++;
+            break;
+          case 6:
+            expectedLength |= ((value << 8) & 0xff);
+            state++;
+            if (expectedLength == 0) return 0;
+            break;
+          case 7:
+            bytesRead++;
+            checksum += value;
+            if (bytesRead >= expectedLength) {
+              return checksum == expectedChecksum ? expectedLength : -1;
+            }
+        }
+      } else {
+        return -1;
+      }
+    }
+  }
+
+  @Test
+  public void benchmarkDecoders() {
+    Benchmark.Result legacy =
+        Benchmark.run(
+            "byte-at-a-time state machine",
+            () -> {
+              CostedPort port = new CostedPort(legacyStream);
+              int frames = 0;
+              try {
+                while (legacyReceive(port) >= 0) {
+                  frames++;
+                }
+              } catch (IOException e) {
+                throw new RuntimeException(e);
+              }
+              assertEquals(frames, FRAMES);
+              return frames;
+            });
+    int[] decoded = new int[1];
+    FrameListener listener = (header, payload) -> decoded[0]++;
+    Benchmark.Result bulk =
+        Benchmark.run(
+            "bulk-read ring buffer decoder",
+            () -> {
+              CostedPort port = new CostedPort(stream);
+              ArduinoFrameDecoder decoder = new ArduinoFrameDecoder();
+              decoded[0] = 0;
+              while (decoder.read(port) > 0) {
+                decoder.decode(listener);
+              }
+              assertEquals(decoded[0], FRAMES);
+              return decoded[0];
+            });
+    assertTrue(
+        bulk.getOpsPerSecond() > legacy.getOpsPerSecond() * 2,
+        "Bulk decoder was not substantially faster");
+    assertTrue(
+        bulk.getCpuNanosPerOp() < legacy.getCpuNanosPerOp() / 2,
+        "Bulk decoder did not substantially reduce CPU per frame");
+  }
+}
@@ -0,0 +1,191 @@
+package com.chargerrobotics.benchmark.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.testutils.Benchmark;
+import com.chargerrobotics.testutils.SimulatedArduino;
+import com.chargerrobotics.testutils.SimulatedSensors;
+import com.chargerrobotics.utils.ArduinoSerial;
+import com.chargerrobotics.utils.ArduinoSerialReceiver;
+import com.chargerrobotics.utils.ArduinoSerialReceiver.ArduinoListener;
+import com.chargerrobotics.utils.LatencyHistogram;
+import com.chargerrobotics.utils.ReplayTransport;
+import com.chargerrobotics.utils.SerialCapture;
+import edu.wpi.first.wpilibj.RobotController;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Measures the receiver end to end against simulated devices: frames delivered per second, CPU
+ * time of the port thread per frame, and the age of the latest sample whenever robot code reads it
+ */
+public class BM_ArduinoSerial {
+
+  private static final short sampleHeader = (short) 0x762D;
+  private static final long WARMUP = 500;
+  private static final long DURATION = 3000;
+  private static final int REPLAY_READS = 100000;
+  private static final int FRAMES_PER_READ = 4;
+
+  /** Keeps the time the latest sample was taken by the device */
+  private static class SampleListener extends ArduinoListener {
+    private volatile long frames = 0;
+    private volatile long sampleTime = 0;
+
+    @Override
+    public void receiveData(ArduinoSerial serial, ByteBuffer data) {
+      sampleTime = data.getLong();
+      frames++;
+    }
+  }
+
+  private static final SampleListener listener = new SampleListener();
+
+  static {
+    ArduinoSerialReceiver.registerListener(listener, sampleHeader);
+  }
+
+  /** Result of receiving from one device */
+  private static class LinkResult {
+    private final double framesPerSecond;
+    private final double cpuMicrosPerFrame;
+    private final long ageP50;
+    private final long ageP99;
+
+    LinkResult(String name, long frames, long cpuNanos, LatencyHistogram age) {
+      framesPerSecond = frames * 1000.0 / DURATION;
+      cpuMicrosPerFrame = frames > 0 ? cpuNanos / 1000.0 / frames : 0;
+      ageP50 = age.getPercentile(0.5);
+      ageP99 = age.getPercentile(0.99);
+      System.out.println(
+          String.format(
+              "%-40s %8.1f frames/s %8.1f cpu us/frame %8d us age p50 %8d us age p99",
+              name, framesPerSecond, cpuMicrosPerFrame, ageP50, ageP99));
+    }
+  }
+
+  @AfterMethod
+  public void closeReceiver() {
+    ArduinoSerialReceiver.close();
+  }
+
+  /**
+   * Receives from the device for the benchmark duration while sampling the age of the latest
+   * sample every millisecond
+   *
+   * @param name Name of the benchmark
+   * @param device Device to receive from
+   * @return Measured rates and ages
+   * @throws InterruptedException If interrupted while receiving
+   */
+  private static LinkResult measure(String name, SimulatedArduino device)
+      throws InterruptedException {
+    ArduinoSerialReceiver.start(() -> Arrays.asList(device));
+    Thread.sleep(WARMUP);
+    String threadName = "ArduinoSerial " + device.getName();
+    LatencyHistogram age = new LatencyHistogram();
+    long startFrames = listener.frames;
+    long startCpu = Benchmark.getThreadCpuTime(threadName);
+    long end = System.currentTimeMillis() + DURATION;
+    while (System.currentTimeMillis() < end) {
+      age.record((System.nanoTime() - listener.sampleTime) / 1000);
+      Thread.sleep(1);
+    }
+    long frames = listener.frames - startFrames;
+    long cpuNanos = Benchmark.getThreadCpuTime(threadName) - startCpu;
+    ArduinoSerialReceiver.close();
+    return new LinkResult(name, frames, cpuNanos, age);
+  }
+
+  /**
+   * Compares polling against streaming, and streaming over a link losing bytes and answering
+   * slowly
+   *
+   * @throws InterruptedException If interrupted while receiving
+   */
+  @Test
+  public void benchmarkReceiver() throws InterruptedException {
+    LinkResult polled = measure("polled", SimulatedSensors.clock("ttyBM0", sampleHeader));
+
+    SimulatedArduino streamingDevice = SimulatedSensors.clock("ttyBM1", sampleHeader);
+    streamingDevice.setStreamingSupported(true);
+    LinkResult streamed = measure("streamed", streamingDevice);
+
+    SimulatedArduino noisyDevice = SimulatedSensors.clock("ttyBM2", sampleHeader);
+    noisyDevice.setStreamingSupported(true);
+    noisyDevice.setDropRate(0.001, 11);
+    LinkResult noisy = measure("streamed, 0.1% bytes dropped", noisyDevice);
+
+    SimulatedArduino slowDevice = SimulatedSensors.clock("ttyBM3", sampleHeader);
+    slowDevice.setResponseDelay(15);
+    LinkResult slow = measure("polled, 15ms response", slowDevice);
+
+    assertTrue(
+        streamed.framesPerSecond > polled.framesPerSecond,
+        "Streaming delivered fewer frames than polling");
+    assertTrue(
+        noisy.framesPerSecond > streamed.framesPerSecond / 2,
+        "Dropped bytes lost more than the damaged frames");
+    assertTrue(slow.ageP50 > polled.ageP50, "Slow responses did not age the samples");
+  }
+
+  /**
+   * Replays a capture of a streaming device through the decoder and listeners as fast as possible,
+   * measuring the parsing code without waiting on a device
+   *
+   * @throws IOException If the capture can not be written or read
+   */
+  @Test
+  public void benchmarkReplay() throws IOException {
+    File file = Files.createTempFile("replay", ".cap").toFile();
+    try {
+      byte[] frame =
+          SimulatedArduino.encodeFrame(
+              sampleHeader,
+              ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0).array());
+      byte[] read = new byte[frame.length * FRAMES_PER_READ];
+      for (int i = 0; i < FRAMES_PER_READ; i++) {
+        System.arraycopy(frame, 0, read, i * frame.length, frame.length);
+      }
+      SerialCapture capture = new SerialCapture(file, (read.length + 16) * REPLAY_READS + 16);
+      for (int i = 0; i < REPLAY_READS; i++) {
+        capture.record(i * 10000L, read, 0, read.length);
+      }
+      capture.close();
+
+      Benchmark.Result result =
+          Benchmark.run(
+              "replay, frames",
+              () -> {
+                long startFrames = listener.frames;
+                try {
+                  ReplayTransport replay = new ReplayTransport(file, false);
+                  ArduinoSerialReceiver.setTimeSource(replay);
+                  ArduinoSerial serial = new ArduinoSerial(replay) {};
+                  while (!replay.isFinished()) {
+                    serial.poll();
+                    ArduinoSerialReceiver.dispatchPending();
+                  }
+                  serial.close();
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+                return listener.frames - startFrames;
+              });
+      assertEquals(result.operations, (long) REPLAY_READS * FRAMES_PER_READ);
+      assertTrue(
+          result.getOpsPerSecond() > 100000.0, "Replay was slower than 1000 streaming devices");
+    } finally {
+      ArduinoSerialReceiver.setTimeSource(RobotController::getFPGATime);
+      file.delete();
+    }
+  }
+}
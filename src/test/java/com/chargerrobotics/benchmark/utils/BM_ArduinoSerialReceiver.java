@@ -0,0 +1,72 @@
+package com.chargerrobotics.benchmark.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.testutils.Benchmark;
+import com.chargerrobotics.utils.ArduinoSerial;
+import com.chargerrobotics.utils.ArduinoSerialReceiver;
+import com.chargerrobotics.utils.ArduinoSerialReceiver.ArduinoListener;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import org.testng.annotations.Test;
+
+/**
+ * Compares looking up listeners in the header-indexed dispatch table against the {@link
+ * ConcurrentHashMap} keyed by boxed headers it replaced
+ */
+public class BM_ArduinoSerialReceiver {
+
+  private static final int LOOKUPS = 10000000;
+  private static final short[] registered =
+      new short[] {(short) 0xA12D, (short) 0x912D, (short) 0xB12D, (short) 0x812D};
+
+  private static class NullListener extends ArduinoListener {
+    @Override
+    public void receiveData(ArduinoSerial serial, ByteBuffer data) {}
+  }
+
+  @Test
+  public void benchmarkDispatch() {
+    ConcurrentHashMap<Short, ArduinoListener> map = new ConcurrentHashMap<Short, ArduinoListener>();
+    for (short header : registered) {
+      ArduinoListener listener = new NullListener();
+      map.put(header, listener);
+      ArduinoSerialReceiver.registerListener(listener, header);
+    }
+    // Mostly registered headers, with some that nobody listens for
+    Random random = new Random(7);
+    short[] received = new short[1024];
+    for (int i = 0; i < received.length; i++) {
+      received[i] =
+          random.nextInt(8) == 0 ? (short) random.nextInt() : registered[random.nextInt(4)];
+    }
+
+    Benchmark.Result mapResult =
+        Benchmark.run(
+            "ConcurrentHashMap<Short, ArduinoListener>",
+            () -> {
+              int found = 0;
+              for (int i = 0; i < LOOKUPS; i++) {
+                if (map.get(received[i & 1023]) != null) found++;
+              }
+              return found > 0 ? LOOKUPS : 0;
+            });
+    Benchmark.Result tableResult =
+        Benchmark.run(
+            "header-indexed dispatch table",
+            () -> {
+              int found = 0;
+              for (int i = 0; i < LOOKUPS; i++) {
+                if (ArduinoSerialReceiver.getListeners(received[i & 1023]) != null) found++;
+              }
+              return found > 0 ? LOOKUPS : 0;
+            });
+
+    assertEquals(tableResult.operations, LOOKUPS);
+    assertTrue(
+        tableResult.getOpsPerSecond() > mapResult.getOpsPerSecond(),
+        "Dispatch table was slower than the map");
+  }
+}
@@ -0,0 +1,68 @@
+package com.chargerrobotics.benchmark.utils;
+
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.testutils.Benchmark;
+import com.chargerrobotics.utils.MessageLayout;
+import com.chargerrobotics.utils.MessageLayout.Type;
+import com.chargerrobotics.utils.SensorSnapshot;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.testng.annotations.Test;
+
+/**
+ * Compares decoding the gyro message with its {@link MessageLayout} against the hand written
+ * decoder it replaced, both publishing into a {@link SensorSnapshot}
+ */
+public class BM_MessageLayout {
+
+  private static final int MESSAGES = 1000000;
+
+  private static final MessageLayout layout = MessageLayout.of(Type.FLOAT, Type.FLOAT, Type.FLOAT);
+
+  private final ByteBuffer payload =
+      ByteBuffer.wrap(
+              ByteBuffer.allocate(12)
+                  .order(ByteOrder.LITTLE_ENDIAN)
+                  .putFloat(90)
+                  .putFloat(5)
+                  .putFloat(-3)
+                  .array())
+          .asReadOnlyBuffer()
+          .order(ByteOrder.LITTLE_ENDIAN);
+
+  @Test
+  public void benchmarkGyroDecode() {
+    SensorSnapshot snapshot = layout.createSnapshot();
+    Benchmark.Result handWritten =
+        Benchmark.run(
+            "hand written gyro decode",
+            () -> {
+              for (int i = 0; i < MESSAGES; i++) {
+                payload.position(0);
+                if (payload.remaining() >= 12) {
+                  snapshot.beginWrite();
+                  snapshot.setFloat(0, payload.getFloat());
+                  snapshot.setFloat(1, payload.getFloat());
+                  snapshot.setFloat(2, payload.getFloat());
+                  snapshot.endWrite(i, i);
+                }
+              }
+              return MESSAGES;
+            });
+    Benchmark.Result declared =
+        Benchmark.run(
+            "layout gyro decode",
+            () -> {
+              for (int i = 0; i < MESSAGES; i++) {
+                payload.position(0);
+                layout.decode(payload, snapshot, i, i);
+              }
+              return MESSAGES;
+            });
+
+    assertTrue(
+        declared.getOpsPerSecond() > handWritten.getOpsPerSecond() / 2,
+        "Layout decoding is more than twice as slow as a hand written decoder");
+  }
+}
@@ -0,0 +1,70 @@
+package com.chargerrobotics.benchmark.utils;
+
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.testutils.Benchmark;
+import com.chargerrobotics.utils.WriteBehindStore;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.simpleyaml.configuration.file.YamlConfiguration;
+import org.testng.annotations.Test;
+
+/**
+ * Compares the cost to the calling thread of saving a config change synchronously, as each
+ * dashboard update used to, against setting it in a {@link WriteBehindStore}
+ *
+ * <p>The config holds as many keys as the robot's, and the same key is changed repeatedly like a
+ * dragged slider
+ */
+public class BM_WriteBehindStore {
+
+  private static final int KEYS = 100;
+  private static final int SYNCHRONOUS_UPDATES = 200;
+  private static final int UPDATES = 100000;
+
+  @Test
+  public void benchmarkConfigUpdate() throws IOException {
+    File directory = Files.createTempDirectory("store").toFile();
+    File syncFile = new File(directory, "sync.yml");
+    YamlConfiguration config = YamlConfiguration.loadConfiguration(syncFile);
+    WriteBehindStore store = new WriteBehindStore(new File(directory, "async.yml"), 1000);
+    for (int i = 0; i < KEYS; i++) {
+      config.set("mapping" + i, i * 0.5);
+      store.set("mapping" + i, i * 0.5);
+    }
+
+    Benchmark.Result synchronous =
+        Benchmark.run(
+            "set and save synchronously",
+            () -> {
+              for (int i = 0; i < SYNCHRONOUS_UPDATES; i++) {
+                config.set("mapping0", i * 0.01);
+                try {
+                  config.save(syncFile);
+                } catch (IOException e) {
+                  throw new RuntimeException(e);
+                }
+              }
+              return SYNCHRONOUS_UPDATES;
+            });
+    long writesBefore = store.getWrites();
+    Benchmark.Result writeBehind =
+        Benchmark.run(
+            "set in write behind store",
+            () -> {
+              for (int i = 0; i < UPDATES; i++) {
+                store.set("mapping0", i * 0.01);
+              }
+              return UPDATES;
+            });
+    store.flush();
+    // The body ran twice, once to warm up
+    System.out.println(
+        (2 * UPDATES) + " updates written " + (store.getWrites() - writesBefore) + " times");
+
+    assertTrue(
+        writeBehind.getOpsPerSecond() > synchronous.getOpsPerSecond() * 10,
+        "Write behind store is not an order of magnitude cheaper for the caller");
+  }
+}
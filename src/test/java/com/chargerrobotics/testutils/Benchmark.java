@@ -0,0 +1,107 @@
+package com.chargerrobotics.testutils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/** Minimal timing helper for the benchmark suite */
+public class Benchmark {
+
+  private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+  /** Timing result of a benchmark run */
+  public static class Result {
+    public final String name;
+    public final long operations;
+    public final long wallNanos;
+    public final long cpuNanos;
+
+    private Result(String name, long operations, long wallNanos, long cpuNanos) {
+      this.name = name;
+      this.operations = operations;
+      this.wallNanos = wallNanos;
+      this.cpuNanos = cpuNanos;
+    }
+
+    /**
+     * Returns the number of operations completed per second of wall time
+     *
+     * @return Operations per second
+     */
+    public double getOpsPerSecond() {
+      return operations * 1e9 / wallNanos;
+    }
+
+    /**
+     * Returns the CPU time of the benchmark thread spent per operation
+     *
+     * @return CPU nanoseconds per operation
+     */
+    public double getCpuNanosPerOp() {
+      return (double) cpuNanos / operations;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%-40s %12.0f ops/s %10.1f cpu ns/op", name, getOpsPerSecond(), getCpuNanosPerOp());
+    }
+  }
+
+  /** Body of a benchmark */
+  public interface Body {
+    /**
+     * Runs the benchmarked code
+     *
+     * @return Number of operations completed
+     */
+    public long run();
+  }
+
+  /**
+   * Runs the body once to warm up, then again while timing it, and prints the result
+   *
+   * @param name Name of the benchmark
+   * @param body Benchmarked code
+   * @return Timing result of the second run
+   */
+  public static Result run(String name, Body body) {
+    body.run();
+    long cpuStart = threadBean.getCurrentThreadCpuTime();
+    long wallStart = System.nanoTime();
+    long operations = body.run();
+    long wallNanos = System.nanoTime() - wallStart;
+    long cpuNanos = threadBean.getCurrentThreadCpuTime() - cpuStart;
+    Result result = new Result(name, operations, wallNanos, cpuNanos);
+    System.out.println(result);
+    return result;
+  }
+
+  /**
+   * Returns the CPU time used so far by the live threads with the given name, used to measure
+   * work done on threads the benchmark does not run on
+   *
+   * @param threadName Name of the threads
+   * @return CPU time in nanoseconds
+   */
+  public static long getThreadCpuTime(String threadName) {
+    long cpuNanos = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals(threadName)) {
+        cpuNanos += Math.max(threadBean.getThreadCpuTime(thread.getId()), 0);
+      }
+    }
+    return cpuNanos;
+  }
+
+  /**
+   * Busy waits for the given time, used to model the cost of a native call
+   *
+   * @param nanos Time to wait in nanoseconds
+   */
+  public static void spin(long nanos) {
+    long end = System.nanoTime() + nanos;
+    while (System.nanoTime() < end) {
+      Thread.onSpinWait();
+    }
+  }
+}
@@ -0,0 +1,523 @@
+package com.chargerrobotics.testutils;
+
+import com.chargerrobotics.utils.Crc16;
+import com.chargerrobotics.utils.SerialTransport;
+import com.chargerrobotics.utils.UsbIdentity;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Simulated Arduino that can be used in place of a real COM port
+ *
+ * <p>Parses the frames written by the host, answers polls with the configured response and, if
+ * enabled, supports the capability handshake and streaming of the response. Other frames from the
+ * host are passed to the command handler registered for their header
+ *
+ * <p>Faults of a real link can be scripted: dropped bytes, slow responses and a hung adapter. See
+ * {@link SimulatedSensors} for devices behaving like the robot's sensors
+ *
+ * <p>If enabled, the device answers clock synchronisation requests from its own clock, which can
+ * be given an offset and drift from the host clock.
+ *
+ * <p>If enabled, the device negotiates a faster baud rate. Bytes sent while the host and device run
+ * at different rates, or at a rate above what the link carries, arrive garbled
+ */
+public class SimulatedArduino implements SerialTransport {
+
+  private static final int BUFFER_SIZE = 4096;
+  private static final long READ_TIMEOUT = 5;
+  private static final short pollHeader = (short) 0x4281;
+  private static final short capabilitiesHeader = (short) 0x4381;
+  private static final short streamHeader = (short) 0x4481;
+  private static final short baudHeader = (short) 0x4781;
+  private static final short syncHeader = (short) 0x4881;
+  private static final int capabilityStreaming = 0x0001;
+  private static final int capabilityClockSync = 0x0002;
+  private static final int hostMaxBaudRate = 2000000;
+  private static final long baudConfirmTimeout = 100;
+
+  private final String name;
+  private final byte[] toHost = new byte[BUFFER_SIZE];
+  private int toHostStart = 0;
+  private int toHostLength = 0;
+  private final byte[] fromHost = new byte[BUFFER_SIZE];
+  private int fromHostLength = 0;
+
+  private volatile boolean open = false;
+  private volatile long hangTime = 0;
+  private volatile short responseHeader = 0;
+  private volatile Supplier<byte[]> responseSource = null;
+  private volatile int pollCount = 0;
+  private volatile boolean streamingSupported = false;
+  private volatile int streamPeriod = 0;
+  private Thread streamThread = null;
+  private final Object streamLock = new Object();
+  private final Map<Short, Consumer<byte[]>> commandHandlers =
+      new ConcurrentHashMap<Short, Consumer<byte[]>>();
+  private volatile long responseDelay = 0;
+  private long heldUntil = 0;
+  private Random dropRandom = null;
+  private double dropRate = 0;
+  private int droppedBytes = 0;
+  private volatile UsbIdentity identity = null;
+  private volatile long openTime = 0;
+  private volatile int maxBaudRate = -1;
+  private volatile int linkMaxBaudRate = Integer.MAX_VALUE;
+  private volatile int hostBaudRate = DEFAULT_BAUD_RATE;
+  private int baudRate = DEFAULT_BAUD_RATE;
+  private long baudConfirmDeadline = 0;
+  private volatile int baudProposals = 0;
+  private volatile boolean clockSyncSupported = false;
+  private volatile long clockOffset = 0;
+  private volatile double clockDrift = 0;
+
+  /**
+   * Constructs a simulated device with the given port name
+   *
+   * @param name System COM port name
+   */
+  public SimulatedArduino(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Sets the frame the device answers each poll with
+   *
+   * @param header Header of the response
+   * @param payload Payload of the response
+   */
+  public void setPollResponse(short header, byte[] payload) {
+    setPollResponse(header, () -> payload);
+  }
+
+  /**
+   * Sets the frame the device answers each poll with, and streams if streaming is enabled
+   *
+   * @param header Header of the response
+   * @param source Provides the payload of each response at the time it is sent
+   */
+  public void setPollResponse(short header, Supplier<byte[]> source) {
+    responseSource = source;
+    responseHeader = header;
+  }
+
+  /**
+   * Sets whether the device reports support for streaming in the capability handshake
+   *
+   * @param streamingSupported Whether streaming is supported
+   */
+  public void setStreamingSupported(boolean streamingSupported) {
+    this.streamingSupported = streamingSupported;
+  }
+
+  /**
+   * Makes the device stop answering and block every read for the given time, like a wedged USB
+   * adapter
+   *
+   * @param hangTime Time each read blocks for in milliseconds, or 0 to respond normally
+   */
+  public void setHangTime(long hangTime) {
+    this.hangTime = hangTime;
+  }
+
+  /**
+   * Makes every frame sent by the device readable only after the given time, like a device busy
+   * measuring before it answers
+   *
+   * @param responseDelay Delay in milliseconds, or 0 to respond immediately
+   */
+  public void setResponseDelay(long responseDelay) {
+    this.responseDelay = responseDelay;
+  }
+
+  /**
+   * Makes the device lose bytes on their way to the host, like a noisy cable
+   *
+   * @param dropRate Probability of each byte being lost, or 0 to lose none
+   * @param seed Seed of the random choice of lost bytes, so that a run can be repeated
+   */
+  public synchronized void setDropRate(double dropRate, long seed) {
+    this.dropRate = dropRate;
+    dropRandom = dropRate > 0 ? new Random(seed) : null;
+  }
+
+  /**
+   * Returns the number of bytes lost on their way to the host
+   *
+   * @return Dropped byte count
+   */
+  public synchronized int getDroppedBytes() {
+    return droppedBytes;
+  }
+
+  /**
+   * Sets the USB identity the device reports
+   *
+   * @param identity Identity, or <code>null</code> if unknown
+   */
+  public void setIdentity(UsbIdentity identity) {
+    this.identity = identity;
+  }
+
+  /**
+   * Makes opening the port take the given time, like an Arduino resetting when its port is opened
+   *
+   * @param openTime Time to open in milliseconds
+   */
+  public void setOpenTime(long openTime) {
+    this.openTime = openTime;
+  }
+
+  /**
+   * Makes the device negotiate baud rates up to the given rate. The simulated port then supports up
+   * to 2M on the host side, otherwise it can not change rate
+   *
+   * @param maxBaudRate Fastest rate the device accepts, or 0 to ignore proposals like older
+   *     firmware
+   */
+  public void setMaxBaudRate(int maxBaudRate) {
+    this.maxBaudRate = maxBaudRate;
+  }
+
+  /**
+   * Makes the device answer clock synchronisation requests, with a clock running from the given
+   * offset at the given rate relative to {@link System#nanoTime()}
+   *
+   * @param offset Device time minus host time in microseconds when the host time is 0
+   * @param drift Microseconds the device clock gains per microsecond of host time
+   */
+  public void setClock(long offset, double drift) {
+    clockOffset = offset;
+    clockDrift = drift;
+    clockSyncSupported = true;
+  }
+
+  /**
+   * Returns the device <code>micros()</code> clock at the given host time
+   *
+   * @param hostMicros {@link System#nanoTime()} in microseconds
+   * @return Unsigned 32 bit device time in microseconds
+   */
+  public long getMicros(long hostMicros) {
+    return (hostMicros + clockOffset + (long) (clockDrift * hostMicros)) & 0xffffffffL;
+  }
+
+  /**
+   * Makes bytes sent at a rate above the given rate arrive garbled, like a long or noisy cable
+   *
+   * @param linkMaxBaudRate Fastest rate the link carries
+   */
+  public void setLinkMaxBaudRate(int linkMaxBaudRate) {
+    this.linkMaxBaudRate = linkMaxBaudRate;
+  }
+
+  /**
+   * Returns the baud rate the device runs at
+   *
+   * @return Baud rate
+   */
+  public synchronized int getBaudRate() {
+    expireBaudRate();
+    return baudRate;
+  }
+
+  /**
+   * Returns the number of baud rate proposals and confirmations the device has received
+   *
+   * @return Proposal count
+   */
+  public int getBaudProposals() {
+    return baudProposals;
+  }
+
+  /**
+   * Registers the handler of frames with the given header sent by the host
+   *
+   * <p>The handler runs on the thread writing to the device and may call {@link #sendFrame(short,
+   * byte[])} to answer
+   *
+   * @param header Header of the command
+   * @param handler Receives the payload of each command
+   */
+  public void setCommandHandler(short header, Consumer<byte[]> handler) {
+    commandHandlers.put(header, handler);
+  }
+
+  /**
+   * Returns the number of polls the device has received
+   *
+   * @return Poll count
+   */
+  public int getPollCount() {
+    return pollCount;
+  }
+
+  /**
+   * Returns the streaming period requested by the host
+   *
+   * @return Period in milliseconds, or 0 if not streaming
+   */
+  public int getStreamPeriod() {
+    return streamPeriod;
+  }
+
+  /**
+   * Queues a frame to be read by the host
+   *
+   * @param header Header of the frame
+   * @param payload Payload of the frame
+   */
+  public synchronized void sendFrame(short header, byte[] payload) {
+    byte[] frame = encodeFrame(header, payload);
+    if (!isLinkClear()) {
+      for (int i = 0; i < frame.length; i++) {
+        frame[i] = (byte) ~frame[i];
+      }
+    }
+    if (responseDelay > 0) {
+      heldUntil = System.currentTimeMillis() + responseDelay;
+    }
+    for (byte b : frame) {
+      if (dropRandom != null && dropRandom.nextDouble() < dropRate) {
+        droppedBytes++;
+      } else if (toHostLength < BUFFER_SIZE) {
+        toHost[(toHostStart + toHostLength) % BUFFER_SIZE] = b;
+        toHostLength++;
+      }
+    }
+    notifyAll();
+  }
+
+  /**
+   * Encodes a frame as it is sent over the wire
+   *
+   * @param header Header of the frame
+   * @param payload Payload of the frame
+   * @return Encoded frame
+   */
+  public static byte[] encodeFrame(short header, byte[] payload) {
+    byte[] frame = new byte[8 + payload.length];
+    frame[0] = 0x55;
+    frame[1] = 0x55;
+    frame[2] = (byte) (header & 0xff);
+    frame[3] = (byte) ((header >> 8) & 0xff);
+    frame[6] = (byte) (payload.length & 0xff);
+    frame[7] = (byte) ((payload.length >> 8) & 0xff);
+    System.arraycopy(payload, 0, frame, 8, payload.length);
+    int crc = crc(frame, payload.length);
+    frame[4] = (byte) (crc & 0xff);
+    frame[5] = (byte) ((crc >> 8) & 0xff);
+    return frame;
+  }
+
+  private static byte[] encodeInt(int value) {
+    return new byte[] {
+      (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)
+    };
+  }
+
+  private static int crc(byte[] frame, int length) {
+    int crc = Crc16.update(Crc16.INITIAL, frame, 2, 2);
+    return Crc16.update(crc, frame, 6, 2 + length);
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public UsbIdentity getIdentity() {
+    return identity;
+  }
+
+  @Override
+  public int getMaxBaudRate() {
+    return maxBaudRate >= 0 ? hostMaxBaudRate : DEFAULT_BAUD_RATE;
+  }
+
+  @Override
+  public boolean setBaudRate(int baudRate) {
+    if (baudRate > getMaxBaudRate()) return false;
+    hostBaudRate = baudRate;
+    return true;
+  }
+
+  @Override
+  public boolean open() {
+    if (openTime > 0) {
+      try {
+        Thread.sleep(openTime);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this) {
+      // Opening the port resets the Arduino
+      baudRate = DEFAULT_BAUD_RATE;
+      baudConfirmDeadline = 0;
+      open = true;
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized void close() {
+    open = false;
+    streamPeriod = 0;
+    notifyAll();
+  }
+
+  @Override
+  public synchronized int readBytes(byte[] buffer, int offset, int length) {
+    if (!open) return -1;
+    try {
+      if (hangTime > 0) {
+        wait(hangTime);
+        return open ? 0 : -1;
+      }
+      long held = heldUntil - System.currentTimeMillis();
+      if (held > 0) {
+        wait(Math.min(held, READ_TIMEOUT));
+      } else if (toHostLength == 0) {
+        wait(READ_TIMEOUT);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!open) return -1;
+    if (heldUntil > System.currentTimeMillis()) return 0;
+    int count = Math.min(length, toHostLength);
+    for (int i = 0; i < count; i++) {
+      buffer[offset + i] = toHost[toHostStart];
+      toHostStart = (toHostStart + 1) % BUFFER_SIZE;
+    }
+    toHostLength -= count;
+    return count;
+  }
+
+  @Override
+  public synchronized int writeBytes(byte[] buffer, int offset, int length) {
+    if (!open) return -1;
+    expireBaudRate();
+    if (!isLinkClear()) return length;
+    for (int i = 0; i < length; i++) {
+      writeToDevice(buffer[offset + i]);
+    }
+    return length;
+  }
+
+  private void expireBaudRate() {
+    if (baudConfirmDeadline > 0 && System.currentTimeMillis() > baudConfirmDeadline) {
+      baudRate = DEFAULT_BAUD_RATE;
+      baudConfirmDeadline = 0;
+    }
+  }
+
+  private boolean isLinkClear() {
+    return hostBaudRate == baudRate && baudRate <= linkMaxBaudRate;
+  }
+
+  private void writeToDevice(byte b) {
+    if (fromHostLength < BUFFER_SIZE) {
+      fromHost[fromHostLength++] = b;
+    }
+    while (fromHostLength >= 8) {
+      if (fromHost[0] != 0x55 || fromHost[1] != 0x55) {
+        consumeFromHost(1);
+        continue;
+      }
+      int length = (fromHost[6] & 0xff) | ((fromHost[7] & 0xff) << 8);
+      if (fromHostLength < 8 + length) break;
+      short header = (short) ((fromHost[2] & 0xff) | ((fromHost[3] & 0xff) << 8));
+      int expectedCrc = (fromHost[4] & 0xff) | ((fromHost[5] & 0xff) << 8);
+      if (crc(fromHost, length) == expectedCrc) {
+        handleFrame(header, length);
+      }
+      consumeFromHost(8 + length);
+    }
+  }
+
+  private void consumeFromHost(int count) {
+    System.arraycopy(fromHost, count, fromHost, 0, fromHostLength - count);
+    fromHostLength -= count;
+  }
+
+  private void handleFrame(short header, int length) {
+    if (header == pollHeader) {
+      pollCount++;
+      if (hangTime == 0 && responseSource != null) {
+        sendFrame(responseHeader, responseSource.get());
+      }
+    } else if (hangTime > 0) {
+      return;
+    } else if (commandHandlers.containsKey(header)) {
+      byte[] payload = new byte[length];
+      System.arraycopy(fromHost, 8, payload, 0, length);
+      commandHandlers.get(header).accept(payload);
+    } else if (header == baudHeader && maxBaudRate > 0 && length >= 4) {
+      baudProposals++;
+      int rate =
+          (fromHost[8] & 0xff)
+              | ((fromHost[9] & 0xff) << 8)
+              | ((fromHost[10] & 0xff) << 16)
+              | ((fromHost[11] & 0xff) << 24);
+      if (baudConfirmDeadline > 0 && rate == baudRate) {
+        baudConfirmDeadline = 0;
+        sendFrame(baudHeader, encodeInt(rate));
+      } else if (rate <= maxBaudRate) {
+        // Answered at the old rate, then the device waits for confirmation at the new rate
+        sendFrame(baudHeader, encodeInt(rate));
+        baudRate = rate;
+        baudConfirmDeadline = System.currentTimeMillis() + baudConfirmTimeout;
+      } else {
+        sendFrame(baudHeader, encodeInt(0));
+      }
+    } else if (header == syncHeader && clockSyncSupported && length >= 8) {
+      byte[] answer = new byte[16];
+      System.arraycopy(fromHost, 8, answer, 0, 8);
+      byte[] received = encodeInt((int) getMicros(System.nanoTime() / 1000));
+      System.arraycopy(received, 0, answer, 8, 4);
+      byte[] sent = encodeInt((int) getMicros(System.nanoTime() / 1000));
+      System.arraycopy(sent, 0, answer, 12, 4);
+      sendFrame(syncHeader, answer);
+    } else if (header == capabilitiesHeader && (streamingSupported || clockSyncSupported)) {
+      int capabilities =
+          (streamingSupported ? capabilityStreaming : 0)
+              | (clockSyncSupported ? capabilityClockSync : 0);
+      sendFrame(capabilitiesHeader, new byte[] {(byte) capabilities, 0});
+    } else if (header == streamHeader && streamingSupported && length >= 2) {
+      streamPeriod = (fromHost[8] & 0xff) | ((fromHost[9] & 0xff) << 8);
+      synchronized (streamLock) {
+        streamLock.notifyAll();
+      }
+      if (streamPeriod > 0 && streamThread == null) {
+        streamThread = new Thread(this::stream, name + " stream");
+        streamThread.setDaemon(true);
+        streamThread.start();
+      }
+    }
+  }
+
+  private void stream() {
+    while (open && streamPeriod > 0) {
+      if (responseSource != null) {
+        sendFrame(responseHeader, responseSource.get());
+      }
+      try {
+        // Woken early when the host changes the period, which takes effect immediately
+        synchronized (streamLock) {
+          streamLock.wait(Math.max(streamPeriod, 1));
+        }
+      } catch (InterruptedException e) {
+        break;
+      }
+    }
+    synchronized (this) {
+      streamThread = null;
+    }
+  }
+}
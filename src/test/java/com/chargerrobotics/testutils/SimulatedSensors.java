@@ -0,0 +1,100 @@
+package com.chargerrobotics.testutils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** Scripted {@link SimulatedArduino} devices behaving like the sensors on the robot */
+public class SimulatedSensors {
+
+  public static final short GYRO_HEADER = (short) 0xA02D;
+  public static final short BALL_HEADER = (short) 0xB02D;
+  public static final short BALL_RESET_HEADER = (short) 0xB0FF;
+
+  private SimulatedSensors() {}
+
+  /**
+   * Creates a gyroscope that streams when asked to and turns at a constant rate
+   *
+   * @param name System COM port name
+   * @param degreesPerSecond Rate the yaw changes at
+   * @return Simulated device
+   */
+  public static SimulatedArduino gyro(String name, float degreesPerSecond) {
+    SimulatedArduino device = new SimulatedArduino(name);
+    long start = System.nanoTime();
+    device.setStreamingSupported(true);
+    device.setPollResponse(
+        GYRO_HEADER,
+        () -> {
+          double seconds = (System.nanoTime() - start) / 1e9;
+          float yaw = (float) ((seconds * degreesPerSecond) % 360 + 360) % 360;
+          return ByteBuffer.allocate(12)
+              .order(ByteOrder.LITTLE_ENDIAN)
+              .putFloat(yaw)
+              .putFloat(0)
+              .putFloat(0)
+              .array();
+        });
+    return device;
+  }
+
+  /**
+   * Creates a device that answers with the {@link System#nanoTime()} at which each sample was
+   * taken, used to measure how old samples are when they are read
+   *
+   * @param name System COM port name
+   * @param header Header of the samples
+   * @return Simulated device
+   */
+  public static SimulatedArduino clock(String name, short header) {
+    SimulatedArduino device = new SimulatedArduino(name);
+    device.setPollResponse(
+        header,
+        () ->
+            ByteBuffer.allocate(8)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putLong(System.nanoTime())
+                .array());
+    return device;
+  }
+
+  /** Ball counter that reports the balls added to it and is cleared by a reset command */
+  public static class BallCounter {
+    private final SimulatedArduino device;
+    private volatile byte count = 0;
+
+    /**
+     * Creates a ball counter
+     *
+     * @param name System COM port name
+     */
+    public BallCounter(String name) {
+      device = new SimulatedArduino(name);
+      device.setPollResponse(BALL_HEADER, () -> new byte[] {count});
+      device.setCommandHandler(BALL_RESET_HEADER, payload -> count = 0);
+    }
+
+    /** Counts a ball passing the sensor */
+    public void addBall() {
+      count++;
+    }
+
+    /**
+     * Returns the number of balls counted since the last reset
+     *
+     * @return Ball count
+     */
+    public byte getCount() {
+      return count;
+    }
+
+    /**
+     * Returns the device to hand to the receiver
+     *
+     * @return Simulated device
+     */
+    public SimulatedArduino getDevice() {
+      return device;
+    }
+  }
+}
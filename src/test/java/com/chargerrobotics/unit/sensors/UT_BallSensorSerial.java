@@ -0,0 +1,76 @@
+package com.chargerrobotics.unit.sensors;
+
+import static org.testng.Assert.assertEquals;
+
+import com.chargerrobotics.sensors.BallSensorSerial;
+import com.chargerrobotics.testutils.SimulatedSensors.BallCounter;
+import com.chargerrobotics.utils.ArduinoSerialReceiver;
+import com.chargerrobotics.utils.COMPortsStorage;
+import com.chargerrobotics.utils.WriteBehindStore;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class UT_BallSensorSerial {
+
+  private File directory;
+  private WriteBehindStore store;
+  private WriteBehindStore previousStore;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("ports").toFile();
+    store = new WriteBehindStore(new File(directory, "com.yml"), 60000);
+    previousStore = COMPortsStorage.setStore(store);
+  }
+
+  @AfterMethod
+  public void closeReceiver() {
+    ArduinoSerialReceiver.close();
+    COMPortsStorage.setStore(previousStore);
+    store.flush();
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  /**
+   * Waits until the sensor reports the given count
+   *
+   * @param sensor Sensor to read
+   * @param count Expected count
+   * @throws InterruptedException If interrupted while waiting
+   */
+  private static void awaitCount(BallSensorSerial sensor, int count) throws InterruptedException {
+    long end = System.currentTimeMillis() + 1000;
+    while (sensor.getBallCount() != count && System.currentTimeMillis() < end) {
+      Thread.sleep(10);
+    }
+    assertEquals(sensor.getBallCount(), count);
+  }
+
+  /**
+   * Tests that the ball count is polled from the counter and cleared by a reset
+   *
+   * @throws InterruptedException If interrupted while waiting for polls
+   */
+  @Test
+  public void testCountAndReset() throws InterruptedException {
+    BallSensorSerial sensor = new BallSensorSerial();
+    BallCounter counter = new BallCounter("ttyBALL0");
+    ArduinoSerialReceiver.start(() -> Arrays.asList(counter.getDevice()));
+
+    counter.addBall();
+    counter.addBall();
+    awaitCount(sensor, 2);
+
+    sensor.resetCount();
+    awaitCount(sensor, 0);
+    assertEquals(counter.getCount(), 0);
+  }
+}
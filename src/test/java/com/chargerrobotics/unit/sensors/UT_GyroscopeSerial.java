@@ -0,0 +1,148 @@
+package com.chargerrobotics.unit.sensors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.sensors.GyroscopeSerial;
+import com.chargerrobotics.testutils.SimulatedArduino;
+import com.chargerrobotics.utils.ArduinoSerial;
+import com.chargerrobotics.utils.ArduinoSerialReceiver;
+import com.chargerrobotics.utils.COMPortsStorage;
+import com.chargerrobotics.utils.SensorSnapshot;
+import com.chargerrobotics.utils.WriteBehindStore;
+import edu.wpi.first.wpilibj.RobotController;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class UT_GyroscopeSerial {
+
+  private static final short gyroHeader = (short) 0xA02D;
+  private static final short timestampHeader = (short) 0x4681;
+
+  private volatile long time;
+  private GyroscopeSerial gyro;
+  private SimulatedArduino device;
+  private ArduinoSerial serial;
+  private File directory;
+  private WriteBehindStore store;
+  private WriteBehindStore previousStore;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("ports").toFile();
+    store = new WriteBehindStore(new File(directory, "com.yml"), 60000);
+    previousStore = COMPortsStorage.setStore(store);
+    ArduinoSerialReceiver.setTimeSource(() -> time);
+    gyro = new GyroscopeSerial();
+    device = new SimulatedArduino("ttyUSB0");
+    serial = new ArduinoSerial(device) {};
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    serial.close();
+    ArduinoSerialReceiver.setTimeSource(RobotController::getFPGATime);
+    COMPortsStorage.setStore(previousStore);
+    store.flush();
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  private static byte[] gyroPayload(float yaw) {
+    return gyroPayload(yaw, 0, 0);
+  }
+
+  private static byte[] gyroPayload(float yaw, float pitch, float roll) {
+    return ByteBuffer.allocate(12)
+        .order(ByteOrder.LITTLE_ENDIAN)
+        .putFloat(yaw)
+        .putFloat(pitch)
+        .putFloat(roll)
+        .array();
+  }
+
+  /** Answers the next poll with the given yaw, arriving at the given time */
+  private void receiveYaw(float yaw, long arrival) {
+    time = arrival;
+    device.setPollResponse(gyroHeader, gyroPayload(yaw));
+    assertTrue(serial.poll(), "Poll was not answered");
+    ArduinoSerialReceiver.dispatchPending();
+  }
+
+  /** Tests that samples are stamped with their arrival time and interpolated between */
+  @Test
+  public void testYawInterpolation() {
+    receiveYaw(10, 1000000);
+    receiveYaw(20, 1020000);
+    receiveYaw(40, 1040000);
+
+    assertEquals(gyro.getLastTimestamp(), 1040000);
+    assertEquals(gyro.getYawAt(1010000), 15f, 0.001f);
+    assertEquals(gyro.getYawAt(1035000), 35f, 0.001f);
+    assertEquals(gyro.getYawAt(900000), 10f, 0.001f, "Times before the history were not clamped");
+    assertEquals(gyro.getYawAt(2000000), 40f, 0.001f, "Times after the history were not clamped");
+  }
+
+  /** Tests that interpolation takes the shorter way across 0 degrees */
+  @Test
+  public void testYawInterpolationWraps() {
+    receiveYaw(350, 1000000);
+    receiveYaw(10, 1020000);
+
+    assertEquals(gyro.getYawAt(1005000), 355f, 0.001f);
+    assertEquals(gyro.getYawAt(1015000), 5f, 0.001f);
+  }
+
+  /** Tests that a device timestamp moves the sample back to the time it was measured */
+  @Test
+  public void testDeviceTimestamp() {
+    long[] deviceMicros = new long[] {5000, 25000, 45000};
+    long[] arrivals = new long[] {1000000, 1023000, 1040000};
+    for (int i = 0; i < deviceMicros.length; i++) {
+      byte[] yaw = gyroPayload(i * 10);
+      byte[] payload =
+          ByteBuffer.allocate(6 + yaw.length)
+              .order(ByteOrder.LITTLE_ENDIAN)
+              .putInt((int) deviceMicros[i])
+              .putShort(gyroHeader)
+              .put(yaw)
+              .array();
+      time = arrivals[i];
+      device.setPollResponse(timestampHeader, payload);
+      assertTrue(serial.poll(), "Poll was not answered");
+    }
+    ArduinoSerialReceiver.dispatchPending();
+
+    // The second frame arrived 3ms later than the others, its sample is moved back to 1020000
+    assertEquals(gyro.getLastTimestamp(), 1040000);
+    assertEquals(gyro.getYawAt(1040000 - 20000), 10f, 0.01f);
+    assertEquals(gyro.getYawAt(1040000 - 30000), 5f, 0.01f);
+  }
+
+  /** Tests that the orientation is read from a single message along with its timestamp */
+  @Test
+  public void testOrientationSnapshot() {
+    SensorSnapshot.Reading reading = new SensorSnapshot.Reading();
+    assertTrue(!gyro.readOrientation(reading), "Orientation was read before any message");
+
+    time = 1000000;
+    device.setPollResponse(gyroHeader, gyroPayload(90, 5, -3));
+    assertTrue(serial.poll(), "Poll was not answered");
+    ArduinoSerialReceiver.dispatchPending();
+
+    assertTrue(gyro.readOrientation(reading), "Orientation expired");
+    assertEquals(reading.getFloat(GyroscopeSerial.YAW), 90f, 0f);
+    assertEquals(reading.getFloat(GyroscopeSerial.PITCH), 5f, 0f);
+    assertEquals(reading.getFloat(GyroscopeSerial.ROLL), -3f, 0f);
+    assertEquals(reading.getTimestamp(), 1000000);
+    assertEquals(gyro.getPitch(), 5f, 0f);
+  }
+}
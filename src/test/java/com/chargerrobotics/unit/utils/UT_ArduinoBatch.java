@@ -0,0 +1,89 @@
+package com.chargerrobotics.unit.utils;
+
+import static org.testng.Assert.assertEquals;
+
+import com.chargerrobotics.testutils.SimulatedArduino;
+import com.chargerrobotics.utils.ArduinoBatch;
+import com.chargerrobotics.utils.ArduinoFrameDecoder;
+import com.chargerrobotics.utils.ArduinoFrameDecoder.FrameListener;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class UT_ArduinoBatch {
+
+  private static final short[] headers =
+      new short[] {(short) 0xA02D, (short) 0x902D, (short) 0xB02D, (short) 0x802D};
+  private static final byte[][] payloads =
+      new byte[][] {
+        ByteBuffer.allocate(12)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putFloat(90.5f)
+            .putFloat(-1.25f)
+            .putFloat(3)
+            .array(),
+        ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(12.75f).array(),
+        new byte[] {3},
+        new byte[0]
+      };
+
+  private ArduinoBatch batch;
+  private List<Short> receivedHeaders;
+  private List<byte[]> receivedPayloads;
+  private FrameListener listener;
+
+  @BeforeMethod
+  public void setUp() {
+    batch = new ArduinoBatch();
+    receivedHeaders = new ArrayList<Short>();
+    receivedPayloads = new ArrayList<byte[]>();
+    listener =
+        (header, payload) -> {
+          byte[] data = new byte[payload.remaining()];
+          payload.get(data);
+          receivedHeaders.add(header);
+          receivedPayloads.add(data);
+        };
+  }
+
+  /** Tests that encoded records are split back into the same headers and payloads */
+  @Test
+  public void testRoundTrip() {
+    byte[] encoded = ArduinoBatch.encode(headers, payloads);
+    assertEquals(batch.split(ByteBuffer.wrap(encoded), listener), headers.length);
+    for (int i = 0; i < headers.length; i++) {
+      assertEquals((short) receivedHeaders.get(i), headers[i]);
+      assertEquals(receivedPayloads.get(i), payloads[i]);
+    }
+  }
+
+  /** Tests that a container frame survives the frame decoder and is split into its records */
+  @Test
+  public void testRoundTripThroughFrameDecoder() {
+    byte[] frame =
+        SimulatedArduino.encodeFrame(ArduinoBatch.HEADER, ArduinoBatch.encode(headers, payloads));
+    ArduinoFrameDecoder decoder = new ArduinoFrameDecoder();
+    decoder.receive(frame, 0, frame.length);
+    assertEquals(decoder.decode((header, payload) -> batch.split(payload, listener)), 1);
+    assertEquals(receivedHeaders.size(), headers.length);
+    assertEquals(receivedPayloads.get(0), payloads[0]);
+  }
+
+  /** Tests that the records before a truncated record are still delivered */
+  @Test
+  public void testTruncatedRecord() {
+    byte[] encoded = ArduinoBatch.encode(headers, payloads);
+    ByteBuffer truncated = ByteBuffer.wrap(encoded, 0, 3 + 12 + 3 + 2);
+    assertEquals(batch.split(truncated, listener), 1);
+    assertEquals((short) receivedHeaders.get(0), headers[0]);
+  }
+
+  /** Tests that an oversized record payload is rejected by the encoder */
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testOversizedRecord() {
+    ArduinoBatch.encode(new short[] {headers[0]}, new byte[][] {new byte[256]});
+  }
+}
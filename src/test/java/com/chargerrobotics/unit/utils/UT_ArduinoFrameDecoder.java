@@ -0,0 +1,218 @@
+package com.chargerrobotics.unit.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.testutils.SimulatedArduino;
+import com.chargerrobotics.utils.ArduinoFrameDecoder;
+import com.chargerrobotics.utils.ArduinoFrameDecoder.FrameListener;
+import com.chargerrobotics.utils.Crc16;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class UT_ArduinoFrameDecoder {
+
+  private static final short gyroHeader = (short) 0xA02D;
+  private static final short ballHeader = (short) 0xB02D;
+
+  private ArduinoFrameDecoder decoder;
+  private List<Short> headers;
+  private List<byte[]> payloads;
+  private FrameListener listener;
+
+  @BeforeMethod
+  public void setUp() {
+    decoder = new ArduinoFrameDecoder();
+    headers = new ArrayList<Short>();
+    payloads = new ArrayList<byte[]>();
+    listener =
+        (header, payload) -> {
+          byte[] data = new byte[payload.remaining()];
+          payload.get(data);
+          headers.add(header);
+          payloads.add(data);
+        };
+  }
+
+  private static byte[] concat(byte[]... arrays) {
+    int length = 0;
+    for (byte[] array : arrays) {
+      length += array.length;
+    }
+    byte[] result = new byte[length];
+    int offset = 0;
+    for (byte[] array : arrays) {
+      System.arraycopy(array, 0, result, offset, array.length);
+      offset += array.length;
+    }
+    return result;
+  }
+
+  /** Passes the data to the decoder in chunks of random size, decoding after each */
+  private void receiveInChunks(byte[] data, Random random) {
+    for (int offset = 0; offset < data.length; ) {
+      int count = Math.min(1 + random.nextInt(300), data.length - offset);
+      offset += decoder.receive(data, offset, count);
+      decoder.decode(listener);
+    }
+  }
+
+  /** Tests that a frame is decoded correctly no matter where it is split between reads */
+  @Test
+  public void testFrameSplitAcrossReads() {
+    byte[] payload = new byte[] {10, -20, 30, -40, 50, 60, 70, 80, 90, 100, 110, 120};
+    byte[] frame = SimulatedArduino.encodeFrame(gyroHeader, payload);
+    for (int split = 1; split < frame.length; split++) {
+      headers.clear();
+      payloads.clear();
+      decoder.receive(frame, 0, split);
+      assertEquals(decoder.decode(listener), 0, "Frame decoded before it was complete");
+      decoder.receive(frame, split, frame.length - split);
+      assertEquals(decoder.decode(listener), 1, "Frame split at " + split + " was not decoded");
+      assertEquals((short) headers.get(0), gyroHeader);
+      assertEquals(payloads.get(0), payload);
+    }
+  }
+
+  /** Tests that several frames and noise in a single read are all decoded */
+  @Test
+  public void testMultipleFramesInOneRead() {
+    byte[] data =
+        concat(
+            new byte[] {1, 2, 3},
+            SimulatedArduino.encodeFrame(gyroHeader, new byte[] {1, 2, 3, 4}),
+            new byte[] {0x55, 7},
+            SimulatedArduino.encodeFrame(ballHeader, new byte[] {5}),
+            SimulatedArduino.encodeFrame(ballHeader, new byte[0]));
+    decoder.receive(data, 0, data.length);
+    assertEquals(decoder.decode(listener), 3);
+    assertEquals((short) headers.get(0), gyroHeader);
+    assertEquals((short) headers.get(1), ballHeader);
+    assertEquals(payloads.get(1), new byte[] {5});
+    assertEquals(payloads.get(2).length, 0);
+  }
+
+  /** Tests that a frame with an invalid checksum is dropped */
+  @Test
+  public void testInvalidChecksumDropped() {
+    byte[] frame = SimulatedArduino.encodeFrame(gyroHeader, new byte[] {1, 2, 3, 4});
+    frame[9]++;
+    decoder.receive(frame, 0, frame.length);
+    assertEquals(decoder.decode(listener), 0);
+  }
+
+  /** Tests that the reused payload view is read from the start for every frame */
+  @Test
+  public void testPayloadViewReset() {
+    byte[] payload = ByteBuffer.allocate(4).putFloat(1.5f).array();
+    for (int i = 0; i < 3; i++) {
+      byte[] frame = SimulatedArduino.encodeFrame(gyroHeader, payload);
+      decoder.receive(frame, 0, frame.length);
+    }
+    assertEquals(decoder.decode(listener), 3);
+    for (byte[] received : payloads) {
+      assertEquals(received, payload);
+    }
+  }
+
+  /** Tests the CRC against the published check value of CRC-16/CCITT-FALSE */
+  @Test
+  public void testCrcCheckValue() {
+    byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+    assertEquals(Crc16.update(Crc16.INITIAL, check, 0, check.length), 0x29B1);
+  }
+
+  /** Tests that a payload longer than 255 bytes uses both length bytes */
+  @Test
+  public void testLongPayload() {
+    byte[] payload = new byte[600];
+    new Random(6).nextBytes(payload);
+    byte[] frame = SimulatedArduino.encodeFrame(gyroHeader, payload);
+    decoder.receive(frame, 0, frame.length);
+    assertEquals(decoder.decode(listener), 1);
+    assertEquals(payloads.get(0), payload);
+  }
+
+  /** Tests that sync bytes in the noise before a frame do not hide it */
+  @Test
+  public void testSyncNoiseBeforeFrame() {
+    byte[] frame = SimulatedArduino.encodeFrame(gyroHeader, new byte[] {1, 2, 3, 4});
+    byte[] data = concat(new byte[] {0x55, 0x55, 0x55, 0x55, 0x55}, frame);
+    decoder.receive(data, 0, data.length);
+    assertEquals(decoder.decode(listener), 1);
+    assertEquals(payloads.get(0), new byte[] {1, 2, 3, 4});
+  }
+
+  /** Tests that a frame right after a corrupt one in the same read is still decoded */
+  @Test
+  public void testResyncAfterCorruptFrame() {
+    byte[] corrupt = SimulatedArduino.encodeFrame(gyroHeader, new byte[] {1, 2, 3, 4});
+    corrupt[9] ^= 0x10;
+    byte[] data = concat(corrupt, SimulatedArduino.encodeFrame(ballHeader, new byte[] {5}));
+    decoder.receive(data, 0, data.length);
+    assertEquals(decoder.decode(listener), 1);
+    assertEquals((short) headers.get(0), ballHeader);
+    assertEquals(decoder.getRejectedFrames(), 1);
+  }
+
+  /** Tests that a corrupt length does not hold back the frames after it */
+  @Test
+  public void testResyncAfterCorruptLength() {
+    byte[] corrupt = SimulatedArduino.encodeFrame(gyroHeader, new byte[] {1, 2, 3, 4});
+    corrupt[7] = 3;
+    byte[] data = concat(corrupt, SimulatedArduino.encodeFrame(ballHeader, new byte[] {5}));
+    decoder.receive(data, 0, data.length);
+    assertEquals(decoder.decode(listener), 1);
+    assertEquals((short) headers.get(0), ballHeader);
+  }
+
+  /**
+   * Tests that valid frames separated by random noise are all decoded when the stream is received
+   * in chunks of random size, wrapping around the ring buffer many times
+   */
+  @Test
+  public void testFramesInRandomNoise() {
+    Random random = new Random(1234);
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    List<byte[]> expected = new ArrayList<byte[]>();
+    for (int i = 0; i < 2000; i++) {
+      int noise = random.nextInt(24);
+      for (int j = 0; j < noise; j++) {
+        // Bias the noise towards sync bytes to exercise false starts
+        stream.write(random.nextInt(4) == 0 ? 0x55 : random.nextInt(256));
+      }
+      byte[] payload = new byte[random.nextInt(64)];
+      random.nextBytes(payload);
+      expected.add(payload);
+      byte[] frame = SimulatedArduino.encodeFrame(gyroHeader, payload);
+      stream.write(frame, 0, frame.length);
+    }
+    byte[] data = stream.toByteArray();
+    receiveInChunks(data, random);
+    assertEquals(payloads.size(), expected.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(payloads.get(i), expected.get(i), "Frame " + i + " corrupted");
+    }
+  }
+
+  /** Tests that pure random noise never produces a frame */
+  @Test
+  public void testPureNoise() {
+    Random random = new Random(4321);
+    byte[] data = new byte[1 << 20];
+    random.nextBytes(data);
+    for (int i = 0; i < data.length; i += 7) {
+      data[i] = 0x55;
+      data[i + 1] = 0x55;
+    }
+    receiveInChunks(data, random);
+    assertEquals(payloads.size(), 0);
+    assertTrue(decoder.getRejectedFrames() > 0, "Noise was never considered as a frame");
+  }
+}
@@ -0,0 +1,529 @@
+package com.chargerrobotics.unit.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.testutils.SimulatedArduino;
+import com.chargerrobotics.utils.ArduinoBatch;
+import com.chargerrobotics.utils.ArduinoSerial;
+import com.chargerrobotics.utils.ArduinoSerialReceiver;
+import com.chargerrobotics.utils.ArduinoSerialReceiver.ArduinoListener;
+import com.chargerrobotics.utils.COMPortsStorage;
+import com.chargerrobotics.utils.SerialLinkStats;
+import com.chargerrobotics.utils.SerialTransport;
+import com.chargerrobotics.utils.WriteBehindStore;
+import edu.wpi.first.wpilibj.RobotController;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class UT_ArduinoSerial {
+
+  private static final short testHeader = (short) 0x7D2D;
+  private static final short scaleHeader = (short) 0x7C2D;
+  private static final short sharedHeader = (short) 0x7A2D;
+  private static final short statsHeader = (short) 0x792D;
+  private static final short noisyHeader = (short) 0x782D;
+  private static final short slowHeader = (short) 0x772D;
+  private static final short queuedHeader = (short) 0x6E2D;
+  private static final short baudHeader = (short) 0x6C2D;
+  private static final short clockHeader = (short) 0x6B2D;
+  private static final short timestampHeader = (short) 0x4681;
+  private static final short blockingHeader = (short) 0x692D;
+  private static final short unblockedHeader = (short) 0x682D;
+  private static final int WARMUP = 20000;
+  private static final int ITERATIONS = 10000;
+  // The allocation counter itself allocates a few hundred bytes now and then while it is being
+  // compiled, while even one 16 byte object per poll would allocate 160KB over the iterations
+  private static final long ALLOCATION_NOISE = 2048;
+
+  private File directory;
+  private WriteBehindStore store;
+  private WriteBehindStore previousStore;
+
+  /** Device that answers every write with the same preallocated frame */
+  private static class LoopbackDevice implements SerialTransport {
+    private final byte[] response;
+    private int position;
+
+    LoopbackDevice(byte[] response) {
+      this.response = response;
+      this.position = response.length;
+    }
+
+    @Override
+    public int readBytes(byte[] buffer, int offset, int length) {
+      int count = Math.min(length, response.length - position);
+      System.arraycopy(response, position, buffer, offset, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public int writeBytes(byte[] buffer, int offset, int length) {
+      position = 0;
+      return length;
+    }
+
+    @Override
+    public String getName() {
+      return "ttyLOOP0";
+    }
+
+    @Override
+    public boolean open() {
+      return true;
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  private static class GyroListener extends ArduinoListener {
+    private float sum = 0;
+    private int count = 0;
+
+    @Override
+    public void receiveData(ArduinoSerial serial, ByteBuffer data) {
+      while (data.remaining() >= 4) {
+        sum += data.getFloat();
+      }
+      count++;
+    }
+  }
+
+  private static class ScaleListener extends ArduinoListener {
+    private float reading = 0;
+
+    @Override
+    public void receiveData(ArduinoSerial serial, ByteBuffer data) {
+      reading = data.getFloat();
+    }
+  }
+
+  /** Records how far each timestamp is from the host time the device measured the sample at */
+  private static class ClockListener extends ArduinoListener {
+    private long maxError = 0;
+    private int count = 0;
+
+    @Override
+    public void receiveData(ArduinoSerial serial, ByteBuffer data) {
+      long measured = data.order(ByteOrder.LITTLE_ENDIAN).getLong();
+      maxError = Math.max(maxError, Math.abs(getLastTimestamp() - measured));
+      count++;
+    }
+  }
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("ports").toFile();
+    store = new WriteBehindStore(new File(directory, "com.yml"), 60000);
+    previousStore = COMPortsStorage.setStore(store);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    COMPortsStorage.setStore(previousStore);
+    store.flush();
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  private static long getAllocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /** Tests that polling, sending and dispatching do not allocate once warmed up */
+  @Test
+  public void testPollDoesNotAllocate() {
+    ArduinoSerialReceiver.registerListener(new GyroListener(), testHeader);
+    byte[] payload = ByteBuffer.allocate(12).putFloat(1).putFloat(2).putFloat(3).array();
+    byte[] response = SimulatedArduino.encodeFrame(testHeader, payload);
+    ArduinoSerial serial = new ArduinoSerial(new LoopbackDevice(response)) {};
+    byte[] command = new byte[] {1, 2, 3};
+
+    int successes = 0;
+    for (int i = 0; i < WARMUP; i++) {
+      if (serial.poll()) successes++;
+      serial.sendData((short) 0x7DFF, command);
+      ArduinoSerialReceiver.dispatchPending();
+    }
+    assertEquals(successes, WARMUP, "Polls failed during warm up");
+
+    long overheadStart = getAllocatedBytes();
+    long overhead = getAllocatedBytes() - overheadStart;
+    successes = 0;
+    long start = getAllocatedBytes();
+    for (int i = 0; i < ITERATIONS; i++) {
+      if (serial.poll()) successes++;
+      serial.sendData((short) 0x7DFF, command);
+      ArduinoSerialReceiver.dispatchPending();
+    }
+    long allocated = getAllocatedBytes() - start - overhead;
+
+    assertEquals(successes, ITERATIONS, "Polls failed while measuring");
+    assertTrue(allocated <= ALLOCATION_NOISE, allocated + " bytes allocated by polling");
+  }
+
+  /** Tests that a single poll answered by a container frame refreshes every listener */
+  @Test
+  public void testBatchDispatchedToEachListener() {
+    GyroListener gyro = new GyroListener();
+    ArduinoSerialReceiver.registerListener(gyro, testHeader);
+    ScaleListener scale = new ScaleListener();
+    ArduinoSerialReceiver.registerListener(scale, scaleHeader);
+    byte[] batch =
+        ArduinoBatch.encode(
+            new short[] {testHeader, scaleHeader},
+            new byte[][] {
+              ByteBuffer.allocate(12)
+                  .order(ByteOrder.LITTLE_ENDIAN)
+                  .putFloat(1)
+                  .putFloat(2)
+                  .putFloat(3)
+                  .array(),
+              ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(7.5f).array()
+            });
+    byte[] response = SimulatedArduino.encodeFrame(ArduinoBatch.HEADER, batch);
+    ArduinoSerial serial = new ArduinoSerial(new LoopbackDevice(response)) {};
+
+    assertTrue(serial.poll(), "Poll was not answered");
+    ArduinoSerialReceiver.dispatchPending();
+    assertEquals(gyro.sum, 6f, 0f);
+    assertEquals(scale.reading, 7.5f, 0f);
+    assertTrue(!gyro.isExpired() && !scale.isExpired(), "A listener was not refreshed");
+  }
+
+  /**
+   * Tests that a listener stuck in its callback does not hold up dispatching to the others
+   *
+   * @throws InterruptedException If interrupted while waiting for the stuck dispatch
+   */
+  @Test
+  public void testSlowListenerDoesNotBlockOthers() throws InterruptedException {
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ArduinoListener blocking =
+        new ArduinoListener() {
+          @Override
+          public void receiveData(ArduinoSerial serial, ByteBuffer data) {
+            entered.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        };
+    GyroListener unblocked = new GyroListener();
+    ArduinoSerialReceiver.registerListener(blocking, blockingHeader);
+    ArduinoSerialReceiver.registerListener(unblocked, unblockedHeader);
+    ArduinoSerial blockingSerial =
+        new ArduinoSerial(
+            new LoopbackDevice(SimulatedArduino.encodeFrame(blockingHeader, new byte[4]))) {};
+    ArduinoSerial serial =
+        new ArduinoSerial(
+            new LoopbackDevice(SimulatedArduino.encodeFrame(unblockedHeader, new byte[4]))) {};
+    assertTrue(blockingSerial.poll(), "Poll was not answered");
+    Thread stuck = new Thread(ArduinoSerialReceiver::dispatchPending);
+    stuck.start();
+    assertTrue(entered.await(1, TimeUnit.SECONDS), "Slow listener was not called");
+
+    try {
+      assertTrue(serial.poll(), "Poll was not answered");
+      long start = System.nanoTime();
+      ArduinoSerialReceiver.dispatchPending();
+      assertTrue(System.nanoTime() - start < 100000000L, "Dispatch waited for the slow listener");
+      assertEquals(unblocked.count, 1, "Data was not passed while another listener was stuck");
+    } finally {
+      release.countDown();
+      stuck.join();
+      blockingSerial.close();
+      serial.close();
+    }
+  }
+
+  /** Tests that every listener registered for a header receives the whole payload once */
+  @Test
+  public void testSeveralListenersPerHeader() {
+    GyroListener first = new GyroListener();
+    GyroListener second = new GyroListener();
+    ArduinoSerialReceiver.registerListener(first, sharedHeader);
+    ArduinoSerialReceiver.registerListener(second, sharedHeader);
+    ArduinoSerialReceiver.registerListener(second, sharedHeader);
+    byte[] payload =
+        ByteBuffer.allocate(12)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putFloat(1)
+            .putFloat(2)
+            .putFloat(3)
+            .array();
+    byte[] response = SimulatedArduino.encodeFrame(sharedHeader, payload);
+    ArduinoSerial serial = new ArduinoSerial(new LoopbackDevice(response)) {};
+
+    assertTrue(serial.poll(), "Poll was not answered");
+    ArduinoSerialReceiver.dispatchPending();
+    assertEquals(ArduinoSerialReceiver.getListeners(sharedHeader).length, 2);
+    assertEquals(first.sum, 6f, 0f);
+    assertEquals(second.sum, 6f, 0f);
+  }
+
+  /** Tests that the link statistics count frames, bytes, rejected frames and timeouts */
+  @Test
+  public void testLinkStats() {
+    GyroListener gyro = new GyroListener();
+    ArduinoSerialReceiver.registerListener(gyro, statsHeader);
+    byte[] frame = SimulatedArduino.encodeFrame(statsHeader, new byte[12]);
+    byte[] corrupt = frame.clone();
+    corrupt[4] ^= 0x01;
+    byte[] response = new byte[corrupt.length + frame.length];
+    System.arraycopy(corrupt, 0, response, 0, corrupt.length);
+    System.arraycopy(frame, 0, response, corrupt.length, frame.length);
+    ArduinoSerial serial = new ArduinoSerial(new LoopbackDevice(response)) {};
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(serial.poll(), "Poll was not answered");
+    }
+    ArduinoSerialReceiver.dispatchPending();
+    SerialLinkStats stats = serial.getStats();
+    assertEquals(stats.getFrames(), 3);
+    assertEquals(stats.getBytes(), 3 * response.length);
+    assertEquals(stats.getRejectedFrames(), 3);
+    assertEquals(stats.getTimeouts(), 0);
+    assertEquals(stats.getPollTime().getCount(), 3);
+    assertEquals(stats.getCallbackTime().getCount(), 3);
+
+    ArduinoSerial silent = new ArduinoSerial(new LoopbackDevice(new byte[0])) {};
+    assertTrue(!silent.poll(), "Poll was answered");
+    assertEquals(silent.getStats().getTimeouts(), 1);
+    assertEquals(silent.getStats().getPollTime().getCount(), 0);
+  }
+
+  /** Tests that polling recovers from bytes lost on their way from the device */
+  @Test
+  public void testDroppedBytes() {
+    GyroListener gyro = new GyroListener();
+    ArduinoSerialReceiver.registerListener(gyro, noisyHeader);
+    SimulatedArduino device = new SimulatedArduino("ttyNOISE0");
+    device.setPollResponse(noisyHeader, new byte[12]);
+    device.setDropRate(0.01, 3);
+    ArduinoSerial serial = new ArduinoSerial(device) {};
+
+    int answered = 0;
+    for (int i = 0; i < 200; i++) {
+      if (serial.poll()) answered++;
+    }
+    device.setDropRate(0, 0);
+
+    assertTrue(device.getDroppedBytes() > 0, "No bytes were dropped");
+    assertTrue(answered >= 150, "Only " + answered + " of 200 polls were answered");
+    assertEquals(serial.getStats().getTimeouts(), 200 - answered);
+    assertTrue(serial.poll(), "Poll was not answered after the link recovered");
+    serial.close();
+  }
+
+  /**
+   * Tests that a response slower than the response timeout fails the poll but is not lost
+   *
+   * @throws InterruptedException If interrupted while waiting for the late response
+   */
+  @Test
+  public void testSlowResponse() throws InterruptedException {
+    GyroListener gyro = new GyroListener();
+    ArduinoSerialReceiver.registerListener(gyro, slowHeader);
+    SimulatedArduino device = new SimulatedArduino("ttySLOW0");
+    device.setPollResponse(slowHeader, new byte[12]);
+    ArduinoSerial serial = new ArduinoSerial(device) {};
+
+    device.setResponseDelay(10);
+    assertTrue(serial.poll(), "Poll within the response timeout was not answered");
+    long pollTime = serial.getStats().getPollTime().getPercentile(0.5);
+    assertTrue(pollTime >= 10000, "Poll answered after " + pollTime + "us");
+
+    device.setResponseDelay(50);
+    assertTrue(!serial.poll(), "Poll past the response timeout was answered");
+    assertEquals(serial.getStats().getTimeouts(), 1);
+
+    device.setResponseDelay(0);
+    Thread.sleep(50);
+    assertTrue(serial.poll(), "Poll was not answered after the device sped up");
+    assertEquals(serial.getStats().getFrames(), 3, "The late response was lost");
+    serial.close();
+  }
+
+  /** Tests that frames received while a listener has fallen behind are dropped and counted */
+  @Test
+  public void testQueueDropsWhenFull() {
+    GyroListener gyro = new GyroListener();
+    ArduinoSerialReceiver.registerListener(gyro, queuedHeader);
+    byte[] response = SimulatedArduino.encodeFrame(queuedHeader, new byte[12]);
+    ArduinoSerial serial = new ArduinoSerial(new LoopbackDevice(response)) {};
+
+    for (int i = 0; i < 20; i++) {
+      assertTrue(serial.poll(), "Poll was not answered");
+    }
+    assertEquals(gyro.count, 0, "Listener was called by the polling thread");
+    ArduinoSerialReceiver.dispatchPending();
+
+    assertEquals(gyro.count, 16);
+    assertEquals(gyro.getDroppedFrames(), 4);
+    assertEquals(serial.getStats().getFrames(), 20);
+    assertEquals(serial.getStats().getDroppedFrames(), 4);
+    assertTrue(serial.poll(), "Poll was not answered");
+    ArduinoSerialReceiver.dispatchPending();
+    assertEquals(gyro.count, 17, "Queue did not accept frames after draining");
+  }
+
+  /** Tests that the fastest rate the device accepts is agreed, saved and proposed first later */
+  @Test
+  public void testBaudRateNegotiation() {
+    ArduinoSerialReceiver.registerListener(new GyroListener(), baudHeader);
+    SimulatedArduino device = new SimulatedArduino("ttyBAUD0");
+    device.setPollResponse(baudHeader, new byte[4]);
+    device.setMaxBaudRate(1000000);
+    ArduinoSerial serial = new ArduinoSerial(device) {};
+
+    assertTrue(serial.negotiateBaudRate(), "No rate was agreed");
+    assertEquals(serial.getBaudRate(), 1000000);
+    assertEquals(device.getBaudRate(), 1000000);
+    assertEquals(device.getBaudProposals(), 3, "Expected 2M refused, 1M proposed and confirmed");
+    assertTrue(serial.poll(), "Poll was not answered at the agreed rate");
+    assertEquals(COMPortsStorage.getBaudRate("ttyBAUD0"), 1000000);
+    serial.close();
+
+    SimulatedArduino reconnected = new SimulatedArduino("ttyBAUD0");
+    reconnected.setPollResponse(baudHeader, new byte[4]);
+    reconnected.setMaxBaudRate(1000000);
+    serial = new ArduinoSerial(reconnected) {};
+    assertTrue(serial.negotiateBaudRate(), "No rate was agreed");
+    assertEquals(serial.getBaudRate(), 1000000);
+    assertEquals(reconnected.getBaudProposals(), 2, "The saved rate was not proposed first");
+    serial.close();
+  }
+
+  /** Tests that a rate the link garbles is abandoned for the next slower rate */
+  @Test
+  public void testBaudRateFallback() {
+    ArduinoSerialReceiver.registerListener(new GyroListener(), baudHeader);
+    SimulatedArduino device = new SimulatedArduino("ttyBAUD1");
+    device.setPollResponse(baudHeader, new byte[4]);
+    device.setMaxBaudRate(2000000);
+    device.setLinkMaxBaudRate(500000);
+    ArduinoSerial serial = new ArduinoSerial(device) {};
+
+    assertTrue(serial.negotiateBaudRate(), "No rate was agreed");
+    assertEquals(serial.getBaudRate(), 500000);
+    assertEquals(device.getBaudRate(), 500000);
+    assertTrue(serial.poll(), "Poll was not answered at the agreed rate");
+
+    SimulatedArduino slowLink = new SimulatedArduino("ttyBAUD2");
+    slowLink.setPollResponse(baudHeader, new byte[4]);
+    slowLink.setMaxBaudRate(2000000);
+    slowLink.setLinkMaxBaudRate(115200);
+    ArduinoSerial slowSerial = new ArduinoSerial(slowLink) {};
+    assertTrue(slowSerial.negotiateBaudRate(), "No rate was agreed");
+    assertEquals(slowSerial.getBaudRate(), 115200);
+    assertEquals(slowLink.getBaudRate(), 115200);
+    assertTrue(slowSerial.poll(), "Poll was not answered after falling back");
+    serial.close();
+    slowSerial.close();
+  }
+
+  /** Tests that refusing every rate is not saved, so the device negotiates again next time */
+  @Test
+  public void testBaudRateRefusalNotSaved() {
+    ArduinoSerialReceiver.registerListener(new GyroListener(), baudHeader);
+    SimulatedArduino device = new SimulatedArduino("ttyBAUD4");
+    device.setPollResponse(baudHeader, new byte[4]);
+    device.setMaxBaudRate(115200);
+    ArduinoSerial serial = new ArduinoSerial(device) {};
+
+    assertTrue(serial.negotiateBaudRate(), "No rate was agreed");
+    assertEquals(serial.getBaudRate(), 115200);
+    assertEquals(COMPortsStorage.getBaudRate("ttyBAUD4"), 0, "The default rate was saved");
+    serial.close();
+
+    // The same device after a firmware update
+    SimulatedArduino updated = new SimulatedArduino("ttyBAUD4");
+    updated.setPollResponse(baudHeader, new byte[4]);
+    updated.setMaxBaudRate(1000000);
+    serial = new ArduinoSerial(updated) {};
+    assertTrue(serial.negotiateBaudRate(), "No rate was agreed");
+    assertEquals(serial.getBaudRate(), 1000000);
+    assertEquals(COMPortsStorage.getBaudRate("ttyBAUD4"), 1000000);
+    serial.close();
+  }
+
+  /** Tests that a device ignoring proposals is kept at the default rate once it answers polls */
+  @Test
+  public void testBaudRateLegacyDevice() {
+    ArduinoSerialReceiver.registerListener(new GyroListener(), baudHeader);
+    SimulatedArduino device = new SimulatedArduino("ttyBAUD3");
+    device.setPollResponse(baudHeader, new byte[4]);
+    device.setMaxBaudRate(0);
+    ArduinoSerial serial = new ArduinoSerial(device) {};
+
+    assertTrue(!serial.negotiateBaudRate(), "Rate was agreed before the device answered");
+    assertTrue(serial.poll(), "Poll was not answered");
+    assertTrue(serial.negotiateBaudRate(), "Rate was not agreed for an older device");
+    assertEquals(serial.getBaudRate(), 115200);
+    serial.close();
+  }
+
+  /**
+   * Tests that after synchronising with a drifting device clock, samples arriving late are stamped
+   * with the time they were measured rather than the time they arrived
+   */
+  @Test
+  public void testClockSync() {
+    ArduinoSerialReceiver.setTimeSource(() -> System.nanoTime() / 1000);
+    try {
+      ClockListener listener = new ClockListener();
+      ArduinoSerialReceiver.registerListener(listener, clockHeader);
+      SimulatedArduino device = new SimulatedArduino("ttyCLOCK0");
+      device.setClock(123456789, 200e-6);
+      ArduinoSerial serial = new ArduinoSerial(device) {};
+      device.setPollResponse(
+          timestampHeader,
+          () -> {
+            long measured = System.nanoTime() / 1000;
+            return ByteBuffer.allocate(14)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putInt((int) device.getMicros(measured))
+                .putShort(clockHeader)
+                .putLong(measured)
+                .array();
+          });
+
+      for (int i = 0; i < 5; i++) {
+        assertTrue(serial.synchronizeClock(), "Clock sync was not answered");
+      }
+      assertTrue(serial.isClockSynced(), "Clock was not synchronised");
+
+      // Samples are sent 5ms after they are measured
+      device.setResponseDelay(5);
+      for (int i = 0; i < 10; i++) {
+        assertTrue(serial.poll(), "Poll was not answered");
+      }
+      ArduinoSerialReceiver.dispatchPending();
+
+      assertEquals(listener.count, 10);
+      assertTrue(
+          listener.maxError < 1000, "Timestamps were off by up to " + listener.maxError + "us");
+      serial.close();
+    } finally {
+      ArduinoSerialReceiver.setTimeSource(RobotController::getFPGATime);
+    }
+  }
+}
@@ -0,0 +1,501 @@
+package com.chargerrobotics.unit.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.testutils.SimulatedArduino;
+import com.chargerrobotics.utils.ArduinoSerial;
+import com.chargerrobotics.utils.ArduinoSerialReceiver;
+import com.chargerrobotics.utils.ArduinoSerialReceiver.ArduinoListener;
+import com.chargerrobotics.utils.COMPortsStorage;
+import com.chargerrobotics.utils.UsbIdentity;
+import com.chargerrobotics.utils.WriteBehindStore;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class UT_ArduinoSerialReceiver {
+
+  private static final short testHeader = (short) 0x7E2D;
+  private static final short polledHeader = (short) 0x7B2D;
+  private static final short streamHeader = (short) 0x7F2D;
+  private static final short gyroHeader = (short) 0x742D;
+  private static final short scaleHeader = (short) 0x732D;
+  private static final short boundHeader = (short) 0x722D;
+  private static final short warmPolledHeader = (short) 0x712D;
+  private static final short warmStreamHeader = (short) 0x702D;
+  private static final short slowHeader = (short) 0x6D2D;
+  private static final short resetHeader = (short) 0x6AFF;
+  private static final short deferredHeader = (short) 0x672D;
+
+  private File directory;
+  private WriteBehindStore store;
+  private WriteBehindStore previousStore;
+
+  private static class CountingListener extends ArduinoListener {
+    private volatile int count = 0;
+    private volatile long maxGap = 0;
+    private long lastTime = 0;
+
+    CountingListener() {}
+
+    CountingListener(long expiry, Priority priority) {
+      super(expiry, priority);
+    }
+
+    @Override
+    public void receiveData(ArduinoSerial serial, ByteBuffer data) {
+      long now = System.currentTimeMillis();
+      if (count > 0) {
+        maxGap = Math.max(maxGap, now - lastTime);
+      }
+      lastTime = now;
+      count++;
+    }
+  }
+
+  /** Listener with a name of its own, under which its device is saved */
+  private static class BoundListener extends CountingListener {}
+
+  /** Listeners whose devices are reset at initialization */
+  private static class InitListener extends CountingListener {}
+
+  private static class LateInitListener extends CountingListener {}
+
+  /** Takes far longer to handle each message than the port takes to receive it */
+  private static class SlowListener extends ArduinoListener {
+    private volatile int count = 0;
+    private volatile boolean slow = true;
+
+    @Override
+    public void receiveData(ArduinoSerial serial, ByteBuffer data) {
+      try {
+        if (slow) Thread.sleep(200);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      count++;
+    }
+  }
+
+  /** Records when the most recent sample was taken by the device */
+  private static class SampleListener extends ArduinoListener {
+    private volatile int count = 0;
+    private volatile long sampleTime = 0;
+
+    SampleListener() {}
+
+    SampleListener(long expiry, Priority priority) {
+      super(expiry, priority);
+    }
+
+    @Override
+    public void receiveData(ArduinoSerial serial, ByteBuffer data) {
+      sampleTime = data.getLong();
+      count++;
+    }
+  }
+
+  private static byte[] sample() {
+    return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(System.nanoTime()).array();
+  }
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("ports").toFile();
+    store = new WriteBehindStore(new File(directory, "com.yml"), 60000);
+    previousStore = COMPortsStorage.setStore(store);
+  }
+
+  @AfterMethod
+  public void closeReceiver() {
+    ArduinoSerialReceiver.close();
+    ArduinoSerialReceiver.setEnabled(true);
+    COMPortsStorage.setStore(previousStore);
+    store.flush();
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  /**
+   * Waits until the listener receives a sample taken after the given time
+   *
+   * @param listener Listener to wait for
+   * @param time {@link System#nanoTime()} the sample must be newer than
+   * @return Time waited in milliseconds
+   * @throws InterruptedException If interrupted while waiting
+   */
+  private static long awaitSampleAfter(SampleListener listener, long time)
+      throws InterruptedException {
+    while (listener.sampleTime <= time && System.nanoTime() - time < 1000000000L) {
+      Thread.sleep(0, 100000);
+    }
+    return (System.nanoTime() - time) / 1000000;
+  }
+
+  /**
+   * Tests that a port blocking every read does not delay the polling of a responsive port
+   *
+   * @throws InterruptedException If interrupted while waiting for polls
+   */
+  @Test
+  public void testHungPortDoesNotDelayOtherPorts() throws InterruptedException {
+    CountingListener listener = new CountingListener();
+    ArduinoSerialReceiver.registerListener(listener, testHeader);
+
+    SimulatedArduino hungPort1 = new SimulatedArduino("ttyHUNG0");
+    hungPort1.setHangTime(500);
+    SimulatedArduino hungPort2 = new SimulatedArduino("ttyHUNG1");
+    hungPort2.setHangTime(500);
+    SimulatedArduino device = new SimulatedArduino("ttyUSB0");
+    device.setPollResponse(testHeader, new byte[] {1, 2, 3, 4});
+
+    ArduinoSerialReceiver.start(() -> Arrays.asList(hungPort1, device, hungPort2));
+    Thread.sleep(1000);
+
+    // A 40ms poll interval should give ~25 responses in one second
+    assertTrue(listener.count >= 15, "Responsive port was starved: " + listener.count + " polls");
+    assertTrue(listener.maxGap < 100, "Responsive port delayed by " + listener.maxGap + "ms");
+    assertTrue(hungPort1.getPollCount() > 0, "Hung port was never polled");
+  }
+
+  /**
+   * Tests that a device supporting streaming is sampled more often, and its latest sample is
+   * younger, than a device that has to be polled
+   *
+   * @throws InterruptedException If interrupted while waiting for samples
+   */
+  @Test
+  public void testStreamingImprovesSampleRateAndAge() throws InterruptedException {
+    SampleListener polled = new SampleListener();
+    ArduinoSerialReceiver.registerListener(polled, polledHeader);
+    SampleListener streamed = new SampleListener();
+    ArduinoSerialReceiver.registerListener(streamed, streamHeader);
+
+    SimulatedArduino pollingDevice = new SimulatedArduino("ttyUSB0");
+    pollingDevice.setPollResponse(polledHeader, UT_ArduinoSerialReceiver::sample);
+    SimulatedArduino streamingDevice = new SimulatedArduino("ttyUSB1");
+    streamingDevice.setPollResponse(streamHeader, UT_ArduinoSerialReceiver::sample);
+    streamingDevice.setStreamingSupported(true);
+
+    ArduinoSerialReceiver.start(() -> Arrays.asList(pollingDevice, streamingDevice));
+    Thread.sleep(200);
+    int polledStart = polled.count;
+    int streamedStart = streamed.count;
+    long polledAge = 0;
+    long streamedAge = 0;
+    int samples = 0;
+    long end = System.currentTimeMillis() + 1000;
+    while (System.currentTimeMillis() < end) {
+      long now = System.nanoTime();
+      polledAge += now - polled.sampleTime;
+      streamedAge += now - streamed.sampleTime;
+      samples++;
+      Thread.sleep(1);
+    }
+    int polledRate = polled.count - polledStart;
+    int streamedRate = streamed.count - streamedStart;
+    polledAge /= samples * 1000000L;
+    streamedAge /= samples * 1000000L;
+
+    assertTrue(streamingDevice.getStreamPeriod() > 0, "Streaming was not negotiated");
+    assertTrue(pollingDevice.getStreamPeriod() == 0, "Streaming negotiated with polling device");
+    assertTrue(
+        streamedRate > polledRate * 2,
+        "Streaming gave " + streamedRate + " samples/s against " + polledRate + " polled");
+    assertTrue(
+        streamedAge < polledAge,
+        "Streamed samples were " + streamedAge + "ms old against " + polledAge + "ms polled");
+    assertTrue(streamingDevice.getPollCount() == 0, "Streaming device was still polled");
+  }
+
+  /**
+   * Tests that a high priority listener has its port polled faster than the default interval, and
+   * a low priority one slower
+   *
+   * @throws InterruptedException If interrupted while waiting for polls
+   */
+  @Test
+  public void testPriorityImprovesGyroRate() throws InterruptedException {
+    CountingListener gyro = new CountingListener(50, ArduinoListener.Priority.HIGH);
+    ArduinoSerialReceiver.registerListener(gyro, gyroHeader);
+    CountingListener scale = new CountingListener(250, ArduinoListener.Priority.LOW);
+    ArduinoSerialReceiver.registerListener(scale, scaleHeader);
+    SimulatedArduino gyroDevice = new SimulatedArduino("ttyUSB0");
+    gyroDevice.setPollResponse(gyroHeader, new byte[12]);
+    SimulatedArduino scaleDevice = new SimulatedArduino("ttyUSB1");
+    scaleDevice.setPollResponse(scaleHeader, new byte[4]);
+
+    ArduinoSerialReceiver.start(() -> Arrays.asList(gyroDevice, scaleDevice));
+    Thread.sleep(300);
+    int gyroStart = gyro.count;
+    int scaleStart = scale.count;
+    Thread.sleep(1000);
+    int gyroRate = gyro.count - gyroStart;
+    int scaleRate = scale.count - scaleStart;
+
+    // The default 40ms interval gives 25 samples per second
+    assertTrue(gyroRate >= 50, "Gyro was sampled " + gyroRate + " times per second");
+    assertTrue(scaleRate <= 10, "Scale was sampled " + scaleRate + " times per second");
+    assertTrue(!gyro.isExpired(), "Gyro data expired");
+  }
+
+  /**
+   * Tests that a device which never answers is polled less and less often
+   *
+   * @throws InterruptedException If interrupted while waiting for polls
+   */
+  @Test
+  public void testSilentPortBacksOff() throws InterruptedException {
+    SimulatedArduino silentDevice = new SimulatedArduino("ttyUSB0");
+
+    ArduinoSerialReceiver.start(() -> Arrays.asList(silentDevice));
+    Thread.sleep(1500);
+
+    // Fixed 40ms polling would have polled ~35 times
+    int polls = silentDevice.getPollCount();
+    assertTrue(polls > 0, "Silent device was never polled");
+    assertTrue(polls <= 8, "Silent device was polled " + polls + " times");
+  }
+
+  /**
+   * Tests that a device whose identity was saved by its listener is opened before unknown ports
+   * and bound to the listener before its first message
+   *
+   * @throws InterruptedException If interrupted while waiting for samples
+   */
+  @Test
+  public void testKnownDeviceBindsFirst() throws InterruptedException {
+    CountingListener listener = new BoundListener();
+    ArduinoSerialReceiver.registerListener(listener, boundHeader);
+    UsbIdentity identity = new UsbIdentity("2341", "0043", "95635333930351F0A1C1", "1-1.3");
+    COMPortsStorage.saveDevice("BoundListener", identity.toString());
+
+    SimulatedArduino[] unknownPorts = new SimulatedArduino[3];
+    for (int i = 0; i < unknownPorts.length; i++) {
+      unknownPorts[i] = new SimulatedArduino("ttyUSB" + i);
+      unknownPorts[i].setOpenTime(200);
+    }
+    SimulatedArduino device = new SimulatedArduino("ttyUSB3");
+    device.setIdentity(identity);
+    device.setPollResponse(boundHeader, new byte[12]);
+
+    long start = System.currentTimeMillis();
+    ArduinoSerialReceiver.start(
+        () -> Arrays.asList(unknownPorts[0], unknownPorts[1], unknownPorts[2], device));
+    while (listener.getSerialPort() == null && System.currentTimeMillis() - start < 1000) {
+      Thread.sleep(1);
+    }
+    boolean boundBeforeData = listener.count == 0;
+    while (listener.count == 0 && System.currentTimeMillis() - start < 1000) {
+      Thread.sleep(1);
+    }
+    long firstSample = System.currentTimeMillis() - start;
+
+    // Opening the unknown ports first would take 600ms
+    assertTrue(firstSample < 150, "First sample arrived after " + firstSample + "ms");
+    assertTrue(boundBeforeData, "Listener was bound by its first message");
+    assertTrue(listener.getSerialPort().getName().equals("ttyUSB3"), "Bound to the wrong port");
+  }
+
+  /**
+   * Tests that ports keep receiving at a reduced rate while disabled and deliver fresh data right
+   * after the robot is enabled
+   *
+   * @throws InterruptedException If interrupted while waiting for samples
+   */
+  @Test
+  public void testFreshDataAfterEnable() throws InterruptedException {
+    SampleListener polled = new SampleListener(50, ArduinoListener.Priority.HIGH);
+    ArduinoSerialReceiver.registerListener(polled, warmPolledHeader);
+    SampleListener streamed = new SampleListener();
+    ArduinoSerialReceiver.registerListener(streamed, warmStreamHeader);
+    SimulatedArduino pollingDevice = new SimulatedArduino("ttyUSB0");
+    pollingDevice.setPollResponse(warmPolledHeader, UT_ArduinoSerialReceiver::sample);
+    SimulatedArduino streamingDevice = new SimulatedArduino("ttyUSB1");
+    streamingDevice.setPollResponse(warmStreamHeader, UT_ArduinoSerialReceiver::sample);
+    streamingDevice.setStreamingSupported(true);
+
+    ArduinoSerialReceiver.setEnabled(false);
+    ArduinoSerialReceiver.start(() -> Arrays.asList(pollingDevice, streamingDevice));
+    Thread.sleep(300);
+    int disabledStart = polled.count;
+    Thread.sleep(500);
+    int disabledRate = (polled.count - disabledStart) * 2;
+    int disabledPeriod = streamingDevice.getStreamPeriod();
+
+    long enableTime = System.nanoTime();
+    ArduinoSerialReceiver.setEnabled(true);
+    long polledWait = awaitSampleAfter(polled, enableTime);
+    long streamedWait = awaitSampleAfter(streamed, enableTime);
+    int enabledStart = polled.count;
+    Thread.sleep(500);
+    int enabledRate = (polled.count - enabledStart) * 2;
+
+    // Compared with the rates while disabled rather than fixed times, as a loaded machine slows
+    // every poller thread alike
+    assertTrue(disabledRate > 0, "Port stopped receiving while disabled");
+    assertTrue(
+        enabledRate > disabledRate * 2,
+        "Enabled rate " + enabledRate + "/s against " + disabledRate + "/s disabled");
+    assertTrue(
+        disabledPeriod > streamingDevice.getStreamPeriod(),
+        "Stream period " + disabledPeriod + "ms while disabled was not reduced");
+    // Waking on enable must beat waiting out the interval used while disabled
+    long disabledInterval = 1000 / disabledRate;
+    assertTrue(
+        polledWait < disabledInterval,
+        "Polled data was fresh "
+            + polledWait
+            + "ms after enable, polled every "
+            + disabledInterval
+            + "ms while disabled");
+    assertTrue(
+        streamedWait < disabledPeriod,
+        "Streamed data was fresh "
+            + streamedWait
+            + "ms after enable, streamed every "
+            + disabledPeriod
+            + "ms while disabled");
+  }
+
+  /**
+   * Tests that a listener slower than its port does not slow the polling of the port, and that the
+   * messages it can not keep up with are dropped and counted
+   *
+   * @throws InterruptedException If interrupted while waiting for polls
+   */
+  @Test
+  public void testSlowListenerDoesNotDelayPolling() throws InterruptedException {
+    SlowListener listener = new SlowListener();
+    ArduinoSerialReceiver.registerListener(listener, slowHeader);
+    SimulatedArduino device = new SimulatedArduino("ttySLOW1");
+    device.setPollResponse(slowHeader, new byte[] {1, 2, 3, 4});
+
+    ArduinoSerialReceiver.start(() -> Arrays.asList(device));
+    Thread.sleep(1000);
+
+    // A 40ms poll interval should give ~25 polls in one second, the listener handles ~5 messages
+    int polls = device.getPollCount();
+    assertTrue(polls >= 15, "Port was slowed by its listener: " + polls + " polls");
+    assertTrue(listener.count <= 6, "Listener handled " + listener.count + " messages");
+    assertTrue(listener.getDroppedFrames() > 0, "No messages were dropped");
+    ArduinoSerial serial = ArduinoSerialReceiver.getListeners(slowHeader)[0].getSerialPort();
+    assertTrue(
+        serial.getStats().getDroppedFrames() == listener.getDroppedFrames(),
+        "Port and listener disagree on dropped messages");
+    // Let the frames still queued drain quickly once the test is over
+    listener.slow = false;
+  }
+
+  /**
+   * Tests that ports are initialised in parallel, that initialization returns at its deadline while
+   * a hung port finishes in the background, and that each listener's command reaches its own device
+   *
+   * @throws InterruptedException If interrupted while waiting for the slow port
+   */
+  @Test
+  public void testParallelInitialization() throws InterruptedException {
+    COMPortsStorage.savePort("InitListener", "ttyINIT0");
+    COMPortsStorage.savePort("LateInitListener", "ttyINIT2");
+    InitListener listener = new InitListener();
+    LateInitListener lateListener = new LateInitListener();
+    SimulatedArduino[] devices = new SimulatedArduino[3];
+    AtomicInteger[] resets = new AtomicInteger[devices.length];
+    for (int i = 0; i < devices.length; i++) {
+      devices[i] = new SimulatedArduino("ttyINIT" + i);
+      devices[i].setOpenTime(200);
+      AtomicInteger count = new AtomicInteger();
+      devices[i].setCommandHandler(resetHeader, payload -> count.incrementAndGet());
+      resets[i] = count;
+    }
+    devices[2].setOpenTime(1500);
+
+    long start = System.currentTimeMillis();
+    ArduinoSerialReceiver.initialization(
+        () -> Arrays.asList(devices),
+        () -> {
+          for (ArduinoListener initListener : new ArduinoListener[] {listener, lateListener}) {
+            ArduinoSerial port = initListener.getSerialPort();
+            if (port != null) port.sendData(resetHeader, null);
+          }
+        },
+        500);
+    long elapsed = System.currentTimeMillis() - start;
+
+    assertTrue(elapsed < 1000, "Initialization blocked for " + elapsed + "ms");
+    assertEquals(resets[0].get(), 1);
+    assertEquals(resets[1].get(), 0);
+    assertEquals(resets[2].get(), 0);
+    Map<String, Long> times = ArduinoSerialReceiver.getInitializationTimes();
+    assertTrue(times.get("ttyINIT0") < 400, "Ports were not opened in parallel");
+    assertTrue(times.get("ttyINIT1") < 400, "Ports were not opened in parallel");
+    assertTrue(!times.containsKey("ttyINIT2"), "Slow port finished before its open time");
+
+    while (resets[2].get() == 0 && System.currentTimeMillis() - start < 3000) {
+      Thread.sleep(10);
+    }
+    assertEquals(resets[2].get(), 1, "Slow port was not initialised in the background");
+    assertEquals(resets[0].get(), 1);
+    assertTrue(ArduinoSerialReceiver.getInitializationTimes().get("ttyINIT2") >= 1500);
+  }
+
+  /**
+   * Tests that a port still open on its initialization thread is only opened for polling once that
+   * thread has closed it, without holding up the other ports
+   *
+   * @throws InterruptedException If interrupted while waiting for the ports
+   */
+  @Test
+  public void testStillInitialisingPortDeferred() throws InterruptedException {
+    CountingListener listener = new CountingListener();
+    ArduinoSerialReceiver.registerListener(listener, deferredHeader);
+    AtomicInteger opens = new AtomicInteger();
+    AtomicInteger openHandles = new AtomicInteger();
+    AtomicInteger maxOpenHandles = new AtomicInteger();
+    SimulatedArduino slow =
+        new SimulatedArduino("ttyDEFER0") {
+          @Override
+          public boolean open() {
+            opens.incrementAndGet();
+            maxOpenHandles.accumulateAndGet(openHandles.incrementAndGet(), Math::max);
+            return super.open();
+          }
+
+          @Override
+          public void close() {
+            openHandles.decrementAndGet();
+            super.close();
+          }
+        };
+    slow.setOpenTime(600);
+    SimulatedArduino device = new SimulatedArduino("ttyDEFER1");
+    device.setPollResponse(deferredHeader, new byte[] {1, 2, 3, 4});
+
+    long start = System.currentTimeMillis();
+    ArduinoSerialReceiver.initialization(() -> Arrays.asList(slow), () -> {}, 100);
+    ArduinoSerialReceiver.start(() -> Arrays.asList(slow, device), 100);
+    while (listener.count == 0 && System.currentTimeMillis() - start < 2000) {
+      Thread.sleep(10);
+    }
+    long firstData = System.currentTimeMillis() - start;
+    assertTrue(firstData < 500, "Other port waited " + firstData + "ms for the slow port");
+    assertEquals(opens.get(), 1, "Port was opened for polling while still initialising");
+
+    while (opens.get() < 2 && System.currentTimeMillis() - start < 3000) {
+      Thread.sleep(10);
+    }
+    assertEquals(opens.get(), 2, "Port was not polled after its initialization finished");
+    assertEquals(maxOpenHandles.get(), 1, "Port was open twice at once");
+  }
+}
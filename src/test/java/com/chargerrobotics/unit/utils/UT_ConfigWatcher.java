@@ -0,0 +1,62 @@
+package com.chargerrobotics.unit.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import com.chargerrobotics.utils.ConfigWatcher;
+import com.chargerrobotics.utils.WriteBehindStore;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+
+public class UT_ConfigWatcher {
+
+  private static final long SETTLE_TIME = 50;
+
+  /**
+   * Tests that only keys changed in the file by something else are passed on, and that writes by
+   * the store are ignored
+   *
+   * @throws IOException If the file could not be changed
+   * @throws InterruptedException If interrupted while waiting for the watcher
+   */
+  @Test
+  public void testChangedKeys() throws IOException, InterruptedException {
+    File file = Files.createTempDirectory("watch").resolve("config.yml").toFile();
+    WriteBehindStore store = new WriteBehindStore(file, 60000);
+    store.set("gain", 1);
+    store.set("rpm", 2);
+    // Written by the writer, which then waits out its interval before writing again
+    store.requestFlush();
+    while (store.isDirty()) {
+      Thread.sleep(5);
+    }
+    BlockingQueue<Map<String, Object>> changes = new LinkedBlockingQueue<Map<String, Object>>();
+    ConfigWatcher watcher = new ConfigWatcher(store, changes::add, SETTLE_TIME);
+    watcher.start();
+
+    store.set("gain", 5);
+    store.flush();
+    assertNull(changes.poll(500, TimeUnit.MILLISECONDS), "Write by the store was passed on");
+
+    // A change made through the dashboard that was not yet written is kept
+    store.set("gain", 6);
+    Files.write(file.toPath(), "gain: 5\nrpm: 3\nhood: 4\n".getBytes(StandardCharsets.UTF_8));
+    Map<String, Object> expected = new HashMap<String, Object>();
+    expected.put("rpm", 3);
+    expected.put("hood", 4);
+    assertEquals(changes.poll(2000, TimeUnit.MILLISECONDS), expected);
+    assertEquals(store.getConfig().getInt("rpm"), 3);
+    assertEquals(store.getConfig().getInt("hood"), 4);
+    assertEquals(store.getConfig().getInt("gain"), 6);
+    assertNull(changes.poll(300, TimeUnit.MILLISECONDS), "Change was passed on twice");
+    watcher.stop();
+  }
+}
@@ -0,0 +1,82 @@
+package com.chargerrobotics.unit.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.utils.DeviceClock;
+import java.util.Random;
+import org.testng.annotations.Test;
+
+public class UT_DeviceClock {
+
+  /** Tests that the wrap of the 32 bit device clock does not move the timestamps */
+  @Test
+  public void testDeviceClockWrap() {
+    DeviceClock clock = new DeviceClock();
+    long device = 0xFFFFFFFFL - 5000;
+    long arrival = 50000000;
+    assertEquals(clock.toHostTime(device, arrival), arrival);
+    for (int i = 0; i < 10; i++) {
+      device = (device + 1000) & 0xFFFFFFFFL;
+      arrival += 1000;
+      assertEquals(clock.toHostTime(device, arrival), arrival, "Sample " + i + " moved");
+    }
+  }
+
+  /** Tests that a device clock running slower than the FPGA clock is followed */
+  @Test
+  public void testSlowDeviceClock() {
+    DeviceClock clock = new DeviceClock();
+    long device = 0;
+    long arrival = 0;
+    long error = 0;
+    for (int i = 0; i < 1000; i++) {
+      // The device clock loses 1 microsecond every 10ms
+      device += 9999;
+      arrival += 10000;
+      error = arrival - clock.toHostTime(device, arrival);
+    }
+    assertTrue(error <= 1, "Timestamps fell behind by " + error + "us");
+  }
+
+  /**
+   * Tests that synchronisation exchanges with uneven delays map device timestamps onto host time to
+   * well within a millisecond, despite the device clock running fast
+   */
+  @Test
+  public void testSyncTracksOffsetAndDrift() {
+    DeviceClock clock = new DeviceClock();
+    Random random = new Random(7);
+    long offset = 0xFFFFFFFFL - 3000000;
+    double drift = 500e-6;
+    long host = 10000000;
+    long maxError = 0;
+    for (int i = 0; i < 30; i++) {
+      long hostSend = host;
+      long deviceReceive = host + 100 + random.nextInt(2000);
+      long deviceSend = deviceReceive + 50;
+      long hostReceive = deviceSend + 100 + random.nextInt(2000);
+      clock.addSync(
+          hostSend,
+          deviceTime(deviceReceive, offset, drift),
+          deviceTime(deviceSend, offset, drift),
+          hostReceive);
+      // Samples taken between exchanges, arriving up to 5ms later
+      for (int j = 1; j < 10; j++) {
+        long sample = hostReceive + j * 100000;
+        long arrival = sample + random.nextInt(5000);
+        long timestamp = clock.toHostTime(deviceTime(sample, offset, drift), arrival);
+        if (i >= 10) maxError = Math.max(maxError, Math.abs(timestamp - sample));
+      }
+      host += 1000000;
+    }
+    assertTrue(clock.isSynced(), "Clock was not synchronised");
+    assertTrue(maxError < 500, "Timestamps were off by up to " + maxError + "us");
+    assertEquals(clock.getDrift(), -drift, 100e-6);
+  }
+
+  /** Device clock running at the given offset and drift from the host clock */
+  private static long deviceTime(long host, long offset, double drift) {
+    return (host + offset + (long) (drift * host)) & 0xFFFFFFFFL;
+  }
+}
@@ -0,0 +1,47 @@
+package com.chargerrobotics.unit.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.utils.LatencyHistogram;
+import org.testng.annotations.Test;
+
+public class UT_LatencyHistogram {
+
+  /** Tests that short durations are counted exactly */
+  @Test
+  public void testShortDurationsExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int micros = 0; micros < 10; micros++) {
+      histogram.record(micros);
+    }
+    assertEquals(histogram.getCount(), 10);
+    assertEquals(histogram.getPercentile(0.5), 4);
+    assertEquals(histogram.getPercentile(1), 9);
+  }
+
+  /** Tests that percentiles of long durations are within the bucket resolution */
+  @Test
+  public void testPercentileResolution() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int micros = 1; micros <= 100000; micros++) {
+      histogram.record(micros);
+    }
+    long p50 = histogram.getPercentile(0.5);
+    long p99 = histogram.getPercentile(0.99);
+    assertTrue(p50 >= 50000 && p50 <= 50000 * 1.125, "p50 was " + p50);
+    assertTrue(p99 >= 99000 && p99 <= 99000 * 1.125, "p99 was " + p99);
+  }
+
+  /** Tests that an empty or reset histogram reports 0 */
+  @Test
+  public void testReset() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(histogram.getPercentile(0.99), 0);
+    histogram.record(5000);
+    histogram.record(Long.MAX_VALUE);
+    histogram.reset();
+    assertEquals(histogram.getCount(), 0);
+    assertEquals(histogram.getPercentile(0.99), 0);
+  }
+}
@@ -0,0 +1,158 @@
+package com.chargerrobotics.unit.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.utils.Config;
+import com.chargerrobotics.utils.DoubleMapping;
+import com.chargerrobotics.utils.MappingGroup;
+import com.chargerrobotics.utils.MappingUpdates;
+import com.chargerrobotics.utils.NetworkMapping;
+import com.chargerrobotics.utils.WriteBehindStore;
+import edu.wpi.first.networktables.NetworkTableValue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class UT_MappingUpdates {
+
+  private static final long SETTLE_TIME = 200;
+
+  private File directory;
+  private WriteBehindStore store;
+  private WriteBehindStore previousStore;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("config").toFile();
+    store = new WriteBehindStore(new File(directory, "config.yml"), 60000);
+    previousStore = Config.setStore(store);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    Config.setStore(previousStore);
+    for (String key : store.getConfig().getKeys(false)) {
+      store.set(key, null);
+    }
+    store.flush();
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  /** Tests that updates wait for the main loop, and that those between loops are coalesced */
+  @Test
+  public void testUpdatesCoalesced() {
+    MappingUpdates.apply(0);
+    List<Double> updates = new ArrayList<Double>();
+    DoubleMapping gain = new DoubleMapping("test_queued_gain", 1.0, val -> updates.add(val));
+    NetworkMapping<String> mode = new NetworkMapping<String>("test_queued_mode", "idle");
+
+    gain.receive(NetworkTableValue.makeDouble(2.0));
+    gain.receive(NetworkTableValue.makeDouble(3.0));
+    gain.receive(NetworkTableValue.makeDouble(4.0));
+    mode.receive(NetworkTableValue.makeString("shoot"));
+    assertEquals(gain.getValue(), 1.0, 0, "Update applied before the main loop");
+    assertEquals(mode.getValue(), "idle", "Update applied before the main loop");
+
+    MappingUpdates.apply(0);
+    assertEquals(gain.getValue(), 4.0, 0);
+    assertEquals(mode.getValue(), "shoot");
+    assertEquals(updates.size(), 1, "Updates were not coalesced: " + updates);
+    assertEquals(updates.get(0), 4.0, 0);
+    assertEquals(Config.getConfig().get("test_queued_gain"), 4.0);
+    assertEquals(Config.getConfig().get("test_queued_mode"), "shoot");
+
+    // Unchanged and wrongly typed updates are not passed on
+    gain.receive(NetworkTableValue.makeDouble(4.0));
+    gain.receive(NetworkTableValue.makeBoolean(true));
+    MappingUpdates.apply(0);
+    assertEquals(gain.getValue(), 4.0, 0);
+    assertEquals(updates.size(), 1, "Callback ran without a change: " + updates);
+  }
+
+  /** Tests that a group waits for its updates to settle, then applies every member at once */
+  @Test
+  public void testGroupAppliedTogether() {
+    MappingUpdates.apply(0);
+    List<String> events = new ArrayList<String>();
+    DoubleMapping[] gains = new DoubleMapping[3];
+    for (int i = 0; i < gains.length; i++) {
+      String name = "test_group_" + i;
+      gains[i] =
+          new DoubleMapping(
+              name,
+              0.0,
+              () -> {
+                // Every member must already hold its new value when the first callback runs
+                double sum = 0;
+                for (DoubleMapping gain : gains) {
+                  sum += gain.getValue();
+                }
+                events.add(name + "=" + sum);
+              });
+    }
+    new MappingGroup(SETTLE_TIME).add(gains);
+
+    long now = 1000;
+    gains[0].receive(NetworkTableValue.makeDouble(1.0));
+    MappingUpdates.apply(now);
+    gains[1].receive(NetworkTableValue.makeDouble(2.0));
+    MappingUpdates.apply(now += SETTLE_TIME / 2);
+    gains[2].receive(NetworkTableValue.makeDouble(4.0));
+    MappingUpdates.apply(now += SETTLE_TIME / 2);
+    MappingUpdates.apply(now += SETTLE_TIME / 2);
+    assertTrue(events.isEmpty(), "Group applied before settling: " + events);
+    assertEquals(gains[0].getValue(), 0.0, 0, "Group applied before settling");
+
+    MappingUpdates.apply(now += SETTLE_TIME / 2);
+    assertEquals(gains[0].getValue(), 1.0, 0);
+    assertEquals(gains[1].getValue(), 2.0, 0);
+    assertEquals(gains[2].getValue(), 4.0, 0);
+    assertEquals(events.size(), 3, "Each changed member should run once: " + events);
+    for (String event : events) {
+      assertTrue(event.endsWith("=7.0"), "Callback saw a partly applied group: " + events);
+    }
+
+    MappingUpdates.apply(now += SETTLE_TIME);
+    assertEquals(events.size(), 3, "Group applied twice: " + events);
+  }
+
+  /** Tests that keys changed in the config file are applied on the main loop */
+  @Test
+  public void testSavedChangesQueued() {
+    MappingUpdates.apply(0);
+    List<Double> updates = new ArrayList<Double>();
+    DoubleMapping gain = new DoubleMapping("test_reloaded_gain", 1.0, val -> updates.add(val));
+
+    Map<String, Object> changes = new HashMap<String, Object>();
+    changes.put("test_reloaded_gain", 0.75);
+    changes.put("test_reloaded_unused", 2);
+    Config.applyChanges(changes);
+    assertEquals(gain.getValue(), 1.0, 0, "Change applied before the main loop");
+    MappingUpdates.apply(0);
+    assertEquals(gain.getValue(), 0.75, 0);
+    assertEquals(updates.size(), 1);
+
+    Config.applyChanges(Collections.singletonMap("test_reloaded_gain", "fast"));
+    MappingUpdates.apply(0);
+    assertEquals(gain.getValue(), 0.75, 0, "Value of the wrong type was applied");
+    assertEquals(updates.size(), 1);
+
+    // A whole number edited into the file for a decimal mapping
+    NetworkMapping<Double> scale = new NetworkMapping<Double>("test_reloaded_scale", 0.5);
+    Config.applyChanges(Collections.singletonMap("test_reloaded_scale", 1));
+    MappingUpdates.apply(0);
+    assertEquals(scale.getValue(), 1.0);
+  }
+}
@@ -0,0 +1,77 @@
+package com.chargerrobotics.unit.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.utils.MessageLayout;
+import com.chargerrobotics.utils.MessageLayout.Type;
+import com.chargerrobotics.utils.SensorSnapshot;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.testng.annotations.Test;
+
+public class UT_MessageLayout {
+
+  /** Tests that every field type is read at its offset with the right sign */
+  @Test
+  public void testDecodeEveryType() {
+    MessageLayout layout =
+        MessageLayout.of(
+            Type.INT8,
+            Type.UINT8,
+            Type.INT16,
+            Type.UINT16,
+            Type.INT32,
+            Type.UINT32,
+            Type.INT64,
+            Type.FLOAT,
+            Type.DOUBLE);
+    assertEquals(layout.getLength(), 1 + 1 + 2 + 2 + 4 + 4 + 8 + 4 + 8);
+    ByteBuffer payload =
+        ByteBuffer.allocate(layout.getLength() + 2)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .put((byte) 0x7f)
+            .put((byte) 0)
+            .put((byte) -2)
+            .put((byte) -2)
+            .putShort((short) -300)
+            .putShort((short) -300)
+            .putInt(-70000)
+            .putInt(-70000)
+            .putLong(Long.MIN_VALUE)
+            .putFloat(1.25f)
+            .putDouble(-3.5);
+    payload.flip();
+    payload.position(2);
+    SensorSnapshot snapshot = layout.createSnapshot();
+
+    assertTrue(layout.decode(payload, snapshot, 42, 7), "Payload was too short");
+    assertEquals(payload.position(), 2, "Decoding moved the payload position");
+    SensorSnapshot.Reading reading = new SensorSnapshot.Reading();
+    snapshot.read(reading);
+    assertEquals(reading.getLong(0), -2);
+    assertEquals(reading.getLong(1), 254);
+    assertEquals(reading.getLong(2), -300);
+    assertEquals(reading.getLong(3), 65236);
+    assertEquals(reading.getLong(4), -70000);
+    assertEquals(reading.getLong(5), 4294897296L);
+    assertEquals(reading.getLong(6), Long.MIN_VALUE);
+    assertEquals(reading.getFloat(7), 1.25f, 0f);
+    assertEquals(reading.getDouble(8), -3.5, 0);
+    assertEquals(reading.getTimestamp(), 42);
+    assertEquals(reading.getReceivedTime(), 7);
+  }
+
+  /** Tests that a payload shorter than the layout publishes nothing */
+  @Test
+  public void testShortPayloadIgnored() {
+    MessageLayout layout = MessageLayout.of(Type.FLOAT, Type.FLOAT);
+    SensorSnapshot snapshot = layout.createSnapshot();
+    ByteBuffer payload = ByteBuffer.allocate(7).order(ByteOrder.LITTLE_ENDIAN);
+
+    assertTrue(!layout.decode(payload, snapshot, 1, 1), "Short payload was decoded");
+    SensorSnapshot.Reading reading = new SensorSnapshot.Reading();
+    snapshot.read(reading);
+    assertEquals(reading.getReceivedTime(), 0);
+  }
+}
@@ -0,0 +1,103 @@
+package com.chargerrobotics.unit.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.utils.BooleanMapping;
+import com.chargerrobotics.utils.Config;
+import com.chargerrobotics.utils.DoubleMapping;
+import com.chargerrobotics.utils.LongMapping;
+import com.chargerrobotics.utils.WriteBehindStore;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class UT_PrimitiveMapping {
+
+  private static final int WARMUP = 100000;
+  private static final int ITERATIONS = 1000000;
+  private static final String[] KEYS = {
+    "test_saved_double", "test_saved_long", "test_flag", "test_gain", "test_enabled", "test_rpm"
+  };
+
+  private File directory;
+  private WriteBehindStore store;
+  private WriteBehindStore previousStore;
+
+  private static long getAllocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("config").toFile();
+    store = new WriteBehindStore(new File(directory, "config.yml"), 60000);
+    previousStore = Config.setStore(store);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    Config.setStore(previousStore);
+    for (String key : KEYS) {
+      store.set(key, null);
+    }
+    store.flush();
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  /** Tests that a saved value replaces the default, and that setting a value runs the callback */
+  @Test
+  public void testValues() {
+    Config.set("test_saved_double", 2.5);
+    Config.set("test_saved_long", 7);
+    double[] updated = new double[1];
+    DoubleMapping saved = new DoubleMapping("test_saved_double", 1.0, val -> updated[0] = val);
+    assertEquals(saved.getValue(), 2.5, 0);
+    saved.setValue(3.5, true);
+    assertEquals(saved.getValue(), 3.5, 0);
+    assertEquals(updated[0], 3.5, 0);
+    assertEquals(saved.reset(), 1.0, 0);
+    assertEquals(updated[0], 3.5, 0, "Callback ran without being asked to");
+
+    LongMapping count = new LongMapping("test_saved_long", 3);
+    assertEquals(count.getValue(), 7);
+
+    boolean[] enabled = new boolean[1];
+    BooleanMapping flag = new BooleanMapping("test_flag", true, val -> enabled[0] = val, true);
+    assertTrue(flag.getValue(), "Default was not used");
+    assertTrue(enabled[0], "Callback was not run at initialization");
+    flag.setValue(false, true);
+    assertTrue(!flag.getValue() && !enabled[0], "Value was not set");
+  }
+
+  /** Tests that reading a tunable does not allocate */
+  @Test
+  public void testReadDoesNotAllocate() {
+    DoubleMapping gain = new DoubleMapping("test_gain", 0.015);
+    BooleanMapping flag = new BooleanMapping("test_enabled", true);
+    LongMapping rpm = new LongMapping("test_rpm", 4000);
+    double sum = 0;
+    for (int i = 0; i < WARMUP; i++) {
+      sum += gain.getValue() + (flag.getValue() ? rpm.getValue() : 0);
+    }
+
+    long overheadStart = getAllocatedBytes();
+    long overhead = getAllocatedBytes() - overheadStart;
+    long start = getAllocatedBytes();
+    for (int i = 0; i < ITERATIONS; i++) {
+      sum += gain.getValue() + (flag.getValue() ? rpm.getValue() : 0);
+    }
+    long allocated = getAllocatedBytes() - start - overhead;
+
+    assertTrue(sum > 0);
+    assertTrue(allocated / ITERATIONS == 0, allocated + " bytes allocated by reading");
+  }
+}
@@ -0,0 +1,101 @@
+package com.chargerrobotics.unit.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.utils.SensorSnapshot;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.annotations.Test;
+
+public class UT_SensorSnapshot {
+
+  private static final int FIELDS = 16;
+  private static final int READERS = 3;
+  private static final long DURATION = 500;
+
+  /** Tests that a snapshot reads back what was published, and nothing before the first message */
+  @Test
+  public void testReadBack() {
+    SensorSnapshot snapshot = new SensorSnapshot(3);
+    SensorSnapshot.Reading reading = new SensorSnapshot.Reading();
+    snapshot.read(reading);
+    assertEquals(reading.getReceivedTime(), 0);
+    assertEquals(reading.getFloat(0), 0f, 0f);
+
+    snapshot.beginWrite();
+    snapshot.setFloat(0, 1.5f);
+    snapshot.setDouble(1, -2.25);
+    snapshot.setLong(2, Long.MIN_VALUE + 1);
+    snapshot.endWrite(1234, 5678);
+    snapshot.read(reading);
+
+    assertEquals(reading.getFloat(0), 1.5f, 0f);
+    assertEquals(reading.getDouble(1), -2.25, 0);
+    assertEquals(reading.getLong(2), Long.MIN_VALUE + 1);
+    assertEquals(reading.getTimestamp(), 1234);
+    assertEquals(reading.getReceivedTime(), 5678);
+    assertEquals(snapshot.getFloat(0), 1.5f, 0f);
+    assertEquals(snapshot.getLong(2), Long.MIN_VALUE + 1);
+  }
+
+  /**
+   * Tests that readers racing a writer never see fields from two different messages
+   *
+   * @throws InterruptedException If interrupted while waiting for the threads
+   */
+  @Test
+  public void testNoTornReads() throws InterruptedException {
+    SensorSnapshot snapshot = new SensorSnapshot(FIELDS);
+    AtomicLong reads = new AtomicLong();
+    AtomicLong tornReads = new AtomicLong();
+    long end = System.currentTimeMillis() + DURATION;
+
+    Thread writer =
+        new Thread(
+            () -> {
+              // Every field of message n holds n, with high and low words that differ on each write
+              for (long n = 1; System.currentTimeMillis() < end; n++) {
+                long value = n * 0x100000001L;
+                snapshot.beginWrite();
+                for (int field = 0; field < FIELDS - 1; field++) {
+                  snapshot.setLong(field, value);
+                }
+                snapshot.setDouble(FIELDS - 1, value);
+                snapshot.endWrite(value, value);
+              }
+            });
+    Thread[] readers = new Thread[READERS];
+    for (int i = 0; i < READERS; i++) {
+      readers[i] =
+          new Thread(
+              () -> {
+                SensorSnapshot.Reading reading = new SensorSnapshot.Reading();
+                while (System.currentTimeMillis() < end) {
+                  snapshot.read(reading);
+                  long value = reading.getTimestamp();
+                  boolean torn = reading.getReceivedTime() != value;
+                  for (int field = 0; field < FIELDS - 1; field++) {
+                    torn |= reading.getLong(field) != value;
+                  }
+                  torn |= reading.getDouble(FIELDS - 1) != value;
+                  long single = snapshot.getLong(0);
+                  torn |= (single & 0xffffffffL) != single >>> 32;
+                  if (torn) tornReads.incrementAndGet();
+                  reads.incrementAndGet();
+                }
+              });
+    }
+
+    writer.start();
+    for (Thread reader : readers) {
+      reader.start();
+    }
+    writer.join();
+    for (Thread reader : readers) {
+      reader.join();
+    }
+
+    assertTrue(reads.get() > 1000, "Only " + reads.get() + " reads completed");
+    assertEquals(tornReads.get(), 0, tornReads.get() + " of " + reads.get() + " reads were torn");
+  }
+}
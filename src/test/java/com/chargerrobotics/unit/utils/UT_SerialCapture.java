@@ -0,0 +1,199 @@
+package com.chargerrobotics.unit.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.testutils.SimulatedArduino;
+import com.chargerrobotics.utils.ArduinoSerial;
+import com.chargerrobotics.utils.ArduinoSerialReceiver;
+import com.chargerrobotics.utils.ArduinoSerialReceiver.ArduinoListener;
+import com.chargerrobotics.utils.COMPortsStorage;
+import com.chargerrobotics.utils.ReplayTransport;
+import com.chargerrobotics.utils.SerialCapture;
+import com.chargerrobotics.utils.WriteBehindStore;
+import edu.wpi.first.wpilibj.RobotController;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class UT_SerialCapture {
+
+  private static final short captureHeader = (short) 0x752D;
+
+  /** Records every value and timestamp received */
+  private static class RecordingListener extends ArduinoListener {
+    private final List<Integer> values = new ArrayList<Integer>();
+    private final List<Long> timestamps = new ArrayList<Long>();
+
+    @Override
+    public void receiveData(ArduinoSerial serial, ByteBuffer data) {
+      values.add(data.getInt());
+      timestamps.add(getLastTimestamp());
+    }
+  }
+
+  private static final RecordingListener listener = new RecordingListener();
+
+  static {
+    ArduinoSerialReceiver.registerListener(listener, captureHeader);
+  }
+
+  private File file;
+  private volatile long time;
+  private File directory;
+  private WriteBehindStore store;
+  private WriteBehindStore previousStore;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    file = Files.createTempFile("capture", ".cap").toFile();
+    directory = Files.createTempDirectory("ports").toFile();
+    store = new WriteBehindStore(new File(directory, "com.yml"), 60000);
+    previousStore = COMPortsStorage.setStore(store);
+    listener.values.clear();
+    listener.timestamps.clear();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    ArduinoSerialReceiver.setTimeSource(RobotController::getFPGATime);
+    file.delete();
+    COMPortsStorage.setStore(previousStore);
+    store.flush();
+    for (File stored : directory.listFiles()) {
+      stored.delete();
+    }
+    directory.delete();
+  }
+
+  /**
+   * Tests that replaying a capture gives the listeners the same data and timestamps as the device
+   *
+   * @throws IOException If the capture can not be written or read
+   */
+  @Test
+  public void testReplayMatchesCapture() throws IOException {
+    ArduinoSerialReceiver.setTimeSource(() -> time);
+    int[] counter = new int[1];
+    SimulatedArduino device = new SimulatedArduino("ttyCAP0");
+    device.setPollResponse(
+        captureHeader, () -> ByteBuffer.allocate(4).putInt(counter[0]++).array());
+    ArduinoSerial serial = new ArduinoSerial(device) {};
+    serial.setCapture(new SerialCapture(file, 1 << 16));
+    for (int i = 0; i < 50; i++) {
+      time = 1000000 + i * 20000;
+      assertTrue(serial.poll(), "Poll was not answered");
+      ArduinoSerialReceiver.dispatchPending();
+    }
+    serial.close();
+    List<Integer> values = new ArrayList<Integer>(listener.values);
+    List<Long> timestamps = new ArrayList<Long>(listener.timestamps);
+    listener.values.clear();
+    listener.timestamps.clear();
+
+    ReplayTransport replay = new ReplayTransport(file, false);
+    ArduinoSerialReceiver.setTimeSource(replay);
+    ArduinoSerial replayed = new ArduinoSerial(replay) {};
+    while (!replay.isFinished()) {
+      replayed.poll();
+      ArduinoSerialReceiver.dispatchPending();
+    }
+    replayed.close();
+
+    assertEquals(values.size(), 50);
+    assertEquals(listener.values, values);
+    assertEquals(listener.timestamps, timestamps);
+  }
+
+  /**
+   * Tests that bytes received once the capture is full are dropped and the rest replayed
+   *
+   * @throws IOException If the capture can not be written or read
+   */
+  @Test
+  public void testCaptureSizeCapped() throws IOException {
+    SerialCapture capture = new SerialCapture(file, 16 + 2 * (10 + 20));
+    byte[] data = new byte[20];
+    for (int i = 0; i < 3; i++) {
+      capture.record(i, data, 0, data.length);
+    }
+    capture.close();
+    assertEquals(capture.getDroppedBytes(), 20);
+
+    ReplayTransport replay = new ReplayTransport(file, false);
+    replay.open();
+    byte[] buffer = new byte[64];
+    int total = 0;
+    while (!replay.isFinished()) {
+      total += replay.readBytes(buffer, 0, buffer.length);
+    }
+    assertEquals(total, 40);
+    assertEquals(replay.readBytes(buffer, 0, buffer.length), 0);
+  }
+
+  /**
+   * Tests that a real time replay holds each read back until it is due
+   *
+   * @throws IOException If the capture can not be written or read
+   */
+  @Test
+  public void testRealTimeReplay() throws IOException {
+    SerialCapture capture = new SerialCapture(file, 1024);
+    byte[] data = new byte[] {1, 2, 3, 4};
+    capture.record(5000000, data, 0, data.length);
+    capture.record(5050000, data, 0, data.length);
+    capture.close();
+
+    ReplayTransport replay = new ReplayTransport(file, true);
+    replay.open();
+    long start = System.nanoTime();
+    byte[] buffer = new byte[64];
+    assertEquals(replay.readBytes(buffer, 0, buffer.length), 4);
+    while (replay.readBytes(buffer, 0, buffer.length) == 0) {
+      assertTrue(System.nanoTime() - start < 1000000000L, "Second read was never due");
+    }
+    long elapsed = (System.nanoTime() - start) / 1000;
+    assertTrue(elapsed >= 50000, "Second read was replayed after " + elapsed + "us");
+    assertEquals(replay.getTime(), 5050000);
+  }
+
+  /**
+   * Tests that a file that is not a capture is refused
+   *
+   * @throws IOException Expected
+   */
+  @Test(expectedExceptions = IOException.class)
+  public void testNotACapture() throws IOException {
+    Files.write(file.toPath(), new byte[32]);
+    new ReplayTransport(file, false);
+  }
+
+  /**
+   * Tests that creating a capture deletes the oldest captures of the same port
+   *
+   * @throws IOException If the captures can not be created
+   */
+  @Test
+  public void testOldCapturesDeleted() throws IOException {
+    File directory = Files.createTempDirectory("captures").toFile();
+    String[] old = {"ttyACM0-20210101-120000.cap", "ttyACM0-20210102-120000.cap"};
+    for (String name : old) {
+      Files.write(new File(directory, name).toPath(), new byte[16]);
+    }
+    File otherPort = new File(directory, "ttyACM01-20200101-120000.cap");
+    Files.write(otherPort.toPath(), new byte[16]);
+
+    SerialCapture capture = SerialCapture.create(directory, "ttyACM0", 1024, 2);
+    capture.close();
+    assertTrue(!new File(directory, old[0]).exists(), "Oldest capture was kept");
+    assertTrue(new File(directory, old[1]).exists(), "Newer capture was deleted");
+    assertTrue(capture.getFile().exists(), "New capture was not created");
+    assertTrue(otherPort.exists(), "Capture of another port was deleted");
+  }
+}
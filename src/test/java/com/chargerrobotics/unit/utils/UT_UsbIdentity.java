@@ -0,0 +1,91 @@
+package com.chargerrobotics.unit.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.utils.UsbIdentity;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class UT_UsbIdentity {
+
+  private Path sysfs;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    sysfs = Files.createTempDirectory("sysfs");
+  }
+
+  /**
+   * Creates a USB device with a tty below its first interface, as the kernel lays them out
+   *
+   * @param location USB port path
+   * @param serial Serial number, or <code>null</code> for none
+   * @param portName Name of the tty
+   * @throws IOException If the files can not be created
+   */
+  private void addDevice(String location, String serial, String portName) throws IOException {
+    Path device = sysfs.resolve("devices/usb1/1-1").resolve(location);
+    Path tty = device.resolve(location + ":1.0").resolve(portName);
+    Files.createDirectories(tty);
+    Files.write(device.resolve("idVendor"), "1a86\n".getBytes(StandardCharsets.US_ASCII));
+    Files.write(device.resolve("idProduct"), "7523\n".getBytes(StandardCharsets.US_ASCII));
+    if (serial != null) {
+      Files.write(device.resolve("serial"), (serial + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+    Path link = sysfs.resolve("class/tty").resolve(portName);
+    Files.createDirectories(link);
+    Files.createSymbolicLink(link.resolve("device"), tty);
+  }
+
+  private File getTtyClass() {
+    return sysfs.resolve("class/tty").toFile();
+  }
+
+  /**
+   * Tests that the identity is read from the USB device above the tty
+   *
+   * @throws IOException If the fake sysfs can not be created
+   */
+  @Test
+  public void testForPort() throws IOException {
+    addDevice("1-1.2", "A50285BI", "ttyUSB0");
+    addDevice("1-1.4", null, "ttyUSB1");
+
+    assertEquals(
+        UsbIdentity.forPort(getTtyClass(), "ttyUSB0"),
+        new UsbIdentity("1a86", "7523", "A50285BI", "1-1.2"));
+    assertEquals(
+        UsbIdentity.forPort(getTtyClass(), "ttyUSB1"),
+        new UsbIdentity("1a86", "7523", "", "1-1.4"));
+    assertNull(UsbIdentity.forPort(getTtyClass(), "ttyS0"), "Non-USB port had an identity");
+  }
+
+  /** Tests that an identity survives being saved as text */
+  @Test
+  public void testParse() {
+    UsbIdentity identity = new UsbIdentity("2341", "0043", "", "1-1.3");
+    assertEquals(UsbIdentity.parse(identity.toString()), identity);
+    assertNull(UsbIdentity.parse("ttyUSB0"), "Port name parsed as an identity");
+    assertNull(UsbIdentity.parse(null));
+  }
+
+  /** Tests that serial numbers identify devices anywhere and locations identify the rest */
+  @Test
+  public void testMatches() {
+    UsbIdentity serial = new UsbIdentity("2341", "0043", "A50285BI", "1-1.2");
+    assertTrue(serial.matches(new UsbIdentity("2341", "0043", "A50285BI", "1-1.4")));
+    assertTrue(!serial.matches(new UsbIdentity("2341", "0043", "B50285BI", "1-1.2")));
+
+    UsbIdentity clone = new UsbIdentity("1a86", "7523", "", "1-1.2");
+    assertTrue(clone.matches(new UsbIdentity("1a86", "7523", "", "1-1.2")));
+    assertTrue(!clone.matches(new UsbIdentity("1a86", "7523", "", "1-1.4")));
+    assertTrue(!clone.matches(new UsbIdentity("2341", "0043", "", "1-1.2")));
+  }
+}
@@ -0,0 +1,180 @@
+package com.chargerrobotics.unit.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.chargerrobotics.utils.WriteBehindStore;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.simpleyaml.configuration.file.YamlConfiguration;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class UT_WriteBehindStore {
+
+  private Path directory;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("store");
+  }
+
+  /**
+   * Waits until the store has written the given number of times
+   *
+   * @param store Store to wait for
+   * @param writes Number of writes
+   * @param timeout Time to wait in milliseconds
+   * @throws InterruptedException If interrupted while waiting
+   */
+  private static void awaitWrites(WriteBehindStore store, long writes, long timeout)
+      throws InterruptedException {
+    long end = System.currentTimeMillis() + timeout;
+    while (store.getWrites() < writes && System.currentTimeMillis() < end) {
+      Thread.sleep(5);
+    }
+  }
+
+  /**
+   * Tests that a burst of changes is written once, atomically, with every change in the file
+   *
+   * @throws InterruptedException If interrupted while waiting for the write
+   */
+  @Test
+  public void testBurstIsCoalesced() throws InterruptedException {
+    File file = directory.resolve("config.yml").toFile();
+    WriteBehindStore store = new WriteBehindStore(file, 200);
+    store.set("first", "1");
+    awaitWrites(store, 1, 1000);
+    assertEquals(store.getWrites(), 1);
+
+    // A slider dragged across the dashboard
+    for (int i = 0; i < 100; i++) {
+      store.set("slider", Integer.toString(i));
+    }
+    store.set("last", "done");
+    assertEquals(store.getWrites(), 1, "Changes were written before the write interval passed");
+    awaitWrites(store, 2, 1000);
+
+    assertEquals(store.getWrites(), 2);
+    assertEquals(store.getCoalescedUpdates(), 102);
+    YamlConfiguration written = YamlConfiguration.loadConfiguration(file);
+    assertEquals(written.getString("first"), "1");
+    assertEquals(written.getString("slider"), "99");
+    assertEquals(written.getString("last"), "done");
+    assertTrue(!new File(directory.toFile(), "config.yml.tmp").exists(), "Temporary file was left");
+  }
+
+  /**
+   * Tests that a requested flush skips the write interval
+   *
+   * @throws InterruptedException If interrupted while waiting for the write
+   */
+  @Test
+  public void testRequestedFlushSkipsInterval() throws InterruptedException {
+    File file = directory.resolve("com.yml").toFile();
+    WriteBehindStore store = new WriteBehindStore(file, 60000);
+    store.set("first", "1");
+    awaitWrites(store, 1, 1000);
+    store.set("second", "2");
+    Thread.sleep(50);
+    assertTrue(store.isDirty(), "Change was written before the write interval passed");
+
+    WriteBehindStore.requestFlushAll();
+    awaitWrites(store, 2, 1000);
+    assertEquals(store.getWrites(), 2);
+    assertEquals(YamlConfiguration.loadConfiguration(file).getString("second"), "2");
+  }
+
+  /** Tests that flushing on the calling thread writes pending changes immediately */
+  @Test
+  public void testFlush() {
+    File file = directory.resolve("flush.yml").toFile();
+    WriteBehindStore store = new WriteBehindStore(file, 60000);
+    assertTrue(store.flush(), "Flushing a clean store failed");
+    assertEquals(store.getWrites(), 0);
+    synchronized (store.getLock()) {
+      store.getConfig().set("direct", "yes");
+      store.markDirty();
+    }
+    assertTrue(store.flush(), "Flush failed");
+    assertTrue(!store.isDirty(), "Store still dirty after flush");
+    assertEquals(YamlConfiguration.loadConfiguration(file).getString("direct"), "yes");
+
+    // A whole number read from the file, set again by a decimal mapping
+    store.set("gain", 5);
+    assertTrue(store.flush(), "Flush failed");
+    store.set("gain", 5.0);
+    assertTrue(!store.isDirty(), "Setting an equal number made the store dirty");
+  }
+
+  /**
+   * Tests that a written document is loaded from its snapshot, with its value types, and that the
+   * YAML is parsed instead once it has been changed by hand
+   *
+   * @throws IOException If the YAML could not be changed
+   */
+  @Test
+  public void testSnapshot() throws IOException {
+    File file = directory.resolve("snapshot.yml").toFile();
+    WriteBehindStore store = new WriteBehindStore(file, 60000);
+    store.set("gain", 0.25);
+    store.set("rpm", 4000);
+    store.set("enabled", true);
+    store.set("name", "shooter");
+    assertTrue(store.flush(), "Flush failed");
+    assertTrue(new File(directory.toFile(), "snapshot.yml.bin").isFile(), "Snapshot not written");
+
+    WriteBehindStore loaded = new WriteBehindStore(file, 60000);
+    YamlConfiguration config = loaded.getConfig();
+    assertTrue(loaded.isLoadedFromSnapshot(), "Snapshot was not used");
+    assertTrue(loaded.getLoadTime() > 0);
+    assertEquals(config.get("gain"), 0.25);
+    assertEquals(config.get("rpm"), 4000);
+    assertEquals(config.get("enabled"), true);
+    assertEquals(config.get("name"), "shooter");
+
+    Files.write(
+        file.toPath(), "name: hood\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    WriteBehindStore edited = new WriteBehindStore(file, 60000);
+    assertEquals(edited.getConfig().getString("name"), "hood");
+    assertTrue(!edited.isLoadedFromSnapshot(), "Stale snapshot was used");
+  }
+
+  /**
+   * Tests that a corrupt snapshot is ignored and replaced after the YAML is parsed
+   *
+   * @throws IOException If the snapshot could not be corrupted
+   * @throws InterruptedException If interrupted while waiting for the snapshot
+   */
+  @Test
+  public void testCorruptSnapshot() throws IOException, InterruptedException {
+    File file = directory.resolve("corrupt.yml").toFile();
+    File snapshot = new File(directory.toFile(), "corrupt.yml.bin");
+    WriteBehindStore store = new WriteBehindStore(file, 60000);
+    store.set("gain", 0.5);
+    assertTrue(store.flush(), "Flush failed");
+    byte[] bytes = Files.readAllBytes(snapshot.toPath());
+    bytes[bytes.length / 2] ^= 0x10;
+    Files.write(snapshot.toPath(), bytes);
+
+    WriteBehindStore loaded = new WriteBehindStore(file, 60000);
+    assertEquals(loaded.getConfig().getString("gain"), "0.5");
+    assertTrue(!loaded.isLoadedFromSnapshot(), "Corrupt snapshot was used");
+
+    // The writer replaces the snapshot in the background
+    long end = System.currentTimeMillis() + 1000;
+    while (Arrays.equals(Files.readAllBytes(snapshot.toPath()), bytes)
+        && System.currentTimeMillis() < end) {
+      Thread.sleep(5);
+    }
+    WriteBehindStore reloaded = new WriteBehindStore(file, 60000);
+    reloaded.getConfig();
+    assertTrue(reloaded.isLoadedFromSnapshot(), "Snapshot was not rewritten");
+  }
+}